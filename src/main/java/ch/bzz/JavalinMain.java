@@ -1,196 +1,1000 @@
 package ch.bzz;
 
+import ch.bzz.catalog.BookChangeFeed;
+import ch.bzz.catalog.BookFacets;
+import ch.bzz.catalog.CatalogSnapshot;
+import ch.bzz.catalog.CatalogSnapshotWriter;
+import ch.bzz.model.Book;
+import ch.bzz.model.BookSerializer;
 import ch.bzz.model.User;
+import ch.bzz.persistence.BookDelta;
+import ch.bzz.persistence.BookPersistor;
+import ch.bzz.persistence.BookQuery;
+import ch.bzz.persistence.BookWriteBuffer;
+import ch.bzz.persistence.CircuitBreaker;
+import ch.bzz.persistence.CircuitOpenException;
+import ch.bzz.persistence.DataSourceRouter;
+import ch.bzz.persistence.DatabaseConfig;
+import ch.bzz.persistence.Deadline;
+import ch.bzz.persistence.RevokedToken;
+import ch.bzz.persistence.RevokedTokenPersistor;
+import ch.bzz.persistence.SingleFlight;
 import ch.bzz.persistence.UserPersistor;
+import ch.bzz.util.AdaptiveLimiter;
+import ch.bzz.util.AppConfig;
+import ch.bzz.util.ContentNegotiation;
 import ch.bzz.util.JwtHandler;
 import ch.bzz.util.PasswordHandler;
 import ch.bzz.util.TestDataUtil;
+import ch.bzz.util.TokenRevocationList;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.SerializerProvider;
+import com.fasterxml.jackson.databind.annotation.JsonSerialize;
+import com.fasterxml.jackson.databind.ser.std.StdSerializer;
 import io.javalin.Javalin;
 import io.javalin.http.Context;
+import io.javalin.http.Handler;
+import io.javalin.http.sse.SseClient;
+import io.javalin.json.JavalinJackson;
 import io.jsonwebtoken.Claims;
-import java.io.FileInputStream;
+import org.eclipse.jetty.io.Connection;
+import org.eclipse.jetty.server.Request;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import java.io.BufferedOutputStream;
 import java.io.IOException;
-import java.sql.Connection;
-import java.sql.DriverManager;
-import java.sql.PreparedStatement;
-import java.sql.ResultSet;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
 import java.sql.SQLException;
 import java.util.ArrayList;
 import java.util.Base64;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
-import java.util.Properties;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.zip.GZIPOutputStream;
 
 /**
  * Main class for the Javalin REST API server.
  * Provides REST endpoints for the Library App.
  */
 public class JavalinMain {
+
+    private static final Logger log = LoggerFactory.getLogger(JavalinMain.class);
+    private static final Logger accessLog = LoggerFactory.getLogger("ch.bzz.access");
+    
+    private static final int DEFAULT_PORT = 7070;
+    private static final int DEFAULT_TOP_AUTHORS = 10;
+    private static final int MAX_BATCH_LOOKUP_SIZE = 1000;
+    private static final int DEFAULT_DELTA_LIMIT = 1000;
+    private static final int MAX_DELTA_LIMIT = 10_000;
+    private static final int WRITE_COMMIT_TIMEOUT_SECONDS = 30;
+    
+    // In-memory facet counts, maintained from committed book changes
+    private static BookFacets bookFacets;
+    
+    // Pushes committed book changes to SSE subscribers
+    private static BookChangeFeed bookChangeFeed;
     
-    // Book constants as fallback
-    private static final Book BOOK_1 = new Book(1, "978-3-8362-9544-4", "Java ist auch eine Insel", "Christian Ullenboom", 2023);
-    private static final Book BOOK_2 = new Book(2, "978-3-658-43573-8", "Grundkurs Java", "Dietmar Abts", 2024);
+    // Coalesces book writes from the API into batched transactions (null until the database is ready)
+    private static volatile BookWriteBuffer bookWriteBuffer;
     
-    // Database configuration
-    private static Properties config;
-    private static String dbUrl;
-    private static String dbUser;
-    private static String dbPassword;
-
-    public static void main(String[] args) {
-        // Load configuration
-        loadConfig();
+    // Memory-mapped catalog snapshot for reads during startup and database outages (null if none)
+    private static volatile CatalogSnapshot catalogSnapshot;
+    
+    // False while the database warms up and while running on the H2 fallback
+    private static volatile boolean databaseReady;
+    
+    // Per-route concurrency limits, reported by GET /health
+    private static volatile List<AdaptiveLimiter> bulkheads = List.of();
+
+    public static void main(String[] args) throws Exception {
+        // Training run for the AppCDS archive: exercise the request path once, then exit
+        if (args.length > 0 && "--training-run".equals(args[0])) {
+            Javalin app = start(0);
+            TrainingRun.run(app);
+            app.stop();
+            System.exit(0);
+        }
+
+        int port = AppConfig.getInt("SERVER_PORT", DEFAULT_PORT);
+        Javalin app = start(port);
+        
+        // Stopping the server flushes buffered book writes
+        Runtime.getRuntime().addShutdownHook(new Thread(app::stop));
+        
+        log.info("Javalin server started on http://localhost:{}", port);
+        log.info("Try: http://localhost:{}/books?limit=10", port);
+        log.info("Authentication endpoints: POST /auth/login, PUT /auth/change-password, POST /auth/logout");
+        log.info("Book write endpoints (Bearer token): POST /books, PUT /books/{id}, DELETE /books/{id}");
+    }
+
+    /**
+     * Creates and starts the Javalin server with all routes.
+     * Used by main and by tools that run the server in-process (e.g. the load test).
+     *
+     * @param port the port to listen on (0 picks a free port)
+     * @return the started Javalin instance
+     */
+    public static Javalin start(int port) {
+        // Sampled access log (ACCESS_LOG_SAMPLE_RATE between 0.0 = off and 1.0 = every request)
+        double accessLogSampleRate = AppConfig.getDouble("ACCESS_LOG_SAMPLE_RATE", 0.0);
         
         // Create Javalin app
-        Javalin app = Javalin.create().start(7070);
+        Javalin app = Javalin.create(config -> {
+            // Request bodies are parsed with the same shared mapper the responses are written with
+            config.jsonMapper(new JavalinJackson(ContentNegotiation.jsonMapper()));
+            if (accessLogSampleRate > 0) {
+                config.requestLogger.http((ctx, executionTimeMs) -> logRequest(ctx, executionTimeMs, accessLogSampleRate));
+            }
+        }).start(port);
 
-        // Initialize database tables
-        UserPersistor.getInstance().createTableIfNotExists();
+        // Map the catalog snapshot first, so GET /books can answer before the database is up
+        Path snapshotPath = Path.of(AppConfig.get("CATALOG_SNAPSHOT_FILE", "catalog.snapshot"));
+        catalogSnapshot = openCatalogSnapshot(snapshotPath);
+        
+        // Facet counters and change feed; both are filled once the database is ready
+        bookFacets = new BookFacets(AppConfig.getInt("FACETS_MAX_AUTHORS", 100));
+        bookChangeFeed = new BookChangeFeed(
+                AppConfig.getInt("CHANGE_FEED_REPLAY_SIZE", 10_000),
+                AppConfig.getInt("CHANGE_FEED_MAX_SUBSCRIBERS", 10_000),
+                AppConfig.getInt("CHANGE_FEED_SUBSCRIBER_QUEUE", 1000),
+                AppConfig.getInt("CHANGE_FEED_HEARTBEAT_SECONDS", 15));
+        
+        // Time budgets for the database work of a request (0 = none)
+        long booksDeadline = AppConfig.getInt("REQUEST_DEADLINE_BOOKS_MS", 2000);
+        long authDeadline = AppConfig.getInt("REQUEST_DEADLINE_AUTH_MS", 3000);
         
-        // Create test users for development
-        TestDataUtil.createTestUsers();
+        // Bulkheads: a spike on one group of routes cannot take all request threads.
+        // The export streams for a long time, so it gets a fixed limit of its own.
+        AdaptiveLimiter books = bulkhead("books", 64, 8, 150, 250);
+        AdaptiveLimiter export = bulkhead("export", 2, 2, 2, 60_000);
+        AdaptiveLimiter auth = bulkhead("auth", 16, 2, 50, 500);
+        AdaptiveLimiter debug = bulkhead("debug", 2, 2, 2, 1000);
+        bulkheads = List.of(books, export, auth, debug);
         
-        // Define routes
-        app.get("/books", JavalinMain::getBooksHandler);
-        app.post("/auth/login", JavalinMain::loginHandler);
-        app.put("/auth/change-password", JavalinMain::changePasswordHandler);
-        app.get("/debug/users", JavalinMain::debugUsersHandler);
+        // Define routes (the change stream holds no request thread and /health must answer under overload)
+        app.get("/books", withBulkhead(books, withDeadline(booksDeadline, JavalinMain::getBooksHandler)));
+        app.get("/books/facets", withBulkhead(books, JavalinMain::getFacetsHandler));
+        app.get("/books/delta", withBulkhead(books, withDeadline(booksDeadline, JavalinMain::getDeltaHandler)));
+        app.get("/books/export", withBulkhead(export, JavalinMain::exportHandler));
+        app.post("/books/batch", withBulkhead(books, withDeadline(booksDeadline, JavalinMain::batchLookupHandler)));
+        app.sse("/books/changes/stream", JavalinMain::changeStreamHandler);
+        app.post("/books", withBulkhead(books, JavalinMain::createBookHandler));
+        app.put("/books/{id}", withBulkhead(books, JavalinMain::updateBookHandler));
+        app.delete("/books/{id}", withBulkhead(books, JavalinMain::deleteBookHandler));
+        app.post("/auth/login", withBulkhead(auth, withDeadline(authDeadline, JavalinMain::loginHandler)));
+        app.put("/auth/change-password", withBulkhead(auth, withDeadline(authDeadline, JavalinMain::changePasswordHandler)));
+        app.post("/auth/logout", withBulkhead(auth, withDeadline(authDeadline, JavalinMain::logoutHandler)));
+        app.get("/debug/users", withBulkhead(debug, JavalinMain::debugUsersHandler));
+        app.get("/health", JavalinMain::healthHandler);
         
-        System.out.println("Javalin server started on http://localhost:7070");
-        System.out.println("Try: http://localhost:7070/books?limit=10");
-        System.out.println("Authentication endpoints:");
-        System.out.println("  POST /auth/login");
-        System.out.println("  PUT /auth/change-password");
+        // With a snapshot the database warms up in the background while reads are served from it
+        if (catalogSnapshot != null) {
+            Thread warmUp = new Thread(() -> initDatabase(app, snapshotPath), "database-warmup");
+            warmUp.setDaemon(true);
+            warmUp.start();
+        } else {
+            initDatabase(app, snapshotPath);
+        }
+        
+        return app;
+    }
+
+    /**
+     * Creates the tables, loads the facets, starts the write buffer and the snapshot
+     * writer. Reads switch from the snapshot to the database when this is done.
+     *
+     * @param app          the Javalin instance, for the shutdown hook of the write buffer
+     * @param snapshotPath the catalog snapshot file
+     */
+    private static void initDatabase(Javalin app, Path snapshotPath) {
+        long start = System.nanoTime();
+        try {
+            UserPersistor.getInstance().createTableIfNotExists();
+            
+            // Revoked tokens are loaded before the first request is authenticated and synced periodically
+            RevokedTokenPersistor revokedTokenPersistor = RevokedTokenPersistor.getInstance();
+            revokedTokenPersistor.createTableIfNotExists();
+            TokenRevocationList.getInstance().start(revokedTokenPersistor,
+                    AppConfig.getInt("TOKEN_REVOCATION_SYNC_SECONDS", 30));
+            app.events(event -> event.serverStopping(TokenRevocationList.getInstance()::stop));
+            
+            BookPersistor bookPersistor = BookPersistor.getInstance();
+            bookPersistor.createTableIfNotExists();
+            app.events(event -> event.serverStopped(DataSourceRouter.getInstance()::close));
+            
+            // Facet counters load in the background and are kept up to date
+            initFacets(bookPersistor);
+            bookPersistor.addChangeListener(bookChangeFeed);
+            bookChangeFeed.start(bookPersistor, AppConfig.getInt("CHANGE_FEED_POLL_MS", 1000));
+            
+            // Buffer for book writes, flushed on size or time
+            BookWriteBuffer writeBuffer = new BookWriteBuffer(bookPersistor,
+                    DatabaseConfig.getInstance().getCircuitBreaker(),
+                    AppConfig.getInt("WRITE_BUFFER_BATCH_SIZE", 100),
+                    AppConfig.getInt("WRITE_BUFFER_MAX_PENDING", 10000),
+                    AppConfig.getInt("WRITE_BUFFER_FLUSH_MS", 200));
+            app.events(event -> event.serverStopping(() -> writeBuffer.shutdown(10)));
+            bookWriteBuffer = writeBuffer;
+            
+            // Create test users for development, off the startup path (PBKDF2 is slow on purpose)
+            Thread testUsers = new Thread(TestDataUtil::createTestUsers, "test-users");
+            testUsers.setDaemon(true);
+            testUsers.start();
+            
+            // The empty fallback database must not replace the snapshot or hide it
+            if (DatabaseConfig.getInstance().isFallback()) {
+                if (catalogSnapshot != null) {
+                    log.warn("Database unreachable, serving the catalog snapshot of {}", catalogSnapshot.getCreatedAt());
+                }
+                return;
+            }
+            CatalogSnapshot snapshot = catalogSnapshot;
+            CatalogSnapshotWriter snapshotWriter = new CatalogSnapshotWriter(bookPersistor, snapshotPath,
+                    snapshot != null ? snapshot.getVersion() : -1);
+            snapshotWriter.start(AppConfig.getInt("CATALOG_SNAPSHOT_INTERVAL_SECONDS", 300),
+                    written -> catalogSnapshot = written);
+            app.events(event -> event.serverStopping(snapshotWriter::stop));
+            databaseReady = true;
+            log.info("Database ready after {} ms", (System.nanoTime() - start) / 1_000_000);
+        } catch (RuntimeException e) {
+            log.error("Database initialization failed", e);
+            if (catalogSnapshot == null) {
+                throw e;
+            }
+        }
+    }
+
+    /**
+     * Maps the catalog snapshot file if it exists and is valid.
+     *
+     * @param path the snapshot file
+     * @return the snapshot or null
+     */
+    private static CatalogSnapshot openCatalogSnapshot(Path path) {
+        if (!Files.exists(path)) {
+            log.info("No catalog snapshot at {}", path);
+            return null;
+        }
+        try {
+            CatalogSnapshot snapshot = CatalogSnapshot.open(path);
+            log.info("Catalog snapshot mapped: {} books, version {}, written {}",
+                    snapshot.size(), snapshot.getVersion(), snapshot.getCreatedAt());
+            return snapshot;
+        } catch (IOException e) {
+            log.warn("Ignoring catalog snapshot {}: {}", path, e.getMessage());
+            return null;
+        }
+    }
+
+    /**
+     * Writes a sampled access log entry for a finished request.
+     *
+     * @param ctx             Javalin context
+     * @param executionTimeMs request duration in milliseconds
+     * @param sampleRate      fraction of requests to log
+     */
+    private static void logRequest(Context ctx, Float executionTimeMs, double sampleRate) {
+        if (sampleRate >= 1.0 || ThreadLocalRandom.current().nextDouble() < sampleRate) {
+            accessLog.info("{} {} {} {}ms", ctx.method(), ctx.path(), ctx.statusCode(), executionTimeMs);
+        }
+    }
+
+    /**
+     * Writes a response body as JSON, Smile or CBOR depending on the Accept header.
+     *
+     * @param ctx  Javalin context
+     * @param body the response object
+     */
+    private static void respond(Context ctx, Object body) {
+        ContentNegotiation.respond(ctx, body);
     }
 
     /**
      * Handler for GET /books endpoint.
-     * Supports optional 'limit' query parameter.
+     * Supports optional query parameters:
+     * limit, author, yearFrom, yearTo, sort (title|year|author|id) and order (asc|desc).
+     * Filtering and sorting are done by the database.
      *
      * @param ctx Javalin context
      */
     private static void getBooksHandler(Context ctx) {
         try {
-            // Get limit parameter (optional)
-            String limitParam = ctx.queryParam("limit");
-            int limit = -1; // -1 means no limit
-            
-            if (limitParam != null && !limitParam.isEmpty()) {
-                try {
-                    limit = Integer.parseInt(limitParam);
-                    if (limit <= 0) {
-                        ctx.status(400).json(new ErrorResponse("Limit must be a positive number"));
-                        return;
-                    }
-                } catch (NumberFormatException e) {
-                    ctx.status(400).json(new ErrorResponse("Invalid limit parameter: " + limitParam));
-                    return;
-                }
+            BookQuery query;
+            try {
+                query = parseBookQuery(ctx);
+            } catch (IllegalArgumentException e) {
+                respond(ctx.status(400), new ErrorResponse(e.getMessage()));
+                return;
             }
 
-            // Load books from database
-            List<Book> books = loadBooksFromDatabase(limit);
-            
-            // If no books in database, use hardcoded books
-            if (books.isEmpty()) {
-                List<Book> hardcodedBooks = List.of(BOOK_1, BOOK_2);
-                books = applyLimit(hardcodedBooks, limit);
+            // Until the database is ready, answer from the snapshot
+            CatalogSnapshot snapshot = catalogSnapshot;
+            if (!databaseReady && snapshot != null) {
+                List<Book> books = snapshot.find(query);
+                markStale(ctx, snapshot);
+                respond(ctx, new BooksResponse(books, books.size(), true));
+                return;
+            }
+
+            List<Book> books;
+            try {
+                books = BookPersistor.getInstance().findBooks(query);
+            } catch (SQLException e) {
+                if (deadlineExceeded(ctx, e)) {
+                    return;
+                }
+                if (snapshot == null) {
+                    log.error("Database error in getBooksHandler: {}", e.getMessage());
+                    serviceUnavailable(ctx, e, "Catalog temporarily unavailable");
+                    return;
+                }
+                // Database outage: serve the last snapshot, flagged as stale
+                log.warn("Database error in getBooksHandler, serving snapshot: {}", e.getMessage());
+                books = snapshot.find(query);
+                markStale(ctx, snapshot);
+                respond(ctx, new BooksResponse(books, books.size(), true));
+                return;
             }
             
             // Return books as JSON
-            ctx.json(new BooksResponse(books, books.size()));
+            respond(ctx, new BooksResponse(books, books.size(), false));
             
         } catch (Exception e) {
-            System.err.println("Error in getBooksHandler: " + e.getMessage());
-            e.printStackTrace();
-            ctx.status(500).json(new ErrorResponse("Internal server error: " + e.getMessage()));
+            log.error("Error in getBooksHandler", e);
+            respond(ctx.status(500), new ErrorResponse("Internal server error: " + e.getMessage()));
         }
     }
 
     /**
-     * Loads configuration from config.properties file.
+     * Handler for GET /books/facets endpoint.
+     * Returns book counts per publication year and the top authors (optional 'top' parameter).
+     * Served from in-memory counters, without a database query.
+     *
+     * @param ctx Javalin context
      */
-    private static void loadConfig() {
-        config = new Properties();
-        try (FileInputStream input = new FileInputStream("config.properties")) {
-            config.load(input);
-            dbUrl = config.getProperty("DB_URL");
-            dbUser = config.getProperty("DB_USER");
-            dbPassword = config.getProperty("DB_PASSWORD");
-        } catch (IOException e) {
-            System.err.println("Error loading config.properties: " + e.getMessage());
-            System.err.println("Using default database configuration.");
-            // Fallback to default values
-            dbUrl = "jdbc:postgresql://localhost:5432/localdb";
-            dbUser = "localuser";
-            dbPassword = "localpassword";
+    private static void getFacetsHandler(Context ctx) {
+        int maxTopAuthors = AppConfig.getInt("FACETS_MAX_AUTHORS", 100);
+        Integer top;
+        try {
+            top = parseIntParam(ctx, "top");
+        } catch (IllegalArgumentException e) {
+            respond(ctx.status(400), new ErrorResponse(e.getMessage()));
+            return;
+        }
+        if (top != null && (top <= 0 || top > maxTopAuthors)) {
+            respond(ctx.status(400), new ErrorResponse("top must be between 1 and " + maxTopAuthors));
+            return;
         }
+        if (!bookFacets.isLoaded()) {
+            ctx.header("Retry-After", "1");
+            respond(ctx.status(503), new ErrorResponse("Facets are loading, try again later"));
+            return;
+        }
+        respond(ctx, bookFacets.getSnapshot().withTopAuthors(top != null ? top : DEFAULT_TOP_AUTHORS));
     }
 
     /**
-     * Loads books from the database with optional limit.
+     * Handler for GET /books/delta endpoint.
+     * Returns the books changed and deleted after the change version 'since' (default 0,
+     * i.e. the whole catalog), at most 'limit' per page. Clients continue with nextSince
+     * while hasMore is true.
      *
-     * @param limit maximum number of books to load (-1 for no limit)
-     * @return List of books from the database
+     * @param ctx Javalin context
      */
-    private static List<Book> loadBooksFromDatabase(int limit) {
-        List<Book> books = new ArrayList<>();
-        String sql = "SELECT id, isbn, title, author, publication_year FROM books";
-        
-        if (limit > 0) {
-            sql += " LIMIT ?";
+    private static void getDeltaHandler(Context ctx) {
+        long since;
+        Integer limit;
+        try {
+            String sinceParam = ctx.queryParam("since");
+            since = sinceParam == null || sinceParam.isEmpty() ? 0 : Long.parseLong(sinceParam);
+            limit = parseIntParam(ctx, "limit");
+        } catch (NumberFormatException e) {
+            respond(ctx.status(400), new ErrorResponse("Invalid since parameter: " + ctx.queryParam("since")));
+            return;
+        } catch (IllegalArgumentException e) {
+            respond(ctx.status(400), new ErrorResponse(e.getMessage()));
+            return;
+        }
+        if (since < 0) {
+            respond(ctx.status(400), new ErrorResponse("since must not be negative"));
+            return;
+        }
+        if (limit != null && (limit <= 0 || limit > MAX_DELTA_LIMIT)) {
+            respond(ctx.status(400), new ErrorResponse("limit must be between 1 and " + MAX_DELTA_LIMIT));
+            return;
+        }
+
+        try {
+            BookDelta delta = BookPersistor.getInstance().findDelta(since, limit != null ? limit : DEFAULT_DELTA_LIMIT);
+            respond(ctx, delta);
+        } catch (SQLException e) {
+            if (deadlineExceeded(ctx, e)) {
+                return;
+            }
+            log.error("Database error in getDeltaHandler", e);
+            respond(ctx.status(500), new ErrorResponse("Internal server error"));
         }
+    }
 
-        try (Connection connection = DriverManager.getConnection(dbUrl, dbUser, dbPassword);
-             PreparedStatement statement = connection.prepareStatement(sql)) {
+    /**
+     * Handler for GET /books/export endpoint.
+     * Streams the whole catalog as TSV in the import format (gzip-compressed with gzip=true).
+     * Rows are written to the response as they are read, so memory use is constant.
+     *
+     * @param ctx Javalin context
+     */
+    private static void exportHandler(Context ctx) {
+        boolean gzip = "true".equalsIgnoreCase(ctx.queryParam("gzip"));
+        String fileName = gzip ? "books.tsv.gz" : "books.tsv";
+        ctx.contentType(gzip ? "application/gzip" : "text/tab-separated-values; charset=utf-8");
+        ctx.header("Content-Disposition", "attachment; filename=\"" + fileName + "\"");
 
-            if (limit > 0) {
-                statement.setInt(1, limit);
+        try {
+            // Written directly to the servlet stream, bypassing Javalin's result buffering
+            OutputStream out = new BufferedOutputStream(ctx.res().getOutputStream(), 64 * 1024);
+            if (gzip) {
+                out = new GZIPOutputStream(out, 64 * 1024);
             }
+            long count = BookPersistor.getInstance().exportTsv(out);
+            out.close();
+            log.info("Exported {} books", count);
+        } catch (SQLException e) {
+            log.error("Database error in exportHandler", e);
+            if (!ctx.res().isCommitted()) {
+                ctx.res().resetBuffer();
+                ctx.res().setHeader("Content-Disposition", null);
+                respond(ctx.status(500), new ErrorResponse("Internal server error"));
+            }
+        } catch (IOException e) {
+            // Usually the client went away; the transaction has been rolled back
+            log.warn("Export aborted: {}", e.getMessage());
+        }
+    }
 
-            try (ResultSet resultSet = statement.executeQuery()) {
-                while (resultSet.next()) {
-                    int id = resultSet.getInt("id");
-                    String isbn = resultSet.getString("isbn");
-                    String title = resultSet.getString("title");
-                    String author = resultSet.getString("author");
-                    int year = resultSet.getInt("publication_year");
+    /**
+     * Handler for POST /books/batch endpoint.
+     * Resolves a list of IDs and/or ISBNs with one database query. Found books are
+     * returned in request order (IDs first, then ISBNs); keys without a match are
+     * listed in missingIds and missingIsbns.
+     *
+     * @param ctx Javalin context
+     */
+    private static void batchLookupHandler(Context ctx) {
+        BatchLookupRequest request;
+        try {
+            request = ctx.bodyAsClass(BatchLookupRequest.class);
+        } catch (Exception e) {
+            respond(ctx.status(400), new ErrorResponse("Invalid request: " + e.getMessage()));
+            return;
+        }
+        List<Integer> ids = request.getIds() != null ? request.getIds() : Collections.emptyList();
+        List<String> isbns = request.getIsbns() != null ? request.getIsbns() : Collections.emptyList();
+        if (ids.isEmpty() && isbns.isEmpty()) {
+            respond(ctx.status(400), new ErrorResponse("ids or isbns is required"));
+            return;
+        }
+        if (ids.size() + isbns.size() > MAX_BATCH_LOOKUP_SIZE) {
+            respond(ctx.status(400), new ErrorResponse("At most " + MAX_BATCH_LOOKUP_SIZE + " ids and isbns per request"));
+            return;
+        }
+        if (ids.contains(null) || isbns.contains(null)) {
+            respond(ctx.status(400), new ErrorResponse("ids and isbns must not contain null"));
+            return;
+        }
 
-                    books.add(new Book(id, isbn, title, author, year));
+        List<Book> found;
+        CatalogSnapshot snapshot = catalogSnapshot;
+        if (!databaseReady && snapshot != null) {
+            found = snapshot.findByIdsOrIsbns(Set.copyOf(ids), Set.copyOf(isbns));
+            markStale(ctx, snapshot);
+        } else {
+            try {
+                found = BookPersistor.getInstance().findByIdsOrIsbns(
+                        ids.stream().distinct().toList(), isbns.stream().distinct().toList());
+            } catch (SQLException e) {
+                if (deadlineExceeded(ctx, e)) {
+                    return;
                 }
+                if (snapshot == null) {
+                    log.error("Database error in batchLookupHandler", e);
+                    respond(ctx.status(500), new ErrorResponse("Internal server error"));
+                    return;
+                }
+                log.warn("Database error in batchLookupHandler, serving snapshot: {}", e.getMessage());
+                found = snapshot.findByIdsOrIsbns(Set.copyOf(ids), Set.copyOf(isbns));
+                markStale(ctx, snapshot);
             }
-        } catch (SQLException e) {
-            System.err.println("Database error: " + e.getMessage());
-            // Return empty list, fallback will be used
         }
 
-        return books;
+        Map<Integer, Book> byId = new HashMap<>();
+        Map<String, Book> byIsbn = new HashMap<>();
+        for (Book book : found) {
+            byId.put(book.getId(), book);
+            byIsbn.putIfAbsent(book.getIsbn(), book);
+        }
+
+        // Each book is listed once, at the position of the first key that matched it
+        Map<Integer, Book> ordered = new LinkedHashMap<>();
+        List<Integer> missingIds = new ArrayList<>();
+        List<String> missingIsbns = new ArrayList<>();
+        for (Integer id : ids) {
+            Book book = byId.get(id);
+            if (book != null) {
+                ordered.putIfAbsent(book.getId(), book);
+            } else if (!missingIds.contains(id)) {
+                missingIds.add(id);
+            }
+        }
+        for (String isbn : isbns) {
+            Book book = byIsbn.get(isbn);
+            if (book != null) {
+                ordered.putIfAbsent(book.getId(), book);
+            } else if (!missingIsbns.contains(isbn)) {
+                missingIsbns.add(isbn);
+            }
+        }
+        List<Book> books = new ArrayList<>(ordered.values());
+        respond(ctx, new BatchLookupResponse(books, missingIds, missingIsbns));
     }
 
     /**
-     * Applies limit to a list of books.
+     * Handler for GET /books/changes/stream (server-sent events).
+     * Pushes upsert and delete events as book writes of any writer commit. A reconnecting
+     * client resumes with the Last-Event-ID header (or the lastEventId query parameter);
+     * a "reset" event tells it to reload the catalog because events were missed.
      *
-     * @param books the original list of books
-     * @param limit maximum number of books (-1 for no limit)
-     * @return limited list of books
+     * @param client SSE client of the request
      */
-    private static List<Book> applyLimit(List<Book> books, int limit) {
-        if (limit <= 0 || limit >= books.size()) {
-            return books;
+    private static void changeStreamHandler(SseClient client) {
+        String lastEventId = client.ctx().header("Last-Event-ID");
+        if (lastEventId == null) {
+            lastEventId = client.ctx().queryParam("lastEventId");
+        }
+        client.keepAlive();
+        bookChangeFeed.subscribe(client, lastEventId);
+    }
+
+    /**
+     * Handler for POST /books endpoint.
+     * Creates or replaces the book with the ID given in the body. Requires a Bearer token.
+     * Optional query parameter ack=commit (default, 201 after the write is committed)
+     * or ack=buffer (202 as soon as the write is buffered).
+     *
+     * @param ctx Javalin context
+     */
+    private static void createBookHandler(Context ctx) {
+        if (authenticate(ctx) == null || !requireWriteBuffer(ctx)) {
+            return;
+        }
+        Book book = parseBookBody(ctx, null);
+        if (book != null) {
+            acknowledgeWrite(ctx, book.getId(), book, bookWriteBuffer.save(book), 201);
+        }
+    }
+
+    /**
+     * Handler for PUT /books/{id} endpoint.
+     * Creates or replaces the book with the ID from the path. Requires a Bearer token.
+     * Supports the same ack parameter as POST /books.
+     *
+     * @param ctx Javalin context
+     */
+    private static void updateBookHandler(Context ctx) {
+        if (authenticate(ctx) == null || !requireWriteBuffer(ctx)) {
+            return;
+        }
+        Integer id = parseBookId(ctx);
+        if (id == null) {
+            return;
+        }
+        Book book = parseBookBody(ctx, id);
+        if (book != null) {
+            acknowledgeWrite(ctx, id, book, bookWriteBuffer.save(book), 200);
+        }
+    }
+
+    /**
+     * Handler for DELETE /books/{id} endpoint.
+     * Deleting an unknown ID is not an error. Requires a Bearer token.
+     * Supports the same ack parameter as POST /books.
+     *
+     * @param ctx Javalin context
+     */
+    private static void deleteBookHandler(Context ctx) {
+        if (authenticate(ctx) == null || !requireWriteBuffer(ctx)) {
+            return;
+        }
+        Integer id = parseBookId(ctx);
+        if (id != null) {
+            acknowledgeWrite(ctx, id, null, bookWriteBuffer.delete(id), 200);
+        }
+    }
+
+    /**
+     * Rejects writes while the database is still warming up, while its circuit breaker
+     * is open and while the write buffer is full. A write accepted then could not be
+     * committed in time and, with ack=buffer, would be lost without the client knowing.
+     *
+     * @param ctx Javalin context
+     * @return true if writes are accepted, false if the response was set to 503
+     */
+    private static boolean requireWriteBuffer(Context ctx) {
+        if (bookWriteBuffer == null) {
+            ctx.header("Retry-After", "5");
+            respond(ctx.status(503), new ErrorResponse("Server is starting, try again later"));
+            return false;
+        }
+        long retryAfterMillis = bookWriteBuffer.getRetryAfterMillis();
+        if (retryAfterMillis == 0) {
+            return true;
+        }
+        ctx.header("Retry-After", String.valueOf(Math.max(1, (retryAfterMillis + 999) / 1000)));
+        respond(ctx.status(503), new ErrorResponse("Database unavailable, try again later"));
+        return false;
+    }
+
+    /**
+     * Sends 503 for a database error. While the circuit breaker is open, Retry-After
+     * tells the client when the next attempt can succeed.
+     *
+     * @param ctx     Javalin context
+     * @param e       the database error
+     * @param message error message for the client
+     */
+    private static void serviceUnavailable(Context ctx, SQLException e, String message) {
+        if (e instanceof CircuitOpenException open) {
+            ctx.header("Retry-After", String.valueOf(Math.max(1, (open.getRetryAfterMillis() + 999) / 1000)));
+        }
+        respond(ctx.status(503), new ErrorResponse(message));
+    }
+
+    /**
+     * Runs a handler under a {@link Deadline}. Its database calls get the remaining
+     * budget as query timeout and are cancelled when the budget is spent or when
+     * Jetty closes the client connection.
+     *
+     * @param budgetMillis time budget of the request (0 or less for none)
+     * @param handler      the route handler
+     * @return the handler with deadline
+     */
+    private static Handler withDeadline(long budgetMillis, Handler handler) {
+        if (budgetMillis <= 0) {
+            return handler;
+        }
+        return ctx -> {
+            try (Deadline deadline = Deadline.start(budgetMillis);
+                 DisconnectListener ignored = DisconnectListener.register(ctx, deadline)) {
+                handler.handle(ctx);
+            }
+        };
+    }
+
+    /**
+     * Creates the limiter of a bulkhead; the defaults can be overridden with
+     * BULKHEAD_<NAME>_LIMIT, _MIN_LIMIT, _MAX_LIMIT and _LATENCY_MS.
+     *
+     * @param name      bulkhead name
+     * @param limit     initial concurrency limit
+     * @param minLimit  lowest limit
+     * @param maxLimit  highest limit (equal to minLimit for a fixed limit)
+     * @param latencyMs latency target; slower requests lower the limit
+     * @return the limiter
+     */
+    private static AdaptiveLimiter bulkhead(String name, int limit, int minLimit, int maxLimit, int latencyMs) {
+        String prefix = "BULKHEAD_" + name.toUpperCase() + "_";
+        return new AdaptiveLimiter(name,
+                AppConfig.getInt(prefix + "LIMIT", limit),
+                AppConfig.getInt(prefix + "MIN_LIMIT", minLimit),
+                AppConfig.getInt(prefix + "MAX_LIMIT", maxLimit),
+                AppConfig.getInt(prefix + "LATENCY_MS", latencyMs));
+    }
+
+    /**
+     * Runs a handler within the concurrency limit of its bulkhead. Requests over the
+     * limit are rejected right away with 503 instead of queueing for a request thread.
+     * The measured latency is the time the request holds its thread; waiting for a
+     * commit (ack=commit) is asynchronous and not included.
+     *
+     * @param limiter the bulkhead's limiter
+     * @param handler the route handler
+     * @return the handler with concurrency limit
+     */
+    private static Handler withBulkhead(AdaptiveLimiter limiter, Handler handler) {
+        return ctx -> {
+            if (!limiter.tryAcquire()) {
+                log.debug("Request {} {} rejected, bulkhead {} at its limit", ctx.method(), ctx.path(), limiter.getName());
+                ctx.header("Retry-After", "1");
+                respond(ctx.status(503), new ErrorResponse("Too many concurrent requests, try again later"));
+                return;
+            }
+            long start = System.nanoTime();
+            try {
+                handler.handle(ctx);
+            } finally {
+                limiter.release(System.nanoTime() - start);
+            }
+        };
+    }
+
+    /**
+     * Answers a database error caused by the request's deadline: 504 when the budget
+     * is spent, 503 when the request was cancelled because the client disconnected.
+     *
+     * @param ctx Javalin context
+     * @param e   the database error
+     * @return true if the error was answered, false if it has another cause
+     */
+    private static boolean deadlineExceeded(Context ctx, SQLException e) {
+        Deadline deadline = Deadline.current();
+        if (deadline == null || !deadline.isOver()) {
+            return false;
+        }
+        if (deadline.isCancelled()) {
+            log.debug("Request {} {} cancelled, client disconnected", ctx.method(), ctx.path());
+            respond(ctx.status(503), new ErrorResponse("Request cancelled"));
+            return true;
+        }
+        log.warn("Request {} {} exceeded its deadline of {} ms: {}",
+                ctx.method(), ctx.path(), deadline.getBudgetMillis(), e.getMessage());
+        respond(ctx.status(504), new ErrorResponse(
+                "Request deadline of " + deadline.getBudgetMillis() + " ms exceeded"));
+        return true;
+    }
+
+    /**
+     * Handler for GET /health endpoint.
+     * Reports UP when the database is reachable, DEGRADED while reads are served from
+     * the catalog snapshot (startup, open circuit breaker, fallback database) and DOWN
+     * when no reads can be served; DOWN and STARTING without snapshot answer 503.
+     * The circuit breaker states of the primary and the read replicas are included
+     * for monitoring; an unavailable replica does not change the status, reads then
+     * use another replica or the primary. The coalescing counters show how many
+     * lookups shared a database call with a concurrent identical one; the bulkheads
+     * show the current concurrency limit of each route group. /health itself has no limit.
+     *
+     * @param ctx Javalin context
+     */
+    private static void healthHandler(Context ctx) {
+        CatalogSnapshot snapshot = catalogSnapshot;
+        // The database configuration is created by the warm-up; don't wait for it here
+        CircuitBreaker.Status database = bookWriteBuffer != null
+                ? DatabaseConfig.getInstance().getCircuitBreaker().getStatus()
+                : null;
+        List<CircuitBreaker.Status> replicas = bookWriteBuffer != null
+                ? DataSourceRouter.getInstance().getReplicaStatus()
+                : List.of();
+        List<SingleFlight.Stats> coalescing = new ArrayList<>();
+        if (bookWriteBuffer != null) {
+            coalescing.add(BookPersistor.getInstance().getFindBooksStats());
+            coalescing.addAll(UserPersistor.getInstance().getLookupStats());
+        }
+
+        String status;
+        if (database == null) {
+            status = "STARTING";
+        } else if (databaseReady && database.getState() == CircuitBreaker.State.CLOSED) {
+            status = "UP";
+        } else {
+            status = snapshot != null ? "DEGRADED" : "DOWN";
+        }
+        boolean serving = snapshot != null || "UP".equals(status);
+        List<AdaptiveLimiter.Status> limits = new ArrayList<>();
+        for (AdaptiveLimiter limiter : bulkheads) {
+            limits.add(limiter.getStatus());
+        }
+        respond(ctx.status(serving ? 200 : 503), new HealthResponse(status, database, replicas, coalescing, limits,
+                snapshot != null ? snapshot.getVersion() : null,
+                snapshot != null ? snapshot.getCreatedAt().toString() : null));
+    }
+
+    /**
+     * Marks a response as served from the catalog snapshot.
+     * Warning 110 is the standard HTTP marker for stale responses.
+     *
+     * @param ctx      Javalin context
+     * @param snapshot the snapshot the response was read from
+     */
+    private static void markStale(Context ctx, CatalogSnapshot snapshot) {
+        ctx.header("Warning", "110 - \"Response is Stale\"");
+        ctx.header("X-Catalog-Snapshot", "version=" + snapshot.getVersion() + "; created=" + snapshot.getCreatedAt());
+    }
+
+    /**
+     * Sends the response for a buffered write, either right away (ack=buffer)
+     * or once the batch containing the write is committed (ack=commit).
+     * Waiting for the commit does not block a request thread.
+     *
+     * @param ctx          Javalin context
+     * @param id           ID of the written book
+     * @param book         the written book (null for a deletion)
+     * @param write        future of the buffered write
+     * @param commitStatus status code to use after the commit
+     */
+    private static void acknowledgeWrite(Context ctx, int id, Book book, CompletableFuture<Void> write, int commitStatus) {
+        String ack = ctx.queryParamAsClass("ack", String.class).getOrDefault("commit");
+        if (ack.equalsIgnoreCase("buffer")) {
+            respond(ctx.status(202), new BookWriteResponse(id, book, "buffered"));
+            return;
+        }
+        if (!ack.equalsIgnoreCase("commit")) {
+            respond(ctx.status(400), new ErrorResponse("Invalid ack parameter: " + ack + " (allowed: commit, buffer)"));
+            return;
+        }
+        ctx.future(() -> write
+                .orTimeout(WRITE_COMMIT_TIMEOUT_SECONDS, TimeUnit.SECONDS)
+                .thenRun(() -> respond(ctx.status(commitStatus), new BookWriteResponse(id, book, "committed")))
+                .exceptionally(e -> {
+                    Throwable cause = e instanceof CompletionException && e.getCause() != null ? e.getCause() : e;
+                    if (cause instanceof TimeoutException) {
+                        // The write stays buffered and may still be committed
+                        respond(ctx.status(504), new ErrorResponse("Write not committed within " + WRITE_COMMIT_TIMEOUT_SECONDS + "s"));
+                    } else {
+                        respond(ctx.status(500), new ErrorResponse("Internal server error"));
+                    }
+                    return null;
+                }));
+    }
+
+    /**
+     * Reads the {id} path parameter of the book write endpoints.
+     *
+     * @param ctx Javalin context
+     * @return the ID or null if the response was already set to 400
+     */
+    private static Integer parseBookId(Context ctx) {
+        try {
+            int id = Integer.parseInt(ctx.pathParam("id"));
+            if (id > 0) {
+                return id;
+            }
+        } catch (NumberFormatException e) {
+            // handled below
+        }
+        respond(ctx.status(400), new ErrorResponse("Invalid book id: " + ctx.pathParam("id")));
+        return null;
+    }
+
+    /**
+     * Reads and validates a book from the request body.
+     *
+     * @param ctx    Javalin context
+     * @param pathId ID from the path, overrides a missing ID in the body (null for POST)
+     * @return the book or null if the response was already set to 400
+     */
+    private static Book parseBookBody(Context ctx, Integer pathId) {
+        Book book;
+        try {
+            book = ctx.bodyAsClass(Book.class);
+        } catch (Exception e) {
+            respond(ctx.status(400), new ErrorResponse("Invalid request: " + e.getMessage()));
+            return null;
+        }
+        if (pathId != null) {
+            if (book.getId() != 0 && book.getId() != pathId) {
+                respond(ctx.status(400), new ErrorResponse("Book id in body does not match path"));
+                return null;
+            }
+            book.setId(pathId);
+        }
+
+        String error = null;
+        if (book.getId() <= 0) {
+            error = "id must be a positive number";
+        } else if (isBlankOrLonger(book.getIsbn(), 32)) {
+            error = "isbn is required (max. 32 characters)";
+        } else if (isBlankOrLonger(book.getTitle(), 512)) {
+            error = "title is required (max. 512 characters)";
+        } else if (isBlankOrLonger(book.getAuthor(), 255)) {
+            error = "author is required (max. 255 characters)";
+        }
+        if (error != null) {
+            respond(ctx.status(400), new ErrorResponse(error));
+            return null;
+        }
+        return book;
+    }
+
+    private static boolean isBlankOrLonger(String value, int maxLength) {
+        return value == null || value.isBlank() || value.length() > maxLength;
+    }
+
+    /**
+     * Registers the facet counters for incremental updates and loads them in the
+     * background; GET /books/facets answers 503 until the first load is done.
+     *
+     * @param bookPersistor persistor used for the counts
+     */
+    private static void initFacets(BookPersistor bookPersistor) {
+        bookPersistor.addChangeListener(bookFacets);
+        bookFacets.startPeriodicReload(bookPersistor, AppConfig.getInt("FACETS_RELOAD_SECONDS", 300));
+    }
+
+    /**
+     * Reads the filter, sort and limit query parameters of GET /books.
+     *
+     * @param ctx Javalin context
+     * @return the parsed query
+     * @throws IllegalArgumentException if a parameter is invalid
+     */
+    private static BookQuery parseBookQuery(Context ctx) {
+        BookQuery query = new BookQuery();
+
+        // Get limit parameter (optional)
+        Integer limit = parseIntParam(ctx, "limit");
+        if (limit != null) {
+            if (limit <= 0) {
+                throw new IllegalArgumentException("Limit must be a positive number");
+            }
+            query.setLimit(limit);
+        }
+
+        String author = ctx.queryParam("author");
+        if (author != null && !author.isBlank()) {
+            query.setAuthor(author.trim());
+        }
+        query.setYearFrom(parseIntParam(ctx, "yearFrom"));
+        query.setYearTo(parseIntParam(ctx, "yearTo"));
+        if (query.getYearFrom() != null && query.getYearTo() != null && query.getYearFrom() > query.getYearTo()) {
+            throw new IllegalArgumentException("yearFrom must not be greater than yearTo");
+        }
+
+        String sort = ctx.queryParam("sort");
+        if (sort != null && !sort.isEmpty()) {
+            query.setSort(BookQuery.Sort.fromParameter(sort));
+        }
+        String order = ctx.queryParam("order");
+        if (order != null && !order.isEmpty()) {
+            if (!order.equalsIgnoreCase("asc") && !order.equalsIgnoreCase("desc")) {
+                throw new IllegalArgumentException("Invalid order parameter: " + order + " (allowed: asc, desc)");
+            }
+            query.setDescending(order.equalsIgnoreCase("desc"));
+        }
+        return query;
+    }
+
+    /**
+     * Parses an optional integer query parameter.
+     *
+     * @param ctx  Javalin context
+     * @param name parameter name
+     * @return the value or null if the parameter is missing
+     * @throws IllegalArgumentException if the value is not a number
+     */
+    private static Integer parseIntParam(Context ctx, String name) {
+        String value = ctx.queryParam(name);
+        if (value == null || value.isEmpty()) {
+            return null;
+        }
+        try {
+            return Integer.parseInt(value);
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Invalid " + name + " parameter: " + value);
         }
-        return books.subList(0, limit);
     }
 
     /**
      * Response class for books endpoint.
      */
+    @JsonSerialize(using = BooksResponse.Serializer.class)
     public static class BooksResponse {
         private List<Book> books;
         private int count;
+        private boolean stale;
 
-        public BooksResponse(List<Book> books, int count) {
+        public BooksResponse(List<Book> books, int count, boolean stale) {
             this.books = books;
             this.count = count;
+            this.stale = stale;
         }
 
         public List<Book> getBooks() {
@@ -200,11 +1004,43 @@ public class JavalinMain {
         public int getCount() {
             return count;
         }
+
+        /**
+         * True if the books come from the catalog snapshot because the database
+         * is starting or unavailable.
+         *
+         * @return whether the response may be out of date
+         */
+        public boolean isStale() {
+            return stale;
+        }
+
+        /**
+         * Writes the response without bean introspection; the books are written
+         * directly by BookSerializer.
+         */
+        public static class Serializer extends StdSerializer<BooksResponse> {
+            public Serializer() {
+                super(BooksResponse.class);
+            }
+
+            @Override
+            public void serialize(BooksResponse response, JsonGenerator generator, SerializerProvider provider)
+                    throws IOException {
+                generator.writeStartObject(response, 3);
+                generator.writeFieldName("books");
+                BookSerializer.writeList(response.books, generator);
+                generator.writeNumberField("count", response.count);
+                generator.writeBooleanField("stale", response.stale);
+                generator.writeEndObject();
+            }
+        }
     }
 
     /**
      * Response class for error messages.
      */
+    @JsonSerialize(using = ErrorResponse.Serializer.class)
     public static class ErrorResponse {
         private String error;
 
@@ -215,6 +1051,409 @@ public class JavalinMain {
         public String getError() {
             return error;
         }
+
+        public static class Serializer extends StdSerializer<ErrorResponse> {
+            public Serializer() {
+                super(ErrorResponse.class);
+            }
+
+            @Override
+            public void serialize(ErrorResponse response, JsonGenerator generator, SerializerProvider provider)
+                    throws IOException {
+                generator.writeStartObject(response, 1);
+                generator.writeStringField("error", response.error);
+                generator.writeEndObject();
+            }
+        }
+    }
+
+    /**
+     * Response class for login and password change. The message is omitted when null.
+     */
+    @JsonSerialize(using = TokenResponse.Serializer.class)
+    public static class TokenResponse {
+        private final String message;
+        private final String token;
+
+        public TokenResponse(String message, String token) {
+            this.message = message;
+            this.token = token;
+        }
+
+        public String getMessage() {
+            return message;
+        }
+
+        public String getToken() {
+            return token;
+        }
+
+        public static class Serializer extends StdSerializer<TokenResponse> {
+            public Serializer() {
+                super(TokenResponse.class);
+            }
+
+            @Override
+            public void serialize(TokenResponse response, JsonGenerator generator, SerializerProvider provider)
+                    throws IOException {
+                generator.writeStartObject(response, 2);
+                if (response.message != null) {
+                    generator.writeStringField("message", response.message);
+                }
+                generator.writeStringField("token", response.token);
+                generator.writeEndObject();
+            }
+        }
+    }
+
+    /**
+     * Response class for plain confirmations.
+     */
+    @JsonSerialize(using = MessageResponse.Serializer.class)
+    public static class MessageResponse {
+        private final String message;
+
+        public MessageResponse(String message) {
+            this.message = message;
+        }
+
+        public String getMessage() {
+            return message;
+        }
+
+        public static class Serializer extends StdSerializer<MessageResponse> {
+            public Serializer() {
+                super(MessageResponse.class);
+            }
+
+            @Override
+            public void serialize(MessageResponse response, JsonGenerator generator, SerializerProvider provider)
+                    throws IOException {
+                generator.writeStartObject(response, 1);
+                generator.writeStringField("message", response.message);
+                generator.writeEndObject();
+            }
+        }
+    }
+    
+    /**
+     * Request body for POST /books/batch.
+     */
+    public static class BatchLookupRequest {
+        private List<Integer> ids;
+        private List<String> isbns;
+
+        public List<Integer> getIds() {
+            return ids;
+        }
+
+        public void setIds(List<Integer> ids) {
+            this.ids = ids;
+        }
+
+        public List<String> getIsbns() {
+            return isbns;
+        }
+
+        public void setIsbns(List<String> isbns) {
+            this.isbns = isbns;
+        }
+    }
+
+    /**
+     * Response class for the batch lookup endpoint.
+     */
+    @JsonSerialize(using = BatchLookupResponse.Serializer.class)
+    public static class BatchLookupResponse {
+        private List<Book> books;
+        private List<Integer> missingIds;
+        private List<String> missingIsbns;
+
+        public BatchLookupResponse(List<Book> books, List<Integer> missingIds, List<String> missingIsbns) {
+            this.books = books;
+            this.missingIds = missingIds;
+            this.missingIsbns = missingIsbns;
+        }
+
+        public List<Book> getBooks() {
+            return books;
+        }
+
+        public int getCount() {
+            return books.size();
+        }
+
+        public List<Integer> getMissingIds() {
+            return missingIds;
+        }
+
+        public List<String> getMissingIsbns() {
+            return missingIsbns;
+        }
+
+        public static class Serializer extends StdSerializer<BatchLookupResponse> {
+            public Serializer() {
+                super(BatchLookupResponse.class);
+            }
+
+            @Override
+            public void serialize(BatchLookupResponse response, JsonGenerator generator, SerializerProvider provider)
+                    throws IOException {
+                generator.writeStartObject(response, 4);
+                generator.writeFieldName("books");
+                BookSerializer.writeList(response.books, generator);
+                generator.writeFieldName("missingIds");
+                provider.defaultSerializeValue(response.missingIds, generator);
+                generator.writeFieldName("missingIsbns");
+                provider.defaultSerializeValue(response.missingIsbns, generator);
+                generator.writeNumberField("count", response.getCount());
+                generator.writeEndObject();
+            }
+        }
+    }
+    
+    /**
+     * Cancels a request's deadline when Jetty closes the client connection.
+     * Jetty notices a closed connection when a read or write fails or the idle
+     * timeout expires; the listener is removed when the request ends, since the
+     * connection is reused for further requests.
+     */
+    private static final class DisconnectListener implements Connection.Listener, AutoCloseable {
+        private final Connection connection;
+        private final Deadline deadline;
+
+        private DisconnectListener(Connection connection, Deadline deadline) {
+            this.connection = connection;
+            this.deadline = deadline;
+        }
+
+        static DisconnectListener register(Context ctx, Deadline deadline) {
+            Request request = Request.getBaseRequest(ctx.req());
+            if (request == null || request.getHttpChannel() == null) {
+                return null;
+            }
+            Connection connection = request.getHttpChannel().getEndPoint().getConnection();
+            if (connection == null) {
+                return null;
+            }
+            DisconnectListener listener = new DisconnectListener(connection, deadline);
+            connection.addEventListener(listener);
+            return listener;
+        }
+
+        @Override
+        public void onOpened(Connection connection) {
+        }
+
+        @Override
+        public void onClosed(Connection connection) {
+            deadline.cancel("client disconnected");
+        }
+
+        @Override
+        public void close() {
+            connection.removeEventListener(this);
+        }
+    }
+
+    /**
+     * Response class for GET /health.
+     */
+    @JsonSerialize(using = HealthResponse.Serializer.class)
+    public static class HealthResponse {
+        private final String status;
+        private final CircuitBreaker.Status database;
+        private final List<CircuitBreaker.Status> replicas;
+        private final List<SingleFlight.Stats> coalescing;
+        private final List<AdaptiveLimiter.Status> bulkheads;
+        private final Long snapshotVersion;
+        private final String snapshotCreatedAt;
+
+        public HealthResponse(String status, CircuitBreaker.Status database, List<CircuitBreaker.Status> replicas,
+                              List<SingleFlight.Stats> coalescing, List<AdaptiveLimiter.Status> bulkheads,
+                              Long snapshotVersion, String snapshotCreatedAt) {
+            this.status = status;
+            this.database = database;
+            this.replicas = replicas;
+            this.coalescing = coalescing;
+            this.bulkheads = bulkheads;
+            this.snapshotVersion = snapshotVersion;
+            this.snapshotCreatedAt = snapshotCreatedAt;
+        }
+
+        public String getStatus() {
+            return status;
+        }
+
+        public CircuitBreaker.Status getDatabase() {
+            return database;
+        }
+
+        public List<CircuitBreaker.Status> getReplicas() {
+            return replicas;
+        }
+
+        public List<SingleFlight.Stats> getCoalescing() {
+            return coalescing;
+        }
+
+        public List<AdaptiveLimiter.Status> getBulkheads() {
+            return bulkheads;
+        }
+
+        public Long getSnapshotVersion() {
+            return snapshotVersion;
+        }
+
+        public String getSnapshotCreatedAt() {
+            return snapshotCreatedAt;
+        }
+
+        public static class Serializer extends StdSerializer<HealthResponse> {
+            public Serializer() {
+                super(HealthResponse.class);
+            }
+
+            @Override
+            public void serialize(HealthResponse response, JsonGenerator generator, SerializerProvider provider)
+                    throws IOException {
+                generator.writeStartObject(response, 7);
+                generator.writeStringField("status", response.status);
+                generator.writeFieldName("database");
+                writeBreaker(response.database, generator);
+                generator.writeArrayFieldStart("replicas");
+                for (CircuitBreaker.Status replica : response.replicas) {
+                    writeBreaker(replica, generator);
+                }
+                generator.writeEndArray();
+                generator.writeArrayFieldStart("coalescing");
+                for (SingleFlight.Stats stats : response.coalescing) {
+                    generator.writeStartObject(stats, 4);
+                    generator.writeStringField("name", stats.getName());
+                    generator.writeNumberField("calls", stats.getCalls());
+                    generator.writeNumberField("sharedCalls", stats.getSharedCalls());
+                    generator.writeNumberField("inFlight", stats.getInFlight());
+                    generator.writeEndObject();
+                }
+                generator.writeEndArray();
+                generator.writeArrayFieldStart("bulkheads");
+                for (AdaptiveLimiter.Status bulkhead : response.bulkheads) {
+                    generator.writeStartObject(bulkhead, 7);
+                    generator.writeStringField("name", bulkhead.getName());
+                    generator.writeNumberField("limit", bulkhead.getLimit());
+                    generator.writeNumberField("minLimit", bulkhead.getMinLimit());
+                    generator.writeNumberField("maxLimit", bulkhead.getMaxLimit());
+                    generator.writeNumberField("latencyTargetMs", bulkhead.getLatencyTargetMs());
+                    generator.writeNumberField("inFlight", bulkhead.getInFlight());
+                    generator.writeNumberField("rejectedRequests", bulkhead.getRejectedRequests());
+                    generator.writeEndObject();
+                }
+                generator.writeEndArray();
+                if (response.snapshotVersion != null) {
+                    generator.writeNumberField("snapshotVersion", response.snapshotVersion);
+                } else {
+                    generator.writeNullField("snapshotVersion");
+                }
+                generator.writeStringField("snapshotCreatedAt", response.snapshotCreatedAt);
+                generator.writeEndObject();
+            }
+
+            private static void writeBreaker(CircuitBreaker.Status status, JsonGenerator generator) throws IOException {
+                generator.writeStartObject(status, 6);
+                generator.writeStringField("name", status.getName());
+                generator.writeStringField("state", status.getState().name());
+                generator.writeNumberField("consecutiveFailures", status.getConsecutiveFailures());
+                generator.writeNumberField("failedCalls", status.getFailedCalls());
+                generator.writeNumberField("rejectedCalls", status.getRejectedCalls());
+                generator.writeStringField("since", status.getSince());
+                generator.writeEndObject();
+            }
+        }
+    }
+
+    /**
+     * Response class for the book write endpoints. The book is null for deletions.
+     */
+    @JsonSerialize(using = BookWriteResponse.Serializer.class)
+    public static class BookWriteResponse {
+        private int id;
+        private Book book;
+        private String status;
+
+        public BookWriteResponse(int id, Book book, String status) {
+            this.id = id;
+            this.book = book;
+            this.status = status;
+        }
+
+        public int getId() {
+            return id;
+        }
+
+        public Book getBook() {
+            return book;
+        }
+
+        public String getStatus() {
+            return status;
+        }
+
+        public static class Serializer extends StdSerializer<BookWriteResponse> {
+            public Serializer() {
+                super(BookWriteResponse.class);
+            }
+
+            @Override
+            public void serialize(BookWriteResponse response, JsonGenerator generator, SerializerProvider provider)
+                    throws IOException {
+                generator.writeStartObject(response, 3);
+                generator.writeNumberField("id", response.id);
+                if (response.book != null) {
+                    generator.writeFieldName("book");
+                    BookSerializer.write(response.book, false, generator);
+                } else {
+                    generator.writeNullField("book");
+                }
+                generator.writeStringField("status", response.status);
+                generator.writeEndObject();
+            }
+        }
+    }
+
+    /**
+     * Response class for GET /debug/users. Email and ID are omitted when no user was found.
+     */
+    @JsonSerialize(using = DebugUserResponse.Serializer.class)
+    public static class DebugUserResponse {
+        private final String message;
+        private final User user;
+
+        public DebugUserResponse(String message, User user) {
+            this.message = message;
+            this.user = user;
+        }
+
+        public String getMessage() {
+            return message;
+        }
+
+        public static class Serializer extends StdSerializer<DebugUserResponse> {
+            public Serializer() {
+                super(DebugUserResponse.class);
+            }
+
+            @Override
+            public void serialize(DebugUserResponse response, JsonGenerator generator, SerializerProvider provider)
+                    throws IOException {
+                generator.writeStartObject(response, 3);
+                generator.writeStringField("message", response.message);
+                if (response.user != null) {
+                    generator.writeStringField("email", response.user.getEmail());
+                    generator.writeNumberField("id", response.user.getId());
+                }
+                generator.writeEndObject();
+            }
+        }
     }
     
     /**
@@ -237,8 +1476,8 @@ public class JavalinMain {
             // Hardcoded test user for demonstration (development only)
             if (inputEmail.equals("test@example.com") && inputPassword.equals("password123")) {
                 String jwt = JwtHandler.createJwt(inputEmail, 1);
-                ctx.json(Map.of("token", jwt));
-                System.out.println("Login successful for test user: " + inputEmail);
+                respond(ctx, new TokenResponse(null, jwt));
+                log.debug("Login successful for test user: {}", inputEmail);
                 return;
             }
             
@@ -254,22 +1493,50 @@ public class JavalinMain {
                     
                     if (PasswordHandler.verifyPassword(inputPassword, storedHash, storedSalt)) {
                         String jwt = JwtHandler.createJwt(inputEmail, user.getId());
-                        ctx.json(Map.of("token", jwt));
-                        System.out.println("Login successful for database user: " + inputEmail);
+                        respond(ctx, new TokenResponse(null, jwt));
+                        log.debug("Login successful for database user: {}", inputEmail);
                         return;
                     }
                 }
+            } catch (CircuitOpenException e) {
+                // Known outage: don't answer with a misleading 401
+                serviceUnavailable(ctx, e, "Login temporarily unavailable");
+                return;
             } catch (SQLException e) {
-                System.err.println("Database error (using fallback): " + e.getMessage());
+                if (deadlineExceeded(ctx, e)) {
+                    return;
+                }
+                log.warn("Database error (using fallback): {}", e.getMessage());
             }
             
             // Same error message for security
-            ctx.status(401).json(Map.of("error", "Invalid email or password"));
+            respond(ctx.status(401), new ErrorResponse("Invalid email or password"));
             
         } catch (Exception e) {
-            System.err.println("Error in loginHandler: " + e.getMessage());
-            e.printStackTrace();
-            ctx.status(400).json(Map.of("error", "Invalid request: " + e.getMessage()));
+            log.warn("Error in loginHandler: {}", e.getMessage(), e);
+            respond(ctx.status(400), new ErrorResponse("Invalid request: " + e.getMessage()));
+        }
+    }
+    
+    /**
+     * Validates the Bearer token of the request.
+     *
+     * @param ctx Javalin context
+     * @return the token claims or null if the response was already set to 401
+     */
+    private static Claims authenticate(Context ctx) {
+        String authHeader = ctx.header("Authorization");
+        if (authHeader == null || !authHeader.startsWith("Bearer ")) {
+            respond(ctx.status(401), new ErrorResponse("Authorization header missing or invalid"));
+            return null;
+        }
+        
+        String token = authHeader.substring("Bearer ".length());
+        try {
+            return JwtHandler.validateAndParseJwt(token);
+        } catch (Exception e) {
+            respond(ctx.status(401), new ErrorResponse("Invalid or expired token"));
+            return null;
         }
     }
     
@@ -281,21 +1548,9 @@ public class JavalinMain {
      */
     private static void changePasswordHandler(Context ctx) {
         try {
-            // Validate Authorization header
-            String authHeader = ctx.header("Authorization");
-            if (authHeader == null || !authHeader.startsWith("Bearer ")) {
-                ctx.status(401).json(Map.of("error", "Authorization header missing or invalid"));
-                return;
-            }
-            
-            String token = authHeader.substring("Bearer ".length());
-            
-            // Validate and parse JWT
-            Claims claims;
-            try {
-                claims = JwtHandler.validateAndParseJwt(token);
-            } catch (Exception e) {
-                ctx.status(401).json(Map.of("error", "Invalid or expired token"));
+            // Validate Authorization header and JWT
+            Claims claims = authenticate(ctx);
+            if (claims == null) {
                 return;
             }
             
@@ -315,7 +1570,7 @@ public class JavalinMain {
             User user = userPersistor.findById(userId);
             
             if (user == null) {
-                ctx.status(404).json(Map.of("error", "User not found"));
+                respond(ctx.status(404), new ErrorResponse("User not found"));
                 return;
             }
             
@@ -328,18 +1583,63 @@ public class JavalinMain {
                 byte[] newHash = PasswordHandler.hashPassword(newPassword, storedSalt);
                 user.setPasswordHash(Base64.getEncoder().encodeToString(newHash));
                 
-                userPersistor.save(user);
-                ctx.json(Map.of("message", "Password changed successfully"));
+                // Tokens issued before the change are revoked, stored in the same transaction as
+                // the password. iat has second precision, so the revocation covers the current
+                // second; the caller continues with a fresh token issued at revokedBefore.
+                long revokedBefore = (System.currentTimeMillis() / 1000 + 1) * 1000;
+                RevokedToken revocation = RevokedToken.userTokens(userId, revokedBefore,
+                        revokedBefore + JwtHandler.getExpirationTime());
+                userPersistor.changePassword(user, revocation);
+                TokenRevocationList.getInstance().addStored(revocation);
+                
+                respond(ctx, new TokenResponse("Password changed successfully",
+                        JwtHandler.createJwt(user.getEmail(), userId)));
             } else {
-                ctx.status(401).json(Map.of("error", "Invalid old password"));
+                respond(ctx.status(401), new ErrorResponse("Invalid old password"));
             }
             
+        } catch (CircuitOpenException e) {
+            serviceUnavailable(ctx, e, "Password change temporarily unavailable");
         } catch (SQLException e) {
-            System.err.println("Database error in changePasswordHandler: " + e.getMessage());
-            ctx.status(500).json(Map.of("error", "Internal server error"));
+            if (deadlineExceeded(ctx, e)) {
+                return;
+            }
+            log.error("Database error in changePasswordHandler", e);
+            respond(ctx.status(500), new ErrorResponse("Internal server error"));
         } catch (Exception e) {
-            System.err.println("Error in changePasswordHandler: " + e.getMessage());
-            ctx.status(400).json(Map.of("error", "Invalid request: " + e.getMessage()));
+            log.warn("Error in changePasswordHandler: {}", e.getMessage());
+            respond(ctx.status(400), new ErrorResponse("Invalid request: " + e.getMessage()));
+        }
+    }
+    
+    /**
+     * Handler for POST /auth/logout endpoint.
+     * Revokes the Bearer token of the request until it expires.
+     *
+     * @param ctx Javalin context
+     */
+    private static void logoutHandler(Context ctx) {
+        Claims claims = authenticate(ctx);
+        if (claims == null) {
+            return;
+        }
+        if (claims.getId() == null) {
+            respond(ctx.status(400), new ErrorResponse("Token has no ID and cannot be revoked"));
+            return;
+        }
+        
+        try {
+            TokenRevocationList.getInstance().revokeToken(RevokedTokenPersistor.getInstance(),
+                    claims.getId(), claims.get("userId", Integer.class), claims.getExpiration().getTime());
+            respond(ctx, new MessageResponse("Logged out"));
+        } catch (CircuitOpenException e) {
+            serviceUnavailable(ctx, e, "Logout temporarily unavailable");
+        } catch (SQLException e) {
+            if (deadlineExceeded(ctx, e)) {
+                return;
+            }
+            log.error("Database error in logoutHandler", e);
+            respond(ctx.status(500), new ErrorResponse("Internal server error"));
         }
     }
     
@@ -354,13 +1654,9 @@ public class JavalinMain {
             User testUser = userPersistor.findByEmail("test@example.com");
             
             if (testUser != null) {
-                ctx.json(Map.of(
-                    "message", "Test user found",
-                    "email", testUser.getEmail(),
-                    "id", testUser.getId()
-                ));
+                respond(ctx, new DebugUserResponse("Test user found", testUser));
             } else {
-                ctx.json(Map.of("message", "Test user NOT found - creating now..."));
+                respond(ctx, new DebugUserResponse("Test user NOT found - creating now...", null));
                 
                 // Try to create test user again
                 TestDataUtil.createTestUser();
@@ -368,19 +1664,14 @@ public class JavalinMain {
                 // Check again
                 testUser = userPersistor.findByEmail("test@example.com");
                 if (testUser != null) {
-                    ctx.json(Map.of(
-                        "message", "Test user created successfully",
-                        "email", testUser.getEmail(),
-                        "id", testUser.getId()
-                    ));
+                    respond(ctx, new DebugUserResponse("Test user created successfully", testUser));
                 } else {
-                    ctx.json(Map.of("message", "Failed to create test user"));
+                    respond(ctx, new DebugUserResponse("Failed to create test user", null));
                 }
             }
         } catch (Exception e) {
-            System.err.println("Error in debugUsersHandler: " + e.getMessage());
-            e.printStackTrace();
-            ctx.status(500).json(Map.of("error", "Debug error: " + e.getMessage()));
+            log.error("Error in debugUsersHandler", e);
+            respond(ctx.status(500), new ErrorResponse("Debug error: " + e.getMessage()));
         }
     }
 }
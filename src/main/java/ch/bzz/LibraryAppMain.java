@@ -1,30 +1,38 @@
 package ch.bzz;
 
-import java.io.BufferedReader;
-import java.io.FileInputStream;
-import java.io.FileReader;
+import ch.bzz.catalog.CatalogSnapshot;
+import ch.bzz.importer.BookImporter;
+import ch.bzz.importer.ImportSummary;
+import ch.bzz.importer.RejectWriter;
+import ch.bzz.model.Book;
+import ch.bzz.persistence.BookPersistor;
+import ch.bzz.persistence.BookQuery;
+import ch.bzz.persistence.DatabaseConfig;
+import ch.bzz.util.AppConfig;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import java.io.BufferedOutputStream;
 import java.io.IOException;
-import java.sql.Connection;
-import java.sql.DriverManager;
-import java.sql.PreparedStatement;
-import java.sql.ResultSet;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
 import java.sql.SQLException;
-import java.util.ArrayList;
 import java.util.List;
-import java.util.Properties;
 import java.util.Scanner;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.GZIPOutputStream;
 
 public class LibraryAppMain {
+
+    private static final Logger log = LoggerFactory.getLogger(LibraryAppMain.class);
     
-    // Book constants as specified in the requirements
-    private static final Book BOOK_1 = new Book(1, "978-3-8362-9544-4", "Java ist auch eine Insel", "Christian Ullenboom", 2023);
-    private static final Book BOOK_2 = new Book(2, "978-3-658-43573-8", "Grundkurs Java", "Dietmar Abts", 2024);
+    private static final int DEFAULT_PAGE_SIZE = 20;
+    private static final int LIST_PAGE_SIZE = 1000;
     
-    // Database configuration
-    private Properties config;
-    private String dbUrl;
-    private String dbUser;
-    private String dbPassword;
+    private BookPersistor bookPersistor;
 
     public static void main(String[] args) {
         LibraryAppMain app = new LibraryAppMain();
@@ -32,8 +40,9 @@ public class LibraryAppMain {
     }
 
     public void run() {
-        // Load configuration
-        loadConfig();
+        // Books are accessed through the shared JPA persistence unit
+        bookPersistor = BookPersistor.getInstance();
+        bookPersistor.createTableIfNotExists();
         
         Scanner scanner = new Scanner(System.in);
         System.out.println("Welcome to the Library App!");
@@ -71,11 +80,34 @@ public class LibraryAppMain {
                         listBooks();
                     }
                     break;
+                case "browsebooks":
+                    if (parts.length >= 2) {
+                        try {
+                            int pageSize = Integer.parseInt(parts[1]);
+                            if (pageSize <= 0) {
+                                throw new NumberFormatException();
+                            }
+                            browseBooks(scanner, pageSize);
+                        } catch (NumberFormatException e) {
+                            System.out.println("Invalid page size: " + parts[1]);
+                            System.out.println("Usage: browseBooks [pageSize]");
+                        }
+                    } else {
+                        browseBooks(scanner, DEFAULT_PAGE_SIZE);
+                    }
+                    break;
                 case "importbooks":
                     if (parts.length < 2) {
-                        System.out.println("Usage: importBooks <FILE_PATH>");
+                        System.out.println("Usage: importBooks <FILE_PATH|DIRECTORY|GLOB>...");
                     } else {
-                        importBooks(parts[1]);
+                        importBooks(List.of(parts).subList(1, parts.length));
+                    }
+                    break;
+                case "exportbooks":
+                    if (parts.length < 2) {
+                        System.out.println("Usage: exportBooks <FILE_PATH>");
+                    } else {
+                        exportBooks(parts[1]);
                     }
                     break;
                 default:
@@ -90,7 +122,9 @@ public class LibraryAppMain {
         System.out.println("Available commands:");
         System.out.println("  help                    - Show this help message");
         System.out.println("  listBooks [limit]       - List all available books (optionally limit results)");
-        System.out.println("  importBooks <FILE_PATH> - Import books from TSV file");
+        System.out.println("  browseBooks [pageSize]  - Page through the books interactively (next/previous)");
+        System.out.println("  importBooks <FILE_PATH> - Import books from TSV files (also .tsv.gz, directories and globs, e.g. data/*.tsv.gz)");
+        System.out.println("  exportBooks <FILE_PATH> - Export all books to a TSV file (gzip if the path ends with .gz)");
         System.out.println("  quit                    - Exit the application");
     }
 
@@ -103,195 +137,248 @@ public class LibraryAppMain {
 
     /**
      * Lists books in the library with an optional limit.
+     * Only the requested rows are loaded; the number of remaining books comes
+     * from the table statistics or a COUNT query.
      *
      * @param limit maximum number of books to display (-1 for no limit)
      */
     private void listBooks(int limit) {
+        if (DatabaseConfig.getInstance().isFallback() && showSnapshotBooks(limit)) {
+            return;
+        }
         try {
-            List<Book> books = loadBooksFromDatabase();
+            // One extra row tells whether there are more books than the limit
+            List<Book> books = limit > 0 ? bookPersistor.findAll(limit + 1) : bookPersistor.findPageAfter(0, LIST_PAGE_SIZE);
             if (books.isEmpty()) {
-                System.out.println("No books found in the database. Showing hardcoded books:");
-                List<Book> hardcodedBooks = List.of(BOOK_1, BOOK_2);
-                displayBooks(hardcodedBooks, limit);
+                System.out.println("No books found in the database.");
+            } else if (limit > 0) {
+                System.out.println("Available books:");
+                displayBooks(books.subList(0, Math.min(limit, books.size())));
+                if (books.size() > limit) {
+                    displayRemainder(limit);
+                }
             } else {
                 System.out.println("Available books:");
-                displayBooks(books, limit);
+                displayAllBooks(books);
             }
         } catch (Exception e) {
-            System.out.println("Error accessing database. Showing hardcoded books:");
-            List<Book> hardcodedBooks = List.of(BOOK_1, BOOK_2);
-            displayBooks(hardcodedBooks, limit);
-            System.err.println("Database error: " + e.getMessage());
+            log.warn("Database error: {}", e.getMessage());
+            if (!showSnapshotBooks(limit)) {
+                System.out.println("Error accessing database.");
+            }
         }
     }
 
     /**
-     * Displays a list of books with an optional limit.
+     * Shows books from the catalog snapshot written by the server (CATALOG_SNAPSHOT_FILE)
+     * when the database is unavailable.
      *
-     * @param books the list of books to display
      * @param limit maximum number of books to display (-1 for no limit)
+     * @return true if a snapshot was shown, false if there is no readable snapshot
      */
-    private void displayBooks(List<Book> books, int limit) {
-        int count = 0;
-        for (Book book : books) {
-            if (limit > 0 && count >= limit) {
-                break;
-            }
-            System.out.println(book);
-            count++;
+    private boolean showSnapshotBooks(int limit) {
+        Path path = Path.of(AppConfig.get("CATALOG_SNAPSHOT_FILE", "catalog.snapshot"));
+        if (!Files.exists(path)) {
+            return false;
         }
-        
-        if (limit > 0 && books.size() > limit) {
-            System.out.println("... and " + (books.size() - limit) + " more books.");
+        try {
+            CatalogSnapshot snapshot = CatalogSnapshot.open(path);
+            System.out.println("Database unavailable. Showing the catalog snapshot of " + snapshot.getCreatedAt()
+                    + " (" + snapshot.size() + " books, may be out of date):");
+            displayBooks(snapshot.find(BookQuery.all(limit)));
+            return true;
+        } catch (IOException e) {
+            log.warn("Cannot read catalog snapshot {}: {}", path, e.getMessage());
+            return false;
         }
     }
 
     /**
-     * Loads configuration from config.properties file.
+     * Displays a list of books.
+     *
+     * @param books the list of books to display
      */
-    private void loadConfig() {
-        config = new Properties();
-        try (FileInputStream input = new FileInputStream("config.properties")) {
-            config.load(input);
-            dbUrl = config.getProperty("DB_URL");
-            dbUser = config.getProperty("DB_USER");
-            dbPassword = config.getProperty("DB_PASSWORD");
-        } catch (IOException e) {
-            System.err.println("Error loading config.properties: " + e.getMessage());
-            e.printStackTrace();
-            System.err.println("Using default database configuration.");
-            // Fallback to default values
-            dbUrl = "jdbc:postgresql://localhost:5432/localdb";
-            dbUser = "localuser";
-            dbPassword = "localpassword";
-        }
+    private void displayBooks(List<Book> books) {
+        books.forEach(System.out::println);
     }
 
     /**
-     * Loads books from the database.
+     * Prints all books page by page, starting with an already loaded first page.
+     * Only one page is held in memory at a time.
      *
-     * @return List of books from the database
+     * @param firstPage the first page of books ordered by ID
      * @throws SQLException if database access fails
      */
-    private List<Book> loadBooksFromDatabase() throws SQLException {
-        List<Book> books = new ArrayList<>();
-        String sql = "SELECT id, isbn, title, author, publication_year FROM books";
-
-        try (Connection connection = DriverManager.getConnection(dbUrl, dbUser, dbPassword);
-             PreparedStatement statement = connection.prepareStatement(sql);
-             ResultSet resultSet = statement.executeQuery()) {
-
-            while (resultSet.next()) {
-                int id = resultSet.getInt("id");
-                String isbn = resultSet.getString("isbn");
-                String title = resultSet.getString("title");
-                String author = resultSet.getString("author");
-                int year = resultSet.getInt("publication_year");
-
-                books.add(new Book(id, isbn, title, author, year));
+    private void displayAllBooks(List<Book> firstPage) throws SQLException {
+        List<Book> page = firstPage;
+        while (!page.isEmpty()) {
+            page.forEach(System.out::println);
+            if (page.size() < LIST_PAGE_SIZE) {
+                break;
             }
+            page = bookPersistor.findPageAfter(page.get(page.size() - 1).getId(), LIST_PAGE_SIZE);
         }
-
-        return books;
     }
 
     /**
-     * Imports books from a TSV file into the database.
+     * Prints how many books were not listed. Uses the PostgreSQL row estimate
+     * when available and falls back to an exact count.
      *
-     * @param filePath path to the TSV file
+     * @param listed number of books already displayed
+     * @throws SQLException if database access fails
      */
-    private void importBooks(String filePath) {
-        try {
-            List<Book> books = readBooksFromTSV(filePath);
-            saveBooksToDatabase(books);
-            System.out.println("Successfully imported " + books.size() + " books from " + filePath);
-        } catch (IOException e) {
-            System.err.println("Error reading file " + filePath + ": " + e.getMessage());
-        } catch (SQLException e) {
-            System.err.println("Error saving books to database: " + e.getMessage());
-        } catch (Exception e) {
-            System.err.println("Unexpected error during import: " + e.getMessage());
+    private void displayRemainder(int listed) throws SQLException {
+        long estimate = bookPersistor.estimateCount();
+        if (estimate > listed) {
+            System.out.println("... and about " + (estimate - listed) + " more books.");
+        } else {
+            System.out.println("... and " + (bookPersistor.countBooks() - listed) + " more books.");
         }
     }
 
     /**
-     * Reads books from a TSV file.
+     * Pages through the books ordered by ID. Each page is loaded with a keyset
+     * query (WHERE id > last ID), so paging deep into the catalog stays fast.
      *
-     * @param filePath path to the TSV file
-     * @return List of books read from the file
-     * @throws IOException if file cannot be read
+     * @param scanner  console input for the pager commands
+     * @param pageSize number of books per page
      */
-    private List<Book> readBooksFromTSV(String filePath) throws IOException {
-        List<Book> books = new ArrayList<>();
-        
-        try (BufferedReader reader = new BufferedReader(new FileReader(filePath))) {
-            String line;
-            boolean isFirstLine = true;
-            
-            while ((line = reader.readLine()) != null) {
-                // Skip header line
-                if (isFirstLine) {
-                    isFirstLine = false;
-                    continue;
+    private void browseBooks(Scanner scanner, int pageSize) {
+        try {
+            List<Book> page = bookPersistor.findPageAfter(0, pageSize);
+            if (page.isEmpty()) {
+                System.out.println("No books found in the database.");
+                return;
+            }
+            int pageNumber = 1;
+            boolean show = true;
+            while (true) {
+                if (show) {
+                    System.out.println("Page " + pageNumber + ":");
+                    page.forEach(System.out::println);
                 }
-                
-                // Skip empty lines
-                if (line.trim().isEmpty()) {
-                    continue;
+                System.out.print("[n]ext, [p]revious, [q]uit > ");
+                String answer = scanner.nextLine().trim().toLowerCase();
+                if (answer.startsWith("q")) {
+                    return;
                 }
-                
-                // Split by tab character
-                String[] parts = line.split("\t");
-                
-                if (parts.length >= 5) {
-                    try {
-                        int id = Integer.parseInt(parts[0].trim());
-                        String isbn = parts[1].trim();
-                        String title = parts[2].trim();
-                        String author = parts[3].trim();
-                        int year = Integer.parseInt(parts[4].trim());
-                        
-                        books.add(new Book(id, isbn, title, author, year));
-                    } catch (NumberFormatException e) {
-                        System.err.println("Invalid number format in line: " + line);
-                    }
+
+                List<Book> next = answer.startsWith("p")
+                        ? bookPersistor.findPageBefore(page.get(0).getId(), pageSize)
+                        : bookPersistor.findPageAfter(page.get(page.size() - 1).getId(), pageSize);
+                show = !next.isEmpty();
+                if (next.isEmpty()) {
+                    System.out.println(answer.startsWith("p") ? "Already on the first page." : "No more books.");
                 } else {
-                    System.err.println("Invalid line format (expected 5 columns): " + line);
+                    pageNumber += answer.startsWith("p") ? -1 : 1;
+                    page = next;
                 }
             }
+        } catch (SQLException e) {
+            System.out.println("Error accessing database.");
+            log.warn("Database error: {}", e.getMessage());
         }
-        
-        return books;
     }
 
     /**
-     * Saves a list of books to the database.
-     * Books with the same ID will be updated (upsert operation).
+     * Imports books from TSV files into the database.
+     * Files are imported concurrently (IMPORT_PARALLELISM), each in its own transaction,
+     * using at most IMPORT_CONNECTION_BUDGET database connections at a time.
+     * Unless IMPORT_DEDUPE is false, rows repeating an ID or ISBN of an earlier row
+     * are not imported but written to IMPORT_REJECT_FILE.
+     * Files may be gzip or zip compressed; progress is printed every
+     * IMPORT_PROGRESS_SECONDS based on the compressed bytes read.
      *
-     * @param books List of books to save
-     * @throws SQLException if database operation fails
+     * @param arguments files, directories or glob patterns such as data/*.tsv
      */
-    private void saveBooksToDatabase(List<Book> books) throws SQLException {
-        String sql = "INSERT INTO books (id, isbn, title, author, publication_year) VALUES (?, ?, ?, ?, ?) " +
-                     "ON CONFLICT (id) DO UPDATE SET " +
-                     "isbn = EXCLUDED.isbn, " +
-                     "title = EXCLUDED.title, " +
-                     "author = EXCLUDED.author, " +
-                     "publication_year = EXCLUDED.publication_year";
+    private void importBooks(List<String> arguments) {
+        List<Path> files;
+        try {
+            files = BookImporter.resolveFiles(arguments);
+        } catch (IOException e) {
+            log.error("Error resolving import files {}: {}", arguments, e.getMessage());
+            return;
+        }
+        if (files.isEmpty()) {
+            System.out.println("No files found for " + String.join(" ", arguments));
+            return;
+        }
 
-        try (Connection connection = DriverManager.getConnection(dbUrl, dbUser, dbPassword);
-             PreparedStatement statement = connection.prepareStatement(sql)) {
+        int parallelism = AppConfig.getInt("IMPORT_PARALLELISM", Math.min(8, Runtime.getRuntime().availableProcessors()));
+        int connectionBudget = AppConfig.getInt("IMPORT_CONNECTION_BUDGET", 8);
+        System.out.println("Importing " + files.size() + " file(s) with parallelism " + parallelism + "...");
+
+        BookImporter importer = new BookImporter(bookPersistor, parallelism, connectionBudget);
+        RejectWriter rejectWriter = null;
+        if (Boolean.parseBoolean(AppConfig.get("IMPORT_DEDUPE", "true"))) {
+            rejectWriter = new RejectWriter(Path.of(AppConfig.get("IMPORT_REJECT_FILE", "import-rejects.tsv")));
+            importer.setDuplicateCheck(rejectWriter, AppConfig.getInt("IMPORT_BLOOM_MAX_MB", 64) * 1024L * 1024L,
+                    AppConfig.getInt("IMPORT_DEDUPE_MAX_SUSPECTS", 2_000_000));
+        }
 
-            for (Book book : books) {
-                statement.setInt(1, book.getId());
-                statement.setString(2, book.getIsbn());
-                statement.setString(3, book.getTitle());
-                statement.setString(4, book.getAuthor());
-                statement.setInt(5, book.getYear());
-                statement.addBatch();
+        ScheduledExecutorService progress = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "import-progress");
+            thread.setDaemon(true);
+            return thread;
+        });
+        int progressSeconds = Math.max(1, AppConfig.getInt("IMPORT_PROGRESS_SECONDS", 5));
+        progress.scheduleAtFixedRate(() -> printImportProgress(importer), progressSeconds, progressSeconds, TimeUnit.SECONDS);
+        ImportSummary summary;
+        try {
+            summary = importer.importFiles(files);
+        } finally {
+            progress.shutdownNow();
+        }
+        summary.print(System.out);
+
+        if (rejectWriter != null) {
+            try {
+                rejectWriter.close();
+            } catch (IOException e) {
+                log.error("Error closing reject file {}: {}", rejectWriter.getPath(), e.getMessage());
+            }
+            if (rejectWriter.getCount() > 0) {
+                System.out.println(rejectWriter.getCount() + " rejected row(s) written to " + rejectWriter.getPath());
             }
+        }
+    }
+
+    private void printImportProgress(BookImporter importer) {
+        long total = importer.getTotalBytes();
+        long read = Math.min(importer.getBytesRead(), total);
+        System.out.printf("Import progress: %.0f%% (%.1f of %.1f MB read)%n",
+                total > 0 ? 100.0 * read / total : 0, read / 1e6, total / 1e6);
+    }
 
-            statement.executeBatch();
+    /**
+     * Exports all books to a TSV file in the import format.
+     * The file is written under a temporary name and renamed when complete,
+     * so an interrupted export never leaves a truncated file behind.
+     *
+     * @param filePath path of the TSV file (gzip-compressed if it ends with .gz)
+     */
+    private void exportBooks(String filePath) {
+        Path target = Path.of(filePath);
+        Path temp = target.resolveSibling(target.getFileName() + ".part");
+        try {
+            long count;
+            try (OutputStream out = filePath.endsWith(".gz")
+                    ? new GZIPOutputStream(Files.newOutputStream(temp), 64 * 1024)
+                    : new BufferedOutputStream(Files.newOutputStream(temp), 64 * 1024)) {
+                count = bookPersistor.exportTsv(out);
+            }
+            Files.move(temp, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            System.out.println("Successfully exported " + count + " books to " + filePath);
+        } catch (IOException e) {
+            log.error("Error writing file {}: {}", filePath, e.getMessage());
+        } catch (SQLException e) {
+            log.error("Error reading books from database: {}", e.getMessage());
+        } finally {
+            try {
+                Files.deleteIfExists(temp);
+            } catch (IOException e) {
+                log.warn("Could not delete {}: {}", temp, e.getMessage());
+            }
         }
     }
 }
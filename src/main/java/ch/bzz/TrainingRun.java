@@ -0,0 +1,88 @@
+package ch.bzz;
+
+import io.javalin.Javalin;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import java.io.IOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.time.Duration;
+
+/**
+ * Training run for the AppCDS archive (./gradlew cdsArchive).
+ * Starts the server, sends the requests of a typical workload to it and stops again,
+ * so the classes of the request path are loaded once and end up in the archive that
+ * the JVM writes at exit (-XX:ArchiveClassesAtExit).
+ */
+public class TrainingRun {
+
+    private static final Logger log = LoggerFactory.getLogger(TrainingRun.class);
+
+    private static final int ROUNDS = 20;
+
+    private TrainingRun() {}
+
+    /**
+     * Runs the training workload against the started server.
+     *
+     * @param app the started Javalin instance
+     * @throws IOException          if a request cannot be sent
+     * @throws InterruptedException if interrupted while waiting for a response
+     */
+    public static void run(Javalin app) throws IOException, InterruptedException {
+        String baseUrl = "http://localhost:" + app.port();
+        HttpClient client = HttpClient.newBuilder().connectTimeout(Duration.ofSeconds(10)).build();
+
+        String token = null;
+        for (int round = 0; round < ROUNDS; round++) {
+            send(client, get(baseUrl + "/books?limit=10"));
+            send(client, get(baseUrl + "/books?author=Unknown&yearFrom=1900&sort=title&order=desc"));
+            send(client, get(baseUrl + "/books?limit=10").header("Accept", "application/x-jackson-smile").build());
+            send(client, get(baseUrl + "/books?limit=10").header("Accept", "application/cbor").build());
+            send(client, get(baseUrl + "/books/delta?limit=10"));
+            send(client, get(baseUrl + "/books/facets"));
+            send(client, get(baseUrl + "/health"));
+            send(client, post(baseUrl + "/books/batch", "{\"ids\":[1,2,3],\"isbns\":[\"978-0-000000001\"]}"));
+            HttpResponse<String> login = send(client, post(baseUrl + "/auth/login",
+                    "{\"email\":\"test@example.com\",\"password\":\"password123\"}"));
+            if (login.statusCode() == 200) {
+                token = login.body().replaceAll(".*\"token\"\\s*:\\s*\"([^\"]+)\".*", "$1");
+            }
+        }
+        if (token != null) {
+            // Same old and new password, so the training leaves the test user unchanged
+            send(client, HttpRequest.newBuilder(URI.create(baseUrl + "/auth/change-password"))
+                    .header("Authorization", "Bearer " + token)
+                    .header("Content-Type", "application/json")
+                    .PUT(HttpRequest.BodyPublishers.ofString(
+                            "{\"oldPassword\":\"password123\",\"newPassword\":\"password123\"}"))
+                    .build());
+        }
+        log.info("Training run finished");
+    }
+
+    private static HttpRequest.Builder get(String url) {
+        return HttpRequest.newBuilder(URI.create(url)).GET();
+    }
+
+    private static HttpRequest post(String url, String json) {
+        return HttpRequest.newBuilder(URI.create(url))
+                .header("Content-Type", "application/json")
+                .POST(HttpRequest.BodyPublishers.ofString(json))
+                .build();
+    }
+
+    private static HttpResponse<String> send(HttpClient client, HttpRequest.Builder request)
+            throws IOException, InterruptedException {
+        return send(client, request.build());
+    }
+
+    private static HttpResponse<String> send(HttpClient client, HttpRequest request)
+            throws IOException, InterruptedException {
+        HttpResponse<String> response = client.send(request, HttpResponse.BodyHandlers.ofString());
+        log.debug("{} {} -> {}", request.method(), request.uri(), response.statusCode());
+        return response;
+    }
+}
@@ -0,0 +1,287 @@
+package ch.bzz.catalog;
+
+import ch.bzz.model.Book;
+import ch.bzz.persistence.BookChange;
+import ch.bzz.persistence.BookChangeListener;
+import ch.bzz.persistence.BookDelta;
+import ch.bzz.persistence.BookPersistor;
+import ch.bzz.util.ContentNegotiation;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import io.javalin.http.sse.SseClient;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import java.io.IOException;
+import java.sql.SQLException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Server-sent events feed of committed book changes.
+ * The feed tails the change_version column through BookPersistor.findDelta, so it covers every writer of the database: the book endpoints of this and other server
+ * instances as well as CLI imports. Writes of this process trigger an immediate poll;
+ * everything else is picked up by the periodic poll.
+ *
+ * The event ID is the change version. Versions are assigned in commit order, so a client
+ * reconnecting with Last-Event-ID receives the events it missed from a bounded replay
+ * buffer. If they are no longer in the buffer the client gets a "reset" event and has to
+ * reload the catalog.
+ *
+ * One publisher thread polls, fills the replay buffer and hands the events to all
+ * subscribers. Subscribers are asynchronous SSE connections with a bounded queue each,
+ * written with non-blocking I/O ({@link SseSubscriber}), so no thread is held per
+ * connection and a slow client cannot stall the others. Each event is serialized and
+ * encoded once and the same frame is queued for every subscriber.
+ */
+public class BookChangeFeed implements BookChangeListener {
+
+    private static final Logger log = LoggerFactory.getLogger(BookChangeFeed.class);
+    private static final byte[] HEARTBEAT = SseSubscriber.commentFrame("heartbeat");
+    private static final int POLL_PAGE_SIZE = 1000;
+
+    private final int replayCapacity;
+    private final int maxSubscribers;
+    private final int subscriberQueueSize;
+    private final ScheduledExecutorService publisher;
+    private final AtomicBoolean pollQueued = new AtomicBoolean();
+
+    // Only accessed on the publisher thread
+    private final Deque<ChangeEvent> replayBuffer = new ArrayDeque<>();
+    private final List<SseSubscriber> subscribers = new ArrayList<>();
+    private BookPersistor bookPersistor;
+    // Highest version published, -1 until the start version is read
+    private long tailVersion = -1;
+    // All events after this version are in the replay buffer
+    private long bufferStart = -1;
+    private volatile int subscriberCount;
+
+    /**
+     * Constructor for creating a BookChangeFeed object.
+     *
+     * @param replayCapacity      number of events kept for reconnecting clients
+     * @param maxSubscribers      maximum number of open connections
+     * @param subscriberQueueSize events a subscriber may fall behind before it is disconnected
+     * @param heartbeatSeconds    interval of keep-alive comments that detect closed connections
+     */
+    public BookChangeFeed(int replayCapacity, int maxSubscribers, int subscriberQueueSize, int heartbeatSeconds) {
+        this.replayCapacity = replayCapacity;
+        this.maxSubscribers = maxSubscribers;
+        this.subscriberQueueSize = subscriberQueueSize;
+        this.publisher = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "book-change-feed");
+            thread.setDaemon(true);
+            return thread;
+        });
+        publisher.scheduleWithFixedDelay(this::sendHeartbeat, heartbeatSeconds, heartbeatSeconds, TimeUnit.SECONDS);
+    }
+
+    /**
+     * Starts tailing the changes committed from now on. Until the current version has been
+     * read, subscribers only receive heartbeats.
+     *
+     * @param bookPersistor persistor whose changes are published
+     * @param pollMillis    interval of the poll that picks up writes of other processes
+     */
+    public void start(BookPersistor bookPersistor, long pollMillis) {
+        publisher.execute(() -> this.bookPersistor = bookPersistor);
+        publisher.scheduleWithFixedDelay(this::poll, 0, pollMillis, TimeUnit.MILLISECONDS);
+    }
+
+    @Override
+    public void onBooksChanged(List<BookChange> changes, long version) {
+        // Publish writes of this process right away; the writing thread does not wait for it
+        if (pollQueued.compareAndSet(false, true)) {
+            publisher.execute(this::poll);
+        }
+    }
+
+    /**
+     * Adds an SSE connection to the feed. The connection is kept open until the client
+     * disconnects. Missed events are replayed first if lastEventId is given.
+     *
+     * @param client      the SSE client (keepAlive must already be called)
+     * @param lastEventId ID of the last event the client has seen (null for a new client)
+     */
+    public void subscribe(SseClient client, String lastEventId) {
+        publisher.execute(() -> addSubscriber(client, lastEventId));
+    }
+
+    /**
+     * Returns the number of open connections.
+     *
+     * @return number of subscribers
+     */
+    public int getSubscriberCount() {
+        return subscriberCount;
+    }
+
+    private void poll() {
+        pollQueued.set(false);
+        if (bookPersistor == null) {
+            return;
+        }
+        try {
+            if (tailVersion < 0) {
+                tailVersion = bookPersistor.currentVersion();
+                bufferStart = tailVersion;
+            }
+            BookDelta delta;
+            do {
+                delta = bookPersistor.findDelta(tailVersion, POLL_PAGE_SIZE);
+                publish(delta);
+            } while (delta.isHasMore());
+        } catch (SQLException | RuntimeException e) {
+            log.warn("Change feed could not read the changes after version {}: {}", tailVersion, e.getMessage());
+        }
+    }
+
+    /**
+     * Publishes the changed and deleted books of a delta in version order.
+     */
+    private void publish(BookDelta delta) {
+        List<Book> changed = delta.getChanged();
+        List<Integer> deleted = delta.getDeleted();
+        List<Long> deletedVersions = delta.getDeletedVersions();
+        int c = 0;
+        int d = 0;
+        while (c < changed.size() || d < deleted.size()) {
+            if (d == deleted.size() || c < changed.size() && changed.get(c).getChangeVersion() < deletedVersions.get(d)) {
+                Book book = changed.get(c++);
+                add(toEvent(book.getChangeVersion(), "upsert", book.getId(), book));
+            } else {
+                add(toEvent(deletedVersions.get(d), "delete", deleted.get(d), null));
+                d++;
+            }
+        }
+        tailVersion = Math.max(tailVersion, delta.getNextSince());
+        subscriberCount = subscribers.size();
+    }
+
+    private void add(ChangeEvent event) {
+        replayBuffer.addLast(event);
+        if (replayBuffer.size() > replayCapacity) {
+            bufferStart = replayBuffer.removeFirst().version;
+        }
+        subscribers.removeIf(subscriber -> !subscriber.offer(event.frame));
+    }
+
+    private void addSubscriber(SseClient client, String lastEventId) {
+        SseSubscriber subscriber;
+        try {
+            subscriber = SseSubscriber.open(client, subscriberQueueSize);
+        } catch (IOException | IllegalStateException e) {
+            log.debug("Could not open change feed subscriber: {}", e.getMessage());
+            client.close();
+            return;
+        }
+        if (subscribers.size() >= maxSubscribers) {
+            subscriber.offerUnbounded(SseSubscriber.eventFrame("error", "{\"error\":\"Too many subscribers\"}", null));
+            subscriber.closeWhenWritten();
+            return;
+        }
+        if (lastEventId != null && !lastEventId.isBlank()) {
+            replay(subscriber, lastEventId.trim());
+        }
+        subscriber.write();
+        if (subscriber.isClosed()) {
+            return;
+        }
+        client.onClose(() -> publisher.execute(() -> {
+            subscribers.remove(subscriber);
+            subscriberCount = subscribers.size();
+        }));
+        subscribers.add(subscriber);
+        subscriberCount = subscribers.size();
+    }
+
+    /**
+     * Queues the buffered events after lastEventId, or a reset event if they are gone.
+     * Replayed events do not count against the subscriber's queue size.
+     */
+    private void replay(SseSubscriber subscriber, String lastEventId) {
+        long lastVersion = parseVersion(lastEventId);
+        if (tailVersion < 0 || lastVersion < bufferStart || lastVersion > tailVersion) {
+            String id = tailVersion < 0 ? null : Long.toString(tailVersion);
+            subscriber.offerUnbounded(SseSubscriber.eventFrame("reset",
+                    "{\"reason\":\"Events after " + lastEventId.replace("\"", "") + " are no longer available\"}", id));
+            return;
+        }
+        for (ChangeEvent event : replayBuffer) {
+            if (event.version > lastVersion) {
+                subscriber.offerUnbounded(event.frame);
+            }
+        }
+    }
+
+    /**
+     * Returns the change version of an event ID, or -1 if it is not a version.
+     */
+    private static long parseVersion(String eventId) {
+        try {
+            return Long.parseLong(eventId);
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    private void sendHeartbeat() {
+        subscribers.removeIf(subscriber -> !subscriber.offer(HEARTBEAT));
+        subscriberCount = subscribers.size();
+    }
+
+    private ChangeEvent toEvent(long version, String type, int id, Book book) {
+        String json;
+        try {
+            json = ContentNegotiation.jsonMapper().writeValueAsString(new ChangePayload(type, id, book));
+        } catch (JsonProcessingException e) {
+            log.error("Could not serialize change of book {}", id, e);
+            json = "{\"type\":\"" + type + "\",\"id\":" + id + "}";
+        }
+        return new ChangeEvent(version, SseSubscriber.eventFrame(type, json, Long.toString(version)));
+    }
+
+    /**
+     * Encoded event in the replay buffer.
+     */
+    private static class ChangeEvent {
+        private final long version;
+        private final byte[] frame;
+
+        ChangeEvent(long version, byte[] frame) {
+            this.version = version;
+            this.frame = frame;
+        }
+    }
+
+    /**
+     * Data of an SSE event: the change type, the book ID and the new book (null for deletes).
+     */
+    public static class ChangePayload {
+        private final String type;
+        private final int id;
+        private final Book book;
+
+        public ChangePayload(String type, int id, Book book) {
+            this.type = type;
+            this.id = id;
+            this.book = book;
+        }
+
+        public String getType() {
+            return type;
+        }
+
+        public int getId() {
+            return id;
+        }
+
+        public Book getBook() {
+            return book;
+        }
+    }
+}
@@ -0,0 +1,299 @@
+package ch.bzz.catalog;
+
+import ch.bzz.model.Book;
+import ch.bzz.persistence.BookChange;
+import ch.bzz.persistence.BookChangeListener;
+import ch.bzz.persistence.BookCounts;
+import ch.bzz.persistence.BookPersistor;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * In-memory facet counts of the catalog (books per publication year and per author).
+ * Counters are loaded once from the database and then maintained incrementally from
+ * the committed changes reported by BookPersistor. After every change an immutable
+ * snapshot is prepared, so reading the facets never touches the counters or the database.
+ *
+ * A reload counts the books without holding the counters' lock, so changes are applied
+ * while the GROUP BY queries run. The counts come with the change version they include;
+ * changes committed after it are applied again on top of the loaded counts.
+ */
+public class BookFacets implements BookChangeListener {
+
+    private static final Logger log = LoggerFactory.getLogger(BookFacets.class);
+
+    private final int maxTopAuthors;
+    private final Map<Integer, Long> yearCounts = new HashMap<>();
+    private final Map<String, Long> authorCounts = new HashMap<>();
+    private long total;
+    // Commit version of the loaded counts; changes up to it are already counted
+    private long countedVersion = -1;
+    // Changes applied while a reload is running, null otherwise
+    private List<CommittedChanges> changesDuringReload;
+    private final Object reloadLock = new Object();
+    private volatile Snapshot snapshot = new Snapshot(0, List.of(), List.of(), 0);
+    private volatile boolean loaded;
+
+    /**
+     * Constructor for creating a BookFacets object.
+     *
+     * @param maxTopAuthors number of authors kept in the precomputed top list
+     */
+    public BookFacets(int maxTopAuthors) {
+        this.maxTopAuthors = maxTopAuthors;
+    }
+
+    /**
+     * Replaces the counters with fresh counts from the primary database.
+     * Also picks up changes made by other processes, e.g. the CLI import.
+     *
+     * @param bookPersistor persistor used for the GROUP BY queries
+     * @throws SQLException if database access fails
+     */
+    public void reload(BookPersistor bookPersistor) throws SQLException {
+        synchronized (reloadLock) {
+            synchronized (this) {
+                changesDuringReload = new ArrayList<>();
+            }
+            BookCounts counts;
+            try {
+                counts = bookPersistor.countAll();
+            } catch (SQLException | RuntimeException e) {
+                synchronized (this) {
+                    changesDuringReload = null;
+                }
+                throw e;
+            }
+            install(counts);
+        }
+    }
+
+    private synchronized void install(BookCounts counts) {
+        yearCounts.clear();
+        yearCounts.putAll(counts.getYears());
+        authorCounts.clear();
+        authorCounts.putAll(counts.getAuthors());
+        total = counts.getYears().values().stream().mapToLong(Long::longValue).sum();
+        countedVersion = counts.getVersion();
+        for (CommittedChanges committed : changesDuringReload) {
+            if (committed.version > countedVersion) {
+                apply(committed.changes);
+            }
+        }
+        changesDuringReload = null;
+        rebuildSnapshot();
+        loaded = true;
+        log.info("Facets loaded: {} books, {} years, {} authors", total, yearCounts.size(), authorCounts.size());
+    }
+
+    /**
+     * Loads the counters in a background thread right away and then reloads them
+     * periodically, so startup does not wait for the GROUP BY queries.
+     *
+     * @param bookPersistor persistor used for the GROUP BY queries
+     * @param periodSeconds reload interval in seconds
+     */
+    public void startPeriodicReload(BookPersistor bookPersistor, int periodSeconds) {
+        ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "facets-reload");
+            thread.setDaemon(true);
+            return thread;
+        });
+        scheduler.scheduleWithFixedDelay(() -> {
+            try {
+                reload(bookPersistor);
+            } catch (SQLException e) {
+                log.warn("Facet reload failed: {}", e.getMessage());
+            }
+        }, 0, periodSeconds, TimeUnit.SECONDS);
+    }
+
+    @Override
+    public synchronized void onBooksChanged(List<BookChange> changes, long version) {
+        if (version <= countedVersion) {
+            // Committed before the counts were read and already included
+            return;
+        }
+        if (changesDuringReload != null) {
+            changesDuringReload.add(new CommittedChanges(version, changes));
+        }
+        apply(changes);
+        rebuildSnapshot();
+    }
+
+    /**
+     * Returns the current facets.
+     *
+     * @return immutable snapshot of the counters
+     */
+    public Snapshot getSnapshot() {
+        return snapshot;
+    }
+
+    /**
+     * Checks whether the counters have been loaded from the database at least once.
+     *
+     * @return false while the first load is running
+     */
+    public boolean isLoaded() {
+        return loaded;
+    }
+
+    private void apply(List<BookChange> changes) {
+        for (BookChange change : changes) {
+            if (change.getPrevious() != null) {
+                count(change.getPrevious(), -1);
+            }
+            if (change.getCurrent() != null) {
+                count(change.getCurrent(), 1);
+            }
+        }
+    }
+
+    private void count(Book book, long delta) {
+        total += delta;
+        yearCounts.merge(book.getYear(), delta, BookFacets::sumOrRemove);
+        authorCounts.merge(book.getAuthor(), delta, BookFacets::sumOrRemove);
+    }
+
+    private static Long sumOrRemove(Long current, Long delta) {
+        long sum = current + delta;
+        return sum > 0 ? sum : null;
+    }
+
+    /**
+     * Prepares the snapshot served to readers: all years in order and the top authors.
+     */
+    private void rebuildSnapshot() {
+        List<YearCount> years = new ArrayList<>(yearCounts.size());
+        yearCounts.entrySet().stream()
+                .sorted(Map.Entry.comparingByKey())
+                .forEach(entry -> years.add(new YearCount(entry.getKey(), entry.getValue())));
+
+        // Bounded min-heap: O(authors * log(maxTopAuthors))
+        Comparator<AuthorCount> byCount = Comparator.comparingLong(AuthorCount::getCount)
+                .thenComparing(AuthorCount::getAuthor, Comparator.reverseOrder());
+        PriorityQueue<AuthorCount> top = new PriorityQueue<>(byCount);
+        for (Map.Entry<String, Long> entry : authorCounts.entrySet()) {
+            top.add(new AuthorCount(entry.getKey(), entry.getValue()));
+            if (top.size() > maxTopAuthors) {
+                top.poll();
+            }
+        }
+        List<AuthorCount> authors = new ArrayList<>(top);
+        authors.sort(byCount.reversed());
+
+        snapshot = new Snapshot(total, List.copyOf(years), List.copyOf(authors), authorCounts.size());
+    }
+
+    /**
+     * The changes of one committed write and its commit version.
+     */
+    private static class CommittedChanges {
+        private final long version;
+        private final List<BookChange> changes;
+
+        CommittedChanges(long version, List<BookChange> changes) {
+            this.version = version;
+            this.changes = changes;
+        }
+    }
+
+    /**
+     * Immutable facet counts.
+     */
+    public static class Snapshot {
+        private final long total;
+        private final List<YearCount> years;
+        private final List<AuthorCount> authors;
+        private final int distinctAuthors;
+
+        public Snapshot(long total, List<YearCount> years, List<AuthorCount> authors, int distinctAuthors) {
+            this.total = total;
+            this.years = years;
+            this.authors = authors;
+            this.distinctAuthors = distinctAuthors;
+        }
+
+        /**
+         * Returns a snapshot limited to the top N authors.
+         *
+         * @param topAuthors number of authors to include
+         * @return this snapshot or a view with fewer authors
+         */
+        public Snapshot withTopAuthors(int topAuthors) {
+            if (topAuthors >= authors.size()) {
+                return this;
+            }
+            return new Snapshot(total, years, authors.subList(0, topAuthors), distinctAuthors);
+        }
+
+        public long getTotal() {
+            return total;
+        }
+
+        public List<YearCount> getYears() {
+            return years;
+        }
+
+        public List<AuthorCount> getAuthors() {
+            return authors;
+        }
+
+        public int getDistinctAuthors() {
+            return distinctAuthors;
+        }
+    }
+
+    /**
+     * Number of books for a publication year.
+     */
+    public static class YearCount {
+        private final int year;
+        private final long count;
+
+        public YearCount(int year, long count) {
+            this.year = year;
+            this.count = count;
+        }
+
+        public int getYear() {
+            return year;
+        }
+
+        public long getCount() {
+            return count;
+        }
+    }
+
+    /**
+     * Number of books for an author.
+     */
+    public static class AuthorCount {
+        private final String author;
+        private final long count;
+
+        public AuthorCount(String author, long count) {
+            this.author = author;
+            this.count = count;
+        }
+
+        public String getAuthor() {
+            return author;
+        }
+
+        public long getCount() {
+            return count;
+        }
+    }
+}
@@ -0,0 +1,338 @@
+package ch.bzz.catalog;
+
+import ch.bzz.model.Book;
+import ch.bzz.persistence.BookQuery;
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Read-only catalog backed by a memory-mapped snapshot file.
+ * The file holds the columns of a {@link CompactCatalog} as they are laid out in
+ * memory, so opening it is a map call and pages are loaded by the OS on first
+ * access, instead of a full table scan. Books are decoded on demand.
+ *
+ * File layout (big-endian): a 64-byte header with magic, format version, catalog
+ * change version, creation time and section sizes, followed by the id, year and
+ * author reference columns, the offset tables and the UTF-8 bytes of authors,
+ * titles and ISBNs. Files with another magic or format version are rejected.
+ * Safe for concurrent use.
+ */
+public final class CatalogSnapshot {
+
+    private static final int MAGIC = 0x424B534E; // "BKSN"
+    private static final int FORMAT_VERSION = 1;
+    private static final int HEADER_SIZE = 64;
+    private static final int FLAG_SORTED_BY_ID = 1;
+
+    private final ByteBuffer buffer;
+    private final long version;
+    private final Instant createdAt;
+    private final int size;
+    private final int authorCount;
+    private final boolean sortedById;
+    private final int ids;
+    private final int years;
+    private final int authorRefs;
+    private final int authorOffsets;
+    private final int titleOffsets;
+    private final int isbnOffsets;
+    private final int authorBytes;
+    private final int titleBytes;
+    private final int isbnBytes;
+
+    private CatalogSnapshot(ByteBuffer buffer) throws IOException {
+        this.buffer = buffer;
+        if (buffer.capacity() < HEADER_SIZE || buffer.getInt(0) != MAGIC) {
+            throw new IOException("Not a catalog snapshot");
+        }
+        int format = buffer.getInt(4);
+        if (format != FORMAT_VERSION) {
+            throw new IOException("Unsupported catalog snapshot format " + format + " (expected " + FORMAT_VERSION + ")");
+        }
+        version = buffer.getLong(8);
+        createdAt = Instant.ofEpochMilli(buffer.getLong(16));
+        size = buffer.getInt(24);
+        authorCount = buffer.getInt(28);
+        int authorByteCount = buffer.getInt(32);
+        int titleByteCount = buffer.getInt(36);
+        sortedById = (buffer.getInt(44) & FLAG_SORTED_BY_ID) != 0;
+        if (buffer.getLong(48) != buffer.capacity()) {
+            throw new IOException("Catalog snapshot is truncated");
+        }
+
+        ids = HEADER_SIZE;
+        years = ids + 4 * size;
+        authorRefs = years + 2 * size;
+        authorOffsets = authorRefs + 4 * size;
+        titleOffsets = authorOffsets + 4 * (authorCount + 1);
+        isbnOffsets = titleOffsets + 4 * (size + 1);
+        authorBytes = isbnOffsets + 4 * (size + 1);
+        titleBytes = authorBytes + authorByteCount;
+        isbnBytes = titleBytes + titleByteCount;
+    }
+
+    /**
+     * Maps a snapshot file into memory.
+     *
+     * @param path the snapshot file
+     * @return the snapshot
+     * @throws IOException if the file cannot be read or is not a valid snapshot
+     */
+    public static CatalogSnapshot open(Path path) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            if (channel.size() > Integer.MAX_VALUE) {
+                throw new IOException("Catalog snapshot too large: " + channel.size() + " bytes");
+            }
+            // The mapping stays valid after the channel is closed
+            MappedByteBuffer mapped = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            return new CatalogSnapshot(mapped);
+        }
+    }
+
+    /**
+     * Writes a catalog to a snapshot file. The file is written under a temporary
+     * name, synced and then renamed, so readers never see a partial snapshot.
+     *
+     * @param path    the snapshot file (replaced if it exists)
+     * @param catalog the catalog to write
+     * @param version change version of the catalog (see BookPersistor.currentVersion)
+     * @throws IOException if the file cannot be written or the catalog is too large
+     */
+    public static void write(Path path, CompactCatalog catalog, long version) throws IOException {
+        int size = catalog.size();
+        String[] authors = catalog.authorPool();
+        int[] authorOffsetTable = new int[authors.length + 1];
+        List<byte[]> encodedAuthors = new ArrayList<>(authors.length);
+        for (int i = 0; i < authors.length; i++) {
+            byte[] encoded = authors[i].getBytes(StandardCharsets.UTF_8);
+            encodedAuthors.add(encoded);
+            authorOffsetTable[i + 1] = authorOffsetTable[i] + encoded.length;
+        }
+        byte[] titles = catalog.titleBytes();
+        byte[] isbns = catalog.isbnBytes();
+        long fileLength = HEADER_SIZE + 10L * size + 4L * (authors.length + 1) + 8L * (size + 1)
+                + authorOffsetTable[authors.length] + titles.length + isbns.length;
+        if (fileLength > Integer.MAX_VALUE) {
+            throw new IOException("Catalog too large for a snapshot: " + fileLength + " bytes");
+        }
+
+        Path temp = path.resolveSibling(path.getFileName() + ".part");
+        try (FileChannel channel = FileChannel.open(temp, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING)) {
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Channels.newOutputStream(channel), 64 * 1024));
+            out.writeInt(MAGIC);
+            out.writeInt(FORMAT_VERSION);
+            out.writeLong(version);
+            out.writeLong(System.currentTimeMillis());
+            out.writeInt(size);
+            out.writeInt(authors.length);
+            out.writeInt(authorOffsetTable[authors.length]);
+            out.writeInt(titles.length);
+            out.writeInt(isbns.length);
+            out.writeInt(catalog.isSortedById() ? FLAG_SORTED_BY_ID : 0);
+            out.writeLong(fileLength);
+            out.writeLong(0); // reserved
+
+            int[] idColumn = catalog.idColumn();
+            for (int i = 0; i < size; i++) {
+                out.writeInt(idColumn[i]);
+            }
+            short[] yearColumn = catalog.yearColumn();
+            for (int i = 0; i < size; i++) {
+                out.writeShort(yearColumn[i]);
+            }
+            int[] authorRefColumn = catalog.authorRefColumn();
+            for (int i = 0; i < size; i++) {
+                out.writeInt(authorRefColumn[i]);
+            }
+            writeInts(out, authorOffsetTable);
+            writeInts(out, catalog.titleOffsets());
+            writeInts(out, catalog.isbnOffsets());
+            for (byte[] author : encodedAuthors) {
+                out.write(author);
+            }
+            out.write(titles);
+            out.write(isbns);
+            out.flush();
+            channel.force(true);
+        } catch (IOException e) {
+            Files.deleteIfExists(temp);
+            throw e;
+        }
+        Files.move(temp, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    private static void writeInts(DataOutputStream out, int[] values) throws IOException {
+        for (int value : values) {
+            out.writeInt(value);
+        }
+    }
+
+    /**
+     * Change version of the database when the snapshot was taken; the snapshot
+     * contains at least all changes up to this version.
+     *
+     * @return the change version
+     */
+    public long getVersion() {
+        return version;
+    }
+
+    public Instant getCreatedAt() {
+        return createdAt;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public int getId(int index) {
+        return buffer.getInt(ids + 4 * index);
+    }
+
+    public int getYear(int index) {
+        return buffer.getShort(years + 2 * index);
+    }
+
+    public String getAuthor(int index) {
+        return decode(authorBytes, authorOffsets, buffer.getInt(authorRefs + 4 * index));
+    }
+
+    public String getTitle(int index) {
+        return decode(titleBytes, titleOffsets, index);
+    }
+
+    public String getIsbn(int index) {
+        return decode(isbnBytes, isbnOffsets, index);
+    }
+
+    /**
+     * Creates a Book object for the entry at the given position.
+     *
+     * @param index position in the snapshot
+     * @return a new Book instance
+     */
+    public Book get(int index) {
+        return new Book(getId(index), getIsbn(index), getTitle(index), getAuthor(index), getYear(index));
+    }
+
+    /**
+     * Finds the position of a book by ID.
+     *
+     * @param id the book ID
+     * @return the position or -1 if not found
+     */
+    public int indexOf(int id) {
+        if (!sortedById) {
+            for (int i = 0; i < size; i++) {
+                if (getId(i) == id) {
+                    return i;
+                }
+            }
+            return -1;
+        }
+        int low = 0;
+        int high = size - 1;
+        while (low <= high) {
+            int middle = (low + high) >>> 1;
+            int middleId = getId(middle);
+            if (middleId < id) {
+                low = middle + 1;
+            } else if (middleId > id) {
+                high = middle - 1;
+            } else {
+                return middle;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Applies filter, order and limit of a query to the snapshot.
+     * Filters are evaluated on the columns; only matching books are decoded.
+     *
+     * @param query filter, sort and limit criteria
+     * @return the matching books
+     */
+    public List<Book> find(BookQuery query) {
+        int limit = query.getLimit() > 0 ? query.getLimit() : Integer.MAX_VALUE;
+        int authorRef = query.getAuthor() != null ? authorRefOf(query.getAuthor()) : -1;
+        if (query.getAuthor() != null && authorRef < 0) {
+            return List.of();
+        }
+        // Already in the requested order: stop at the limit
+        boolean inOrder = sortedById && query.getSort() == BookQuery.Sort.ID && !query.isDescending();
+
+        List<Book> books = new ArrayList<>();
+        for (int i = 0; i < size && !(inOrder && books.size() >= limit); i++) {
+            int year = getYear(i);
+            if ((authorRef >= 0 && buffer.getInt(authorRefs + 4 * i) != authorRef)
+                    || (query.getYearFrom() != null && year < query.getYearFrom())
+                    || (query.getYearTo() != null && year > query.getYearTo())) {
+                continue;
+            }
+            books.add(get(i));
+        }
+        if (inOrder) {
+            return books;
+        }
+        books.sort(query.comparator());
+        return books.size() > limit ? new ArrayList<>(books.subList(0, limit)) : books;
+    }
+
+    /**
+     * Looks up books by ID (binary search) and ISBN (one scan over the ISBN column).
+     *
+     * @param ids   book IDs
+     * @param isbns ISBNs
+     * @return the books found, each once
+     */
+    public List<Book> findByIdsOrIsbns(Set<Integer> ids, Set<String> isbns) {
+        List<Book> books = new ArrayList<>();
+        for (int id : ids) {
+            int index = indexOf(id);
+            if (index >= 0) {
+                books.add(get(index));
+            }
+        }
+        if (!isbns.isEmpty()) {
+            for (int i = 0; i < size; i++) {
+                if (isbns.contains(getIsbn(i)) && !ids.contains(getId(i))) {
+                    books.add(get(i));
+                }
+            }
+        }
+        return books;
+    }
+
+    private int authorRefOf(String author) {
+        for (int i = 0; i < authorCount; i++) {
+            if (decode(authorBytes, authorOffsets, i).equals(author)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private String decode(int bytesStart, int offsetTable, int index) {
+        int start = buffer.getInt(offsetTable + 4 * index);
+        int end = buffer.getInt(offsetTable + 4 * index + 4);
+        byte[] bytes = new byte[end - start];
+        buffer.get(bytesStart + start, bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+}
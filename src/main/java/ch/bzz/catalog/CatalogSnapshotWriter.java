@@ -0,0 +1,106 @@
+package ch.bzz.catalog;
+
+import ch.bzz.persistence.BookPersistor;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.sql.SQLException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+/**
+ * Periodically writes the catalog to a snapshot file (see {@link CatalogSnapshot}).
+ * A new snapshot is only written when the change version of the database has moved
+ * past the last snapshot. A database that is behind the snapshot, e.g. the empty
+ * in-memory fallback during an outage, never replaces it.
+ */
+public class CatalogSnapshotWriter {
+
+    private static final Logger log = LoggerFactory.getLogger(CatalogSnapshotWriter.class);
+
+    private final BookPersistor bookPersistor;
+    private final Path path;
+    private volatile long lastVersion;
+    private ScheduledExecutorService scheduler;
+
+    /**
+     * Constructor for creating a CatalogSnapshotWriter object.
+     *
+     * @param bookPersistor persistor the catalog is loaded from
+     * @param path          the snapshot file
+     * @param lastVersion   version of the existing snapshot, or -1 if there is none
+     */
+    public CatalogSnapshotWriter(BookPersistor bookPersistor, Path path, long lastVersion) {
+        this.bookPersistor = bookPersistor;
+        this.path = path;
+        this.lastVersion = lastVersion;
+    }
+
+    /**
+     * Writes a new snapshot if the catalog changed since the last one.
+     *
+     * @return the new snapshot, mapped into memory, or null if none was written
+     * @throws SQLException if database access fails
+     * @throws IOException  if the snapshot cannot be written
+     */
+    public CatalogSnapshot writeIfChanged() throws SQLException, IOException {
+        long version = bookPersistor.currentVersion();
+        if (version == lastVersion) {
+            return null;
+        }
+        if (version < lastVersion) {
+            log.warn("Database is at change version {}, behind the catalog snapshot ({}); snapshot kept",
+                    version, lastVersion);
+            return null;
+        }
+        long start = System.nanoTime();
+        CompactCatalog catalog = bookPersistor.loadCatalog();
+        CatalogSnapshot.write(path, catalog, version);
+        lastVersion = version;
+        log.info("Catalog snapshot written: {} books, version {}, {} ms",
+                catalog.size(), version, (System.nanoTime() - start) / 1_000_000);
+        return CatalogSnapshot.open(path);
+    }
+
+    /**
+     * Writes snapshots in a background thread, starting immediately.
+     *
+     * @param periodSeconds delay between two checks in seconds
+     * @param onWritten     receives every new snapshot
+     */
+    public synchronized void start(int periodSeconds, Consumer<CatalogSnapshot> onWritten) {
+        if (scheduler != null) {
+            return;
+        }
+        scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "catalog-snapshot");
+            thread.setDaemon(true);
+            return thread;
+        });
+        scheduler.scheduleWithFixedDelay(() -> {
+            try {
+                CatalogSnapshot snapshot = writeIfChanged();
+                if (snapshot != null) {
+                    onWritten.accept(snapshot);
+                }
+            } catch (SQLException | IOException e) {
+                log.warn("Catalog snapshot not written: {}", e.getMessage());
+            } catch (RuntimeException e) {
+                log.error("Catalog snapshot failed", e);
+            }
+        }, 0, periodSeconds, TimeUnit.SECONDS);
+    }
+
+    /**
+     * Stops writing snapshots; a snapshot being written is completed.
+     */
+    public synchronized void stop() {
+        if (scheduler != null) {
+            scheduler.shutdown();
+            scheduler = null;
+        }
+    }
+}
@@ -0,0 +1,317 @@
+package ch.bzz.catalog;
+
+import ch.bzz.model.Book;
+import java.nio.charset.StandardCharsets;
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.RandomAccess;
+
+/**
+ * Read-only, memory-compact representation of the book catalog.
+ * Instead of one object per book, the columns are stored in parallel arrays:
+ * primitive arrays for id and year, a deduplicated pool for authors and
+ * packed UTF-8 bytes for titles and ISBNs. Book objects are only created on demand.
+ */
+public final class CompactCatalog {
+
+    private final int size;
+    private final int[] ids;
+    private final short[] years;
+    private final int[] authorRefs;
+    private final String[] authorPool;
+    private final byte[] titleBytes;
+    private final int[] titleOffsets;
+    private final byte[] isbnBytes;
+    private final int[] isbnOffsets;
+    private final boolean sortedById;
+
+    private CompactCatalog(Builder builder) {
+        size = builder.size;
+        ids = Arrays.copyOf(builder.ids, size);
+        years = Arrays.copyOf(builder.years, size);
+        authorRefs = Arrays.copyOf(builder.authorRefs, size);
+        authorPool = builder.authorPool.toArray(new String[0]);
+        titleBytes = builder.titles.toByteArray();
+        titleOffsets = builder.titles.offsets(size);
+        isbnBytes = builder.isbns.toByteArray();
+        isbnOffsets = builder.isbns.offsets(size);
+        sortedById = isSorted(ids);
+    }
+
+    /**
+     * Creates a catalog from a collection of books.
+     *
+     * @param books the books to store
+     * @return the compact catalog
+     */
+    public static CompactCatalog of(Collection<Book> books) {
+        Builder builder = new Builder(books.size());
+        for (Book book : books) {
+            builder.add(book);
+        }
+        return builder.build();
+    }
+
+    /**
+     * Creates a builder for a catalog with an expected number of books.
+     *
+     * @param expectedSize expected number of books (the builder grows if needed)
+     * @return a new builder
+     */
+    public static Builder builder(int expectedSize) {
+        return new Builder(expectedSize);
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public int getId(int index) {
+        return ids[index];
+    }
+
+    public int getYear(int index) {
+        return years[index];
+    }
+
+    public String getAuthor(int index) {
+        return authorPool[authorRefs[index]];
+    }
+
+    public String getTitle(int index) {
+        return decode(titleBytes, titleOffsets, index);
+    }
+
+    public String getIsbn(int index) {
+        return decode(isbnBytes, isbnOffsets, index);
+    }
+
+    /**
+     * Creates a Book object for the entry at the given position.
+     *
+     * @param index position in the catalog
+     * @return a new Book instance
+     */
+    public Book get(int index) {
+        return new Book(ids[index], getIsbn(index), getTitle(index), getAuthor(index), years[index]);
+    }
+
+    /**
+     * Finds the position of a book by ID.
+     * Uses binary search when the catalog was built in ID order.
+     *
+     * @param id the book ID
+     * @return the position or -1 if not found
+     */
+    public int indexOf(int id) {
+        if (sortedById) {
+            int index = Arrays.binarySearch(ids, 0, size, id);
+            return index >= 0 ? index : -1;
+        }
+        for (int i = 0; i < size; i++) {
+            if (ids[i] == id) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Returns a read-only list view. Each access creates a new Book,
+     * so serializing the view does not keep the whole catalog as objects.
+     *
+     * @return list view of the catalog
+     */
+    public List<Book> books() {
+        return new BookView();
+    }
+
+    /**
+     * Number of distinct authors in the pool.
+     *
+     * @return number of pooled author strings
+     */
+    public int authorCount() {
+        return authorPool.length;
+    }
+
+    // Raw columns for CatalogSnapshot; callers must not modify the arrays
+
+    int[] idColumn() {
+        return ids;
+    }
+
+    short[] yearColumn() {
+        return years;
+    }
+
+    int[] authorRefColumn() {
+        return authorRefs;
+    }
+
+    String[] authorPool() {
+        return authorPool;
+    }
+
+    byte[] titleBytes() {
+        return titleBytes;
+    }
+
+    int[] titleOffsets() {
+        return titleOffsets;
+    }
+
+    byte[] isbnBytes() {
+        return isbnBytes;
+    }
+
+    int[] isbnOffsets() {
+        return isbnOffsets;
+    }
+
+    boolean isSortedById() {
+        return sortedById;
+    }
+
+    private static String decode(byte[] bytes, int[] offsets, int index) {
+        int start = offsets[index];
+        return new String(bytes, start, offsets[index + 1] - start, StandardCharsets.UTF_8);
+    }
+
+    private static boolean isSorted(int[] values) {
+        for (int i = 1; i < values.length; i++) {
+            if (values[i - 1] >= values[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Read-only list that creates Book objects on access.
+     */
+    private class BookView extends AbstractList<Book> implements RandomAccess {
+        @Override
+        public Book get(int index) {
+            if (index < 0 || index >= size) {
+                throw new IndexOutOfBoundsException("Index " + index + ", size " + size);
+            }
+            return CompactCatalog.this.get(index);
+        }
+
+        @Override
+        public int size() {
+            return size;
+        }
+    }
+
+    /**
+     * Builder that collects books column by column.
+     */
+    public static final class Builder {
+        private int size;
+        private int[] ids;
+        private short[] years;
+        private int[] authorRefs;
+        private final List<String> authorPool = new ArrayList<>();
+        private final Map<String, Integer> authorIndex = new HashMap<>();
+        private final ByteColumn titles;
+        private final ByteColumn isbns;
+
+        private Builder(int expectedSize) {
+            int capacity = Math.max(16, expectedSize);
+            ids = new int[capacity];
+            years = new short[capacity];
+            authorRefs = new int[capacity];
+            titles = new ByteColumn(capacity, 32);
+            isbns = new ByteColumn(capacity, 17);
+        }
+
+        /**
+         * Adds a book.
+         *
+         * @param book the book to add
+         * @return this builder
+         */
+        public Builder add(Book book) {
+            return add(book.getId(), book.getIsbn(), book.getTitle(), book.getAuthor(), book.getYear());
+        }
+
+        /**
+         * Adds a book from its column values.
+         *
+         * @param id     the book ID
+         * @param isbn   the ISBN
+         * @param title  the title
+         * @param author the author
+         * @param year   the publication year
+         * @return this builder
+         */
+        public Builder add(int id, String isbn, String title, String author, int year) {
+            if (year < Short.MIN_VALUE || year > Short.MAX_VALUE) {
+                throw new IllegalArgumentException("Year out of range: " + year);
+            }
+            if (size == ids.length) {
+                int capacity = size + (size >> 1);
+                ids = Arrays.copyOf(ids, capacity);
+                years = Arrays.copyOf(years, capacity);
+                authorRefs = Arrays.copyOf(authorRefs, capacity);
+            }
+            ids[size] = id;
+            years[size] = (short) year;
+            authorRefs[size] = authorIndex.computeIfAbsent(author, key -> {
+                authorPool.add(key);
+                return authorPool.size() - 1;
+            });
+            titles.add(title);
+            isbns.add(isbn);
+            size++;
+            return this;
+        }
+
+        public CompactCatalog build() {
+            return new CompactCatalog(this);
+        }
+    }
+
+    /**
+     * Growable packed UTF-8 storage with an offset per entry.
+     */
+    private static final class ByteColumn {
+        private byte[] bytes;
+        private int length;
+        private int[] offsets;
+        private int count;
+
+        ByteColumn(int expectedEntries, int averageLength) {
+            bytes = new byte[Math.max(64, expectedEntries * averageLength)];
+            offsets = new int[expectedEntries + 1];
+        }
+
+        void add(String value) {
+            byte[] encoded = value.getBytes(StandardCharsets.UTF_8);
+            if (length + encoded.length > bytes.length) {
+                bytes = Arrays.copyOf(bytes, Math.max(length + encoded.length, bytes.length + (bytes.length >> 1)));
+            }
+            System.arraycopy(encoded, 0, bytes, length, encoded.length);
+            length += encoded.length;
+            if (count + 1 == offsets.length) {
+                offsets = Arrays.copyOf(offsets, offsets.length + (offsets.length >> 1) + 1);
+            }
+            offsets[++count] = length;
+        }
+
+        byte[] toByteArray() {
+            return Arrays.copyOf(bytes, length);
+        }
+
+        int[] offsets(int entries) {
+            return Arrays.copyOf(offsets, entries + 1);
+        }
+    }
+}
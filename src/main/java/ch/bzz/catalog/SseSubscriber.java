@@ -0,0 +1,187 @@
+package ch.bzz.catalog;
+
+import io.javalin.http.sse.SseClient;
+import jakarta.servlet.ServletOutputStream;
+import jakarta.servlet.WriteListener;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.Deque;
+
+/**
+ * One SSE connection of the change feed with a bounded outbound queue.
+ *
+ * Frames are written with non-blocking servlet I/O: a write only happens while the
+ * output stream is ready, and the container calls {@link #onWritePossible()} when a
+ * slow client has taken the pending bytes. Adding a frame never waits for the socket,
+ * so the publisher thread is not held up by any client. A client that falls more than
+ * the queue capacity behind is disconnected; it reconnects with Last-Event-ID and gets
+ * the missed events from the replay buffer (or a reset).
+ *
+ * The frames are encoded once per event and shared by all subscribers.
+ * Javalin's blocking {@code SseClient.sendEvent} must not be used on the same connection.
+ */
+class SseSubscriber implements WriteListener {
+
+    private static final Logger log = LoggerFactory.getLogger(SseSubscriber.class);
+
+    private final SseClient client;
+    private final ServletOutputStream out;
+    private final int capacity;
+    private final Deque<byte[]> queue = new ArrayDeque<>();
+    // Replayed frames at the head of the queue, not counted against the capacity
+    private int unboundedFrames;
+    private boolean flushPending;
+    private boolean closeWhenWritten;
+    private boolean closed;
+
+    private SseSubscriber(SseClient client, ServletOutputStream out, int capacity) {
+        this.client = client;
+        this.out = out;
+        this.capacity = capacity;
+    }
+
+    /**
+     * Switches the connection to non-blocking output.
+     *
+     * @param client   the SSE client (keepAlive must already be called)
+     * @param capacity maximum number of queued frames before the client is disconnected
+     * @return the subscriber
+     * @throws IOException if the output stream is not available
+     */
+    static SseSubscriber open(SseClient client, int capacity) throws IOException {
+        ServletOutputStream out = client.ctx().res().getOutputStream();
+        SseSubscriber subscriber = new SseSubscriber(client, out, capacity);
+        out.setWriteListener(subscriber);
+        return subscriber;
+    }
+
+    /**
+     * Encodes an SSE event.
+     *
+     * @param type event type
+     * @param data single-line data (compact JSON)
+     * @param id   event ID (may be null)
+     * @return the frame
+     */
+    static byte[] eventFrame(String type, String data, String id) {
+        StringBuilder frame = new StringBuilder(data.length() + 64);
+        if (id != null) {
+            frame.append("id: ").append(id).append('\n');
+        }
+        frame.append("event: ").append(type).append('\n')
+                .append("data: ").append(data).append("\n\n");
+        return frame.toString().getBytes(StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Encodes an SSE comment, e.g. a heartbeat.
+     *
+     * @param comment the comment text
+     * @return the frame
+     */
+    static byte[] commentFrame(String comment) {
+        return (": " + comment + "\n\n").getBytes(StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Queues a frame and writes as much as the connection takes without blocking.
+     *
+     * @param frame the encoded frame
+     * @return false if the connection is closed or the queue overflowed (the client is disconnected then)
+     */
+    synchronized boolean offer(byte[] frame) {
+        if (closed || client.terminated()) {
+            return false;
+        }
+        if (queue.size() - unboundedFrames >= capacity) {
+            log.info("Change feed subscriber disconnected, {} events behind", queue.size());
+            close();
+            return false;
+        }
+        queue.addLast(frame);
+        write();
+        return !closed;
+    }
+
+    /**
+     * Queues frames without applying the capacity, e.g. replayed events. The frames are
+     * shared with the replay buffer, so this only costs the queue entries.
+     *
+     * @param frame the encoded frame
+     */
+    synchronized void offerUnbounded(byte[] frame) {
+        if (!closed) {
+            queue.addLast(frame);
+            unboundedFrames++;
+        }
+    }
+
+    /**
+     * Closes the connection once all queued frames are written.
+     */
+    synchronized void closeWhenWritten() {
+        closeWhenWritten = true;
+        write();
+    }
+
+    synchronized boolean isClosed() {
+        return closed || client.terminated();
+    }
+
+    @Override
+    public synchronized void onWritePossible() {
+        write();
+    }
+
+    @Override
+    public synchronized void onError(Throwable t) {
+        log.debug("Change feed subscriber write failed: {}", t.getMessage());
+        close();
+    }
+
+    /**
+     * Writes queued frames while the stream is ready. When isReady() returns false
+     * the container calls onWritePossible() once the pending bytes are sent.
+     */
+    synchronized void write() {
+        if (closed) {
+            return;
+        }
+        try {
+            while (out.isReady()) {
+                byte[] frame = queue.pollFirst();
+                if (frame != null) {
+                    if (unboundedFrames > 0) {
+                        unboundedFrames--;
+                    }
+                    out.write(frame);
+                    flushPending = true;
+                } else if (flushPending) {
+                    flushPending = false;
+                    out.flush();
+                } else {
+                    if (closeWhenWritten) {
+                        close();
+                    }
+                    return;
+                }
+            }
+        } catch (IOException | IllegalStateException e) {
+            log.debug("Change feed subscriber write failed: {}", e.getMessage());
+            close();
+        }
+    }
+
+    private void close() {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        queue.clear();
+        unboundedFrames = 0;
+        client.close();
+    }
+}
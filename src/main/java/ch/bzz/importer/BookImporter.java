@@ -0,0 +1,383 @@
+package ch.bzz.importer;
+
+import ch.bzz.model.Book;
+import ch.bzz.persistence.BookPersistor;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.PathMatcher;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Stream;
+
+/**
+ * Imports TSV files into the books table, several files at a time.
+ * Every file is streamed into the database in its own transaction, so a broken
+ * file is rolled back without affecting the others. The number of files imported
+ * concurrently is limited by the parallelism, the number of concurrently open
+ * transactions by the connection budget.
+ * With a reject writer set, duplicate IDs and ISBNs across all files are detected
+ * before the import starts; only the first occurrence is written, the other rows
+ * go to the reject file. If the file of a first occurrence fails, the next occurrence
+ * in a committed file is written after the other files instead. Without the duplicate
+ * check the files may repeat IDs, so their transactions write one after the other.
+ * Files may be compressed (see {@link ImportInput}); progress is measured in bytes
+ * read from the files, i.e. compressed bytes.
+ */
+public class BookImporter {
+
+    private static final Logger log = LoggerFactory.getLogger(BookImporter.class);
+
+    private final BookPersistor bookPersistor;
+    private final int parallelism;
+    private final Semaphore connectionBudget;
+    private final AtomicLong bytesRead = new AtomicLong();
+    private volatile long totalBytes;
+    private RejectWriter rejectWriter;
+    private long maxFilterBytes;
+    private long maxSuspects;
+
+    /**
+     * Constructor for creating a BookImporter object.
+     *
+     * @param bookPersistor    persistor used to write the books
+     * @param parallelism      number of files imported concurrently
+     * @param connectionBudget maximum number of database connections used at the same time
+     */
+    public BookImporter(BookPersistor bookPersistor, int parallelism, int connectionBudget) {
+        this.bookPersistor = bookPersistor;
+        this.parallelism = Math.max(1, parallelism);
+        this.connectionBudget = new Semaphore(Math.max(1, connectionBudget), true);
+    }
+
+    /**
+     * Enables the duplicate check for the following imports.
+     *
+     * @param rejectWriter   destination of the rejected rows
+     * @param maxFilterBytes memory limit for the Bloom filters of the pre-scan
+     * @param maxSuspects    maximum number of repeated IDs and ISBNs; more fail the import
+     */
+    public void setDuplicateCheck(RejectWriter rejectWriter, long maxFilterBytes, long maxSuspects) {
+        this.rejectWriter = rejectWriter;
+        this.maxFilterBytes = maxFilterBytes;
+        this.maxSuspects = maxSuspects;
+    }
+
+    /**
+     * Imports the files and waits until all of them are done.
+     *
+     * @param files the TSV files
+     * @return per-file results in the order of the input
+     */
+    public ImportSummary importFiles(List<Path> files) {
+        long start = System.nanoTime();
+        long fileBytes = 0;
+        for (Path file : files) {
+            fileBytes += sizeOf(file);
+        }
+        // The duplicate scan reads every file twice before the import reads it
+        bytesRead.set(0);
+        totalBytes = rejectWriter != null ? 3 * fileBytes : fileBytes;
+
+        DuplicateDetector detector = null;
+        if (rejectWriter != null) {
+            try {
+                detector = DuplicateDetector.scan(files, maxFilterBytes, maxSuspects, bytesRead);
+            } catch (IOException | UncheckedIOException | IllegalStateException e) {
+                log.error("Error scanning import files for duplicates: {}", e.getMessage());
+                List<FileImportResult> failed = files.stream()
+                        .map(file -> new FileImportResult(file, 0, 0, 0, 0, 0, "duplicate scan failed: " + e.getMessage()))
+                        .toList();
+                return new ImportSummary(failed, System.nanoTime() - start);
+            }
+        }
+
+        AtomicInteger threadNumber = new AtomicInteger();
+        ExecutorService executor = Executors.newFixedThreadPool(Math.min(parallelism, Math.max(1, files.size())), runnable -> {
+            Thread thread = new Thread(runnable, "import-" + threadNumber.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+
+        List<Future<FileImportResult>> futures = new ArrayList<>();
+        for (int i = 0; i < files.size(); i++) {
+            Path file = files.get(i);
+            int fileIndex = i;
+            DuplicateDetector fileDetector = detector;
+            futures.add(executor.submit(() -> importFile(file, fileIndex, fileDetector)));
+        }
+        List<FileImportResult> results = new ArrayList<>();
+        try {
+            for (int i = 0; i < futures.size(); i++) {
+                try {
+                    results.add(futures.get(i).get());
+                } catch (ExecutionException e) {
+                    results.add(new FileImportResult(files.get(i), 0, 0, 0, 0, 0, String.valueOf(e.getCause())));
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            executor.shutdownNow();
+        } finally {
+            executor.shutdown();
+        }
+        if (detector != null && results.size() == files.size()) {
+            importReassigned(files, detector, results);
+        }
+        return new ImportSummary(results, System.nanoTime() - start);
+    }
+
+    /**
+     * Writes the rows that were rejected in favor of rows of a failed file, see
+     * {@link DuplicateDetector#reassign}. They are listed in the reject file as well.
+     *
+     * @param files    the files of the import
+     * @param detector the duplicate check of the import
+     * @param results  per-file results, updated for the files with reassigned rows
+     */
+    private void importReassigned(List<Path> files, DuplicateDetector detector, List<FileImportResult> results) {
+        Set<Integer> failedFiles = new HashSet<>();
+        for (int i = 0; i < results.size(); i++) {
+            if (!results.get(i).isSuccess()) {
+                failedFiles.add(i);
+            }
+        }
+        if (failedFiles.isEmpty()) {
+            return;
+        }
+        Map<Integer, Set<Long>> reassigned;
+        try {
+            reassigned = detector.reassign(files, failedFiles);
+        } catch (IOException | UncheckedIOException e) {
+            log.error("Error reassigning the duplicates of failed files: {}", e.getMessage());
+            return;
+        }
+
+        for (Map.Entry<Integer, Set<Long>> entry : reassigned.entrySet()) {
+            int fileIndex = entry.getKey();
+            Path file = files.get(fileIndex);
+            FileImportResult result = results.get(fileIndex);
+            // At most one row per repeated key, so the rows fit in memory
+            List<Book> books = new ArrayList<>();
+            try (TsvBookReader reader = TsvBookReader.open(file)) {
+                while (reader.hasNext()) {
+                    Book book = reader.next();
+                    if (entry.getValue().contains(reader.getLineNumber())) {
+                        books.add(book);
+                    }
+                }
+                bookPersistor.saveAll(books);
+                log.info("Imported {} rows from {} that were rejected in favor of rows of failed files",
+                        books.size(), file);
+                results.set(fileIndex, new FileImportResult(file, result.getRows() + books.size(),
+                        result.getInvalidLines(), result.getDuplicates() - books.size(), result.getBytes(),
+                        result.getDurationNanos(), null));
+            } catch (IOException | UncheckedIOException | SQLException e) {
+                log.error("Error saving the reassigned rows of {}: {}", file, e.getMessage());
+                results.set(fileIndex, new FileImportResult(file, result.getRows(), result.getInvalidLines(),
+                        result.getDuplicates(), result.getBytes(), result.getDurationNanos(),
+                        "rows rejected in favor of a failed file were not imported: " + e.getMessage()));
+            }
+        }
+    }
+
+    /**
+     * Streams one file into the database in a single transaction.
+     *
+     * @param file      the TSV file
+     * @param fileIndex index of the file in the import
+     * @param detector  duplicate check, or null to write every row
+     * @return the result of the file
+     */
+    FileImportResult importFile(Path file, int fileIndex, DuplicateDetector detector) {
+        long start = System.nanoTime();
+        long bytes = 0;
+        try (TsvBookReader reader = TsvBookReader.open(file, bytesRead)) {
+            bytes = Files.size(file);
+            DuplicateFilter filter = detector == null ? null : new DuplicateFilter(reader, file, fileIndex, detector);
+            connectionBudget.acquire();
+            try {
+                // Without the duplicate check files may share IDs; concurrent transactions could deadlock on them
+                long rows = bookPersistor.saveStream(filter == null ? reader : filter, filter == null);
+                long duplicates = filter == null ? 0 : filter.rejected;
+                log.info("Imported {} books from {} ({} duplicates rejected)", rows, file, duplicates);
+                return new FileImportResult(file, rows, reader.getInvalidLines(), duplicates, bytes,
+                        System.nanoTime() - start, null);
+            } finally {
+                connectionBudget.release();
+            }
+        } catch (IOException | UncheckedIOException e) {
+            log.error("Error reading file {}: {}", file, e.getMessage());
+            return new FileImportResult(file, 0, 0, 0, bytes, System.nanoTime() - start, e.getMessage());
+        } catch (SQLException e) {
+            log.error("Error saving books from {}: {}", file, e.getMessage());
+            return new FileImportResult(file, 0, 0, 0, bytes, System.nanoTime() - start, e.getMessage());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return new FileImportResult(file, 0, 0, 0, bytes, System.nanoTime() - start, "interrupted");
+        }
+    }
+
+    /**
+     * Returns the bytes read so far by the current import, including the duplicate scan.
+     *
+     * @return bytes read from the files (compressed bytes for compressed files)
+     */
+    public long getBytesRead() {
+        return bytesRead.get();
+    }
+
+    /**
+     * Returns the bytes the current import reads in total, see {@link #getBytesRead()}.
+     *
+     * @return total bytes to read
+     */
+    public long getTotalBytes() {
+        return totalBytes;
+    }
+
+    private static long sizeOf(Path file) {
+        try {
+            return Files.size(file);
+        } catch (IOException e) {
+            // reported when the file is imported
+            return 0;
+        }
+    }
+
+    /**
+     * Skips rows that the duplicate check rejects and writes them to the reject file.
+     */
+    private class DuplicateFilter implements Iterator<Book> {
+
+        private final TsvBookReader reader;
+        private final Path file;
+        private final int fileIndex;
+        private final DuplicateDetector detector;
+        private Book next;
+        private long rejected;
+
+        DuplicateFilter(TsvBookReader reader, Path file, int fileIndex, DuplicateDetector detector) {
+            this.reader = reader;
+            this.file = file;
+            this.fileIndex = fileIndex;
+            this.detector = detector;
+        }
+
+        @Override
+        public boolean hasNext() {
+            while (next == null && reader.hasNext()) {
+                Book book = reader.next();
+                long lineNumber = reader.getLineNumber();
+                String reason = detector.check(book, fileIndex, lineNumber);
+                if (reason == null) {
+                    next = book;
+                } else {
+                    rejected++;
+                    try {
+                        rejectWriter.reject(file, lineNumber, book, reason);
+                    } catch (IOException e) {
+                        throw new UncheckedIOException(e);
+                    }
+                }
+            }
+            return next != null;
+        }
+
+        @Override
+        public Book next() {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            Book book = next;
+            next = null;
+            return book;
+        }
+    }
+
+    /**
+     * Expands command line arguments into a list of files.
+     * An argument can be a file, a directory (all *.tsv files in it) or a glob
+     * pattern such as data/*.tsv or shards/**&#47;part-*.tsv.
+     *
+     * @param arguments files, directories or glob patterns
+     * @return the matching files, sorted per argument and without duplicates
+     * @throws IOException if a directory cannot be read
+     */
+    public static List<Path> resolveFiles(List<String> arguments) throws IOException {
+        Set<Path> files = new LinkedHashSet<>();
+        for (String argument : arguments) {
+            if (isGlob(argument)) {
+                files.addAll(expandGlob(argument));
+                continue;
+            }
+            Path path = Path.of(argument);
+            if (Files.isDirectory(path)) {
+                try (Stream<Path> stream = Files.list(path)) {
+                    stream.filter(Files::isRegularFile)
+                            .filter(file -> isImportFile(file.getFileName().toString()))
+                            .sorted()
+                            .forEach(files::add);
+                }
+            } else {
+                files.add(path);
+            }
+        }
+        return new ArrayList<>(files);
+    }
+
+    private static boolean isGlob(String argument) {
+        return argument.chars().anyMatch(c -> c == '*' || c == '?' || c == '[' || c == '{');
+    }
+
+    private static boolean isImportFile(String fileName) {
+        return !fileName.startsWith(".") && fileName.contains(".tsv");
+    }
+
+    /**
+     * Walks the directory before the first wildcard and matches the rest of the pattern.
+     */
+    private static List<Path> expandGlob(String pattern) throws IOException {
+        String normalized = pattern.replace('\\', '/');
+        int firstWildcard = 0;
+        while (!isGlob(String.valueOf(normalized.charAt(firstWildcard)))) {
+            firstWildcard++;
+        }
+        int slash = normalized.lastIndexOf('/', firstWildcard);
+        Path base = slash < 0 ? Path.of(".") : Path.of(slash == 0 ? "/" : normalized.substring(0, slash));
+        String relativePattern = normalized.substring(slash + 1);
+        if (!Files.isDirectory(base)) {
+            return List.of();
+        }
+
+        PathMatcher matcher = FileSystems.getDefault().getPathMatcher("glob:" + relativePattern);
+        int maxDepth = relativePattern.contains("**")
+                ? Integer.MAX_VALUE
+                : (int) relativePattern.chars().filter(c -> c == '/').count() + 1;
+        try (Stream<Path> stream = Files.walk(base, maxDepth)) {
+            return stream.filter(Files::isRegularFile)
+                    .filter(file -> matcher.matches(base.relativize(file)))
+                    .map(Path::normalize)
+                    .sorted()
+                    .toList();
+        }
+    }
+}
@@ -0,0 +1,234 @@
+package ch.bzz.importer;
+
+import ch.bzz.model.Book;
+import ch.bzz.util.BloomFilter;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Finds duplicate book IDs and ISBNs across all files of an import before anything is written.
+ *
+ * The files are scanned twice, in import order. The first pass adds every ID and ISBN
+ * to a memory-bounded Bloom filter; keys the filter reports as possibly seen before
+ * become suspects. Only the suspects (real duplicates plus a small share of false
+ * positives) are kept exactly, and the second pass decides which rows are accepted: a row
+ * is rejected if its ID or ISBN belongs to an earlier accepted row, and only accepted rows
+ * claim their keys, so a rejected row does not cause later rows to be rejected as well.
+ * Empty ISBNs are not checked. Memory depends on the filter size and the number of
+ * duplicates, not on the input size; the number of exactly tracked keys is capped.
+ *
+ * The filters are sized from an estimate of the row count. If the first pass finds clearly
+ * more rows than estimated, it is repeated with filters sized for the counted rows, so the
+ * false positive rate (and with it the number of suspects) stays bounded.
+ *
+ * If a file fails, the rows it claimed keys for were not written. {@link #reassign}
+ * then decides which of the rows rejected in favor of them are written after all.
+ */
+public class DuplicateDetector {
+
+    private static final Logger log = LoggerFactory.getLogger(DuplicateDetector.class);
+
+    // Rough size of a TSV line, used to estimate the number of rows from the file sizes
+    private static final int ESTIMATED_BYTES_PER_ROW = 40;
+    // Typical gzip ratio of book TSV files, used to estimate the rows of compressed files
+    private static final int ESTIMATED_COMPRESSION_RATIO = 4;
+    private static final double FALSE_POSITIVE_RATE = 0.01;
+
+    private final Map<Integer, Long> acceptedIdLocation = new HashMap<>();
+    private final Map<String, Long> acceptedIsbnLocation = new HashMap<>();
+
+    private DuplicateDetector() {}
+
+    /**
+     * Scans the files and prepares the duplicate check.
+     *
+     * @param files          the files of the import, in import order
+     * @param maxFilterBytes memory limit for both Bloom filters together
+     * @param maxSuspects    maximum number of IDs and ISBNs tracked exactly
+     * @param bytesRead      counter for the bytes read from the files, or null
+     * @return the detector
+     * @throws IOException           if a file cannot be read
+     * @throws IllegalStateException if the files repeat more than maxSuspects keys
+     */
+    public static DuplicateDetector scan(List<Path> files, long maxFilterBytes, long maxSuspects,
+                                         AtomicLong bytesRead) throws IOException {
+        long totalBytes = 0;
+        for (Path file : files) {
+            long size = Files.size(file);
+            totalBytes += ImportInput.detect(file) == ImportInput.Compression.NONE
+                    ? size
+                    : size * ESTIMATED_COMPRESSION_RATIO;
+        }
+        long expectedRows = totalBytes / ESTIMATED_BYTES_PER_ROW;
+        long bytesBefore = bytesRead != null ? bytesRead.get() : 0;
+
+        // Pass 1: suspects are keys the filters have possibly seen before
+        BloomFilter ids;
+        BloomFilter isbns;
+        Set<Integer> suspectIds;
+        Set<String> suspectIsbns;
+        long rows;
+        while (true) {
+            ids = new BloomFilter(expectedRows, FALSE_POSITIVE_RATE, maxFilterBytes / 2);
+            isbns = new BloomFilter(expectedRows, FALSE_POSITIVE_RATE, maxFilterBytes / 2);
+            suspectIds = new HashSet<>();
+            suspectIsbns = new HashSet<>();
+            rows = 0;
+            for (Path file : files) {
+                try (TsvBookReader reader = TsvBookReader.open(file, bytesRead)) {
+                    while (reader.hasNext()) {
+                        Book book = reader.next();
+                        if (ids.put(BloomFilter.hash(book.getId()))) {
+                            suspectIds.add(book.getId());
+                        }
+                        if (!book.getIsbn().isEmpty() && isbns.put(BloomFilter.hash(book.getIsbn()))) {
+                            suspectIsbns.add(book.getIsbn());
+                        }
+                        rows++;
+                        if (suspectIds.size() + suspectIsbns.size() > maxSuspects) {
+                            throw new IllegalStateException("More than " + maxSuspects + " repeated IDs and ISBNs; "
+                                    + "raise IMPORT_DEDUPE_MAX_SUSPECTS or import without IMPORT_DEDUPE");
+                        }
+                    }
+                }
+            }
+            // Up to 10% more rows keep the false positive rate below 1.6%; a filter at its
+            // memory limit would not get any larger
+            if (rows <= expectedRows + expectedRows / 10 || ids.getByteSize() >= maxFilterBytes / 2) {
+                break;
+            }
+            log.info("Duplicate scan: {} rows instead of the estimated {}, scanning again with larger filters",
+                    rows, expectedRows);
+            expectedRows = rows;
+            if (bytesRead != null) {
+                bytesRead.set(bytesBefore);
+            }
+        }
+        log.info("Duplicate scan: {} rows, {} suspect IDs, {} suspect ISBNs, filters {} KB",
+                rows, suspectIds.size(), suspectIsbns.size(), (ids.getByteSize() + isbns.getByteSize()) / 1024);
+
+        // Pass 2: the accepted row of every suspect
+        DuplicateDetector detector = new DuplicateDetector();
+        if (suspectIds.isEmpty() && suspectIsbns.isEmpty()) {
+            if (bytesRead != null) {
+                for (Path file : files) {
+                    bytesRead.addAndGet(Files.size(file));
+                }
+            }
+            return detector;
+        }
+        for (int fileIndex = 0; fileIndex < files.size(); fileIndex++) {
+            try (TsvBookReader reader = TsvBookReader.open(files.get(fileIndex), bytesRead)) {
+                while (reader.hasNext()) {
+                    Book book = reader.next();
+                    boolean suspectId = suspectIds.contains(book.getId());
+                    boolean suspectIsbn = suspectIsbns.contains(book.getIsbn());
+                    if (!suspectId && !suspectIsbn
+                            || suspectId && detector.acceptedIdLocation.containsKey(book.getId())
+                            || suspectIsbn && detector.acceptedIsbnLocation.containsKey(book.getIsbn())) {
+                        continue;
+                    }
+                    long location = location(fileIndex, reader.getLineNumber());
+                    if (suspectId) {
+                        detector.acceptedIdLocation.put(book.getId(), location);
+                    }
+                    if (suspectIsbn) {
+                        detector.acceptedIsbnLocation.put(book.getIsbn(), location);
+                    }
+                }
+            }
+        }
+        return detector;
+    }
+
+    /**
+     * Checks a row of the import.
+     *
+     * @param book       the book read from the row
+     * @param fileIndex  index of the file in the import
+     * @param lineNumber line number of the row
+     * @return the reason for rejecting the row, or null if it is the accepted row of its ID and ISBN
+     */
+    public String check(Book book, int fileIndex, long lineNumber) {
+        long location = location(fileIndex, lineNumber);
+        // A rejected row has a key claimed by an earlier row; its other key may be claimed by a later one
+        Long acceptedId = acceptedIdLocation.get(book.getId());
+        if (acceptedId != null && acceptedId < location) {
+            return "duplicate id";
+        }
+        if (book.getIsbn().isEmpty()) {
+            return null;
+        }
+        Long acceptedIsbn = acceptedIsbnLocation.get(book.getIsbn());
+        if (acceptedIsbn != null && acceptedIsbn < location) {
+            return "duplicate isbn";
+        }
+        return null;
+    }
+
+    /**
+     * Decides which rows rejected in the committed files are written after all, because
+     * the row that claimed their ID or ISBN was in a file that failed. Rows accepted in
+     * the committed files keep their keys; a rejected row is reassigned, in import order,
+     * if neither of its keys is claimed by a committed or an already reassigned row.
+     *
+     * @param files       the files of the import, in import order
+     * @param failedFiles indexes of the files whose transaction failed
+     * @return line numbers of the reassigned rows per file index, in file order
+     * @throws IOException if a file cannot be read
+     */
+    public Map<Integer, Set<Long>> reassign(List<Path> files, Set<Integer> failedFiles) throws IOException {
+        Map<Integer, Long> idClaims = new HashMap<>(acceptedIdLocation);
+        Map<String, Long> isbnClaims = new HashMap<>(acceptedIsbnLocation);
+        idClaims.values().removeIf(location -> failedFiles.contains(fileIndex(location)));
+        isbnClaims.values().removeIf(location -> failedFiles.contains(fileIndex(location)));
+        Map<Integer, Set<Long>> reassigned = new TreeMap<>();
+        if (idClaims.size() == acceptedIdLocation.size() && isbnClaims.size() == acceptedIsbnLocation.size()) {
+            // The failed files did not claim any key of another row
+            return reassigned;
+        }
+
+        for (int fileIndex = 0; fileIndex < files.size(); fileIndex++) {
+            if (failedFiles.contains(fileIndex)) {
+                continue;
+            }
+            try (TsvBookReader reader = TsvBookReader.open(files.get(fileIndex))) {
+                while (reader.hasNext()) {
+                    Book book = reader.next();
+                    long lineNumber = reader.getLineNumber();
+                    boolean hasIsbn = !book.getIsbn().isEmpty();
+                    if (check(book, fileIndex, lineNumber) == null
+                            || idClaims.containsKey(book.getId())
+                            || hasIsbn && isbnClaims.containsKey(book.getIsbn())) {
+                        continue;
+                    }
+                    long location = location(fileIndex, lineNumber);
+                    idClaims.put(book.getId(), location);
+                    if (hasIsbn) {
+                        isbnClaims.put(book.getIsbn(), location);
+                    }
+                    reassigned.computeIfAbsent(fileIndex, index -> new HashSet<>()).add(lineNumber);
+                }
+            }
+        }
+        return reassigned;
+    }
+
+    private static long location(int fileIndex, long lineNumber) {
+        return ((long) fileIndex << 40) | lineNumber;
+    }
+
+    private static int fileIndex(long location) {
+        return (int) (location >>> 40);
+    }
+}
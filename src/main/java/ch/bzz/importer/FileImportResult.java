@@ -0,0 +1,81 @@
+package ch.bzz.importer;
+
+import java.nio.file.Path;
+
+/**
+ * Outcome of importing one file: rows written, invalid and rejected lines, size and
+ * duration, or the error that rolled back the file's transaction.
+ */
+public class FileImportResult {
+
+    private final Path file;
+    private final long rows;
+    private final long invalidLines;
+    private final long duplicates;
+    private final long bytes;
+    private final long durationNanos;
+    private final String error;
+
+    /**
+     * Constructor for creating a FileImportResult object.
+     *
+     * @param file          the imported file
+     * @param rows          rows written (0 if the import failed)
+     * @param invalidLines  lines skipped because they could not be parsed
+     * @param duplicates    rows rejected because their ID or ISBN occurred before
+     * @param bytes         file size in bytes
+     * @param durationNanos time spent on the file
+     * @param error         error message, or null if the file was imported
+     */
+    public FileImportResult(Path file, long rows, long invalidLines, long duplicates, long bytes, long durationNanos,
+                            String error) {
+        this.file = file;
+        this.rows = rows;
+        this.invalidLines = invalidLines;
+        this.duplicates = duplicates;
+        this.bytes = bytes;
+        this.durationNanos = durationNanos;
+        this.error = error;
+    }
+
+    public boolean isSuccess() {
+        return error == null;
+    }
+
+    /**
+     * Returns the throughput for this file.
+     *
+     * @return rows written per second
+     */
+    public double getRowsPerSecond() {
+        return durationNanos > 0 ? rows / (durationNanos / 1e9) : 0;
+    }
+
+    public Path getFile() {
+        return file;
+    }
+
+    public long getRows() {
+        return rows;
+    }
+
+    public long getInvalidLines() {
+        return invalidLines;
+    }
+
+    public long getDuplicates() {
+        return duplicates;
+    }
+
+    public long getBytes() {
+        return bytes;
+    }
+
+    public long getDurationNanos() {
+        return durationNanos;
+    }
+
+    public String getError() {
+        return error;
+    }
+}
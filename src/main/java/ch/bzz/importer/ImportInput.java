@@ -0,0 +1,134 @@
+package ch.bzz.importer;
+
+import ch.bzz.util.CountingInputStream;
+import ch.bzz.util.PipelinedInputStream;
+import java.io.BufferedInputStream;
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipInputStream;
+
+/**
+ * Opens import files, compressed or not.
+ * The format is detected from the first bytes of the file, not from its name, so
+ * a gzip file without .gz suffix is read correctly. gzip (also concatenated members)
+ * and zip (first entry) are decompressed while reading; the decompression runs on
+ * its own thread ahead of the parser. Formats that need a library we do not ship
+ * (bzip2, xz, zstd) are rejected with a clear message.
+ */
+public final class ImportInput {
+
+    private static final int BUFFER_SIZE = 64 * 1024;
+    // Decompressed chunks the decompression thread may read ahead of the parser
+    private static final int QUEUED_CHUNKS = 16;
+
+    private static final byte[] GZIP_MAGIC = {0x1f, (byte) 0x8b};
+    private static final byte[] ZIP_MAGIC = {0x50, 0x4b, 0x03, 0x04};
+    private static final byte[] BZIP2_MAGIC = {0x42, 0x5a, 0x68};
+    private static final byte[] XZ_MAGIC = {(byte) 0xfd, 0x37, 0x7a, 0x58, 0x5a, 0x00};
+    private static final byte[] ZSTD_MAGIC = {0x28, (byte) 0xb5, 0x2f, (byte) 0xfd};
+
+    /**
+     * Compression formats recognized by their magic bytes.
+     */
+    public enum Compression { NONE, GZIP, ZIP, BZIP2, XZ, ZSTD }
+
+    private ImportInput() {}
+
+    /**
+     * Opens a UTF-8 encoded text file for reading.
+     *
+     * @param path      the file
+     * @param bytesRead counter for the bytes read from the file (compressed bytes), or null
+     * @return the reader
+     * @throws IOException if the file cannot be opened or its compression is not supported
+     */
+    public static BufferedReader openReader(Path path, AtomicLong bytesRead) throws IOException {
+        InputStream file = Files.newInputStream(path);
+        if (bytesRead != null) {
+            file = new CountingInputStream(file, bytesRead);
+        }
+        BufferedInputStream raw = new BufferedInputStream(file, BUFFER_SIZE);
+        try {
+            Compression compression = detect(raw);
+            InputStream content = switch (compression) {
+                case NONE -> raw;
+                case GZIP -> decompressAhead(new GZIPInputStream(raw, BUFFER_SIZE), path);
+                case ZIP -> decompressAhead(firstZipEntry(raw, path), path);
+                default -> throw new IOException(path + " is " + compression
+                        + " compressed, which is not supported; use gzip or decompress it first");
+            };
+            return new BufferedReader(new InputStreamReader(content, StandardCharsets.UTF_8), BUFFER_SIZE);
+        } catch (IOException | RuntimeException e) {
+            raw.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Detects the compression of a file.
+     *
+     * @param path the file
+     * @return the compression format, NONE for plain files
+     * @throws IOException if the file cannot be read
+     */
+    public static Compression detect(Path path) throws IOException {
+        try (BufferedInputStream in = new BufferedInputStream(Files.newInputStream(path), 16)) {
+            return detect(in);
+        }
+    }
+
+    private static Compression detect(BufferedInputStream in) throws IOException {
+        in.mark(8);
+        byte[] header = in.readNBytes(8);
+        in.reset();
+        if (startsWith(header, GZIP_MAGIC)) {
+            return Compression.GZIP;
+        } else if (startsWith(header, ZIP_MAGIC)) {
+            return Compression.ZIP;
+        } else if (startsWith(header, BZIP2_MAGIC)) {
+            return Compression.BZIP2;
+        } else if (startsWith(header, XZ_MAGIC)) {
+            return Compression.XZ;
+        } else if (startsWith(header, ZSTD_MAGIC)) {
+            return Compression.ZSTD;
+        }
+        return Compression.NONE;
+    }
+
+    private static boolean startsWith(byte[] header, byte[] magic) {
+        if (header.length < magic.length) {
+            return false;
+        }
+        for (int i = 0; i < magic.length; i++) {
+            if (header[i] != magic[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static InputStream firstZipEntry(InputStream raw, Path path) throws IOException {
+        ZipInputStream zip = new ZipInputStream(raw, StandardCharsets.UTF_8);
+        ZipEntry entry = zip.getNextEntry();
+        while (entry != null && entry.isDirectory()) {
+            entry = zip.getNextEntry();
+        }
+        if (entry == null) {
+            throw new IOException(path + " is an empty zip archive");
+        }
+        return zip;
+    }
+
+    private static InputStream decompressAhead(InputStream decompressed, Path path) {
+        return new PipelinedInputStream(decompressed, BUFFER_SIZE, QUEUED_CHUNKS,
+                "decompress-" + path.getFileName());
+    }
+}
@@ -0,0 +1,78 @@
+package ch.bzz.importer;
+
+import java.io.PrintStream;
+import java.util.List;
+
+/**
+ * Aggregated result of a multi-file import.
+ */
+public class ImportSummary {
+
+    private final List<FileImportResult> files;
+    private final long durationNanos;
+
+    /**
+     * Constructor for creating an ImportSummary object.
+     *
+     * @param files         per-file results in input order
+     * @param durationNanos wall-clock time of the whole import
+     */
+    public ImportSummary(List<FileImportResult> files, long durationNanos) {
+        this.files = files;
+        this.durationNanos = durationNanos;
+    }
+
+    public List<FileImportResult> getFiles() {
+        return files;
+    }
+
+    public long getTotalRows() {
+        return files.stream().mapToLong(FileImportResult::getRows).sum();
+    }
+
+    public long getTotalInvalidLines() {
+        return files.stream().mapToLong(FileImportResult::getInvalidLines).sum();
+    }
+
+    public long getTotalDuplicates() {
+        return files.stream().mapToLong(FileImportResult::getDuplicates).sum();
+    }
+
+    public long getFailedFiles() {
+        return files.stream().filter(file -> !file.isSuccess()).count();
+    }
+
+    public long getDurationNanos() {
+        return durationNanos;
+    }
+
+    /**
+     * Prints one line per file and the totals.
+     *
+     * @param out destination, e.g. System.out
+     */
+    public void print(PrintStream out) {
+        out.printf("%-40s %10s %8s %9s %10s %9s %10s  %s%n",
+                "file", "rows", "invalid", "rejected", "MB", "seconds", "rows/s", "status");
+        for (FileImportResult file : files) {
+            out.printf("%-40s %10d %8d %9d %10.1f %9.1f %10.0f  %s%n",
+                    file.getFile(),
+                    file.getRows(),
+                    file.getInvalidLines(),
+                    file.getDuplicates(),
+                    file.getBytes() / 1e6,
+                    file.getDurationNanos() / 1e9,
+                    file.getRowsPerSecond(),
+                    file.isSuccess() ? "ok" : "FAILED: " + file.getError());
+        }
+        double seconds = durationNanos / 1e9;
+        out.printf("Imported %d rows from %d of %d files in %.1fs (%.0f rows/s), %d invalid lines, %d duplicates rejected%n",
+                getTotalRows(),
+                files.size() - getFailedFiles(),
+                files.size(),
+                seconds,
+                seconds > 0 ? getTotalRows() / seconds : 0,
+                getTotalInvalidLines(),
+                getTotalDuplicates());
+    }
+}
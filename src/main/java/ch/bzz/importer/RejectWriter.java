@@ -0,0 +1,66 @@
+package ch.bzz.importer;
+
+import ch.bzz.model.Book;
+import ch.bzz.util.BookTsv;
+import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+/**
+ * Writes rejected rows of an import to a TSV file.
+ * The first five columns are the import format, followed by the source file,
+ * the line number and the reason, so the file can be corrected and imported again.
+ * The file is only created when the first row is rejected. Safe for concurrent use.
+ */
+public class RejectWriter implements Closeable {
+
+    private final Path path;
+    private BufferedWriter writer;
+    private long count;
+
+    /**
+     * Constructor for creating a RejectWriter object.
+     *
+     * @param path the reject file (an existing file is replaced when the first row is rejected)
+     */
+    public RejectWriter(Path path) {
+        this.path = path;
+    }
+
+    /**
+     * Appends a rejected row.
+     *
+     * @param file       source file of the row
+     * @param lineNumber line number in the source file
+     * @param book       the book read from the row
+     * @param reason     why the row was rejected
+     * @throws IOException if the reject file cannot be written
+     */
+    public synchronized void reject(Path file, long lineNumber, Book book, String reason) throws IOException {
+        if (writer == null) {
+            writer = Files.newBufferedWriter(path, StandardCharsets.UTF_8);
+            writer.write(BookTsv.HEADER + "\tsource\tline\treason\n");
+        }
+        BookTsv.writeLine(writer, book.getId(), book.getIsbn(), book.getTitle(), book.getAuthor(), book.getYear(),
+                file.toString(), Long.toString(lineNumber), reason);
+        count++;
+    }
+
+    public Path getPath() {
+        return path;
+    }
+
+    public synchronized long getCount() {
+        return count;
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        if (writer != null) {
+            writer.close();
+        }
+    }
+}
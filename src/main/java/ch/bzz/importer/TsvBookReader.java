@@ -0,0 +1,128 @@
+package ch.bzz.importer;
+
+import ch.bzz.model.Book;
+import ch.bzz.util.BookTsv;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import java.io.BufferedReader;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Path;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Reads books from a TSV file one line at a time, so files of any size can be
+ * streamed into the database. The header line and empty lines are skipped;
+ * invalid lines are logged, counted and skipped.
+ */
+public class TsvBookReader implements Iterator<Book>, Closeable {
+
+    private static final Logger log = LoggerFactory.getLogger(TsvBookReader.class);
+
+    private final BufferedReader reader;
+    private final String source;
+    private Book next;
+    private long lineNumber;
+    private long invalidLines;
+    private long rows;
+
+    /**
+     * Constructor for creating a TsvBookReader object.
+     *
+     * @param reader the TSV content (including the header line)
+     * @param source name of the source for log messages
+     */
+    public TsvBookReader(BufferedReader reader, String source) {
+        this.reader = reader;
+        this.source = source;
+    }
+
+    /**
+     * Opens a UTF-8 encoded TSV file, which may be compressed (see {@link ImportInput}).
+     *
+     * @param path the file
+     * @return the reader
+     * @throws IOException if the file cannot be opened
+     */
+    public static TsvBookReader open(Path path) throws IOException {
+        return open(path, null);
+    }
+
+    /**
+     * Opens a UTF-8 encoded TSV file, which may be compressed (see {@link ImportInput}).
+     *
+     * @param path      the file
+     * @param bytesRead counter for the bytes read from the file (compressed bytes), or null
+     * @return the reader
+     * @throws IOException if the file cannot be opened
+     */
+    public static TsvBookReader open(Path path, AtomicLong bytesRead) throws IOException {
+        return new TsvBookReader(ImportInput.openReader(path, bytesRead), path.toString());
+    }
+
+    @Override
+    public boolean hasNext() {
+        if (next == null) {
+            next = readNext();
+        }
+        return next != null;
+    }
+
+    @Override
+    public Book next() {
+        if (!hasNext()) {
+            throw new NoSuchElementException();
+        }
+        Book book = next;
+        next = null;
+        rows++;
+        return book;
+    }
+
+    private Book readNext() {
+        try {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                lineNumber++;
+                // Skip header line and empty lines
+                if (lineNumber == 1 || line.trim().isEmpty()) {
+                    continue;
+                }
+                try {
+                    return BookTsv.parseLine(line);
+                } catch (IllegalArgumentException e) {
+                    invalidLines++;
+                    log.warn("{}:{}: {}", source, lineNumber, e.getMessage());
+                }
+            }
+            return null;
+        } catch (IOException e) {
+            throw new UncheckedIOException("Error reading " + source + " at line " + lineNumber, e);
+        }
+    }
+
+    /**
+     * Returns the line number of the line read last (1 is the header).
+     *
+     * @return the line number
+     */
+    public long getLineNumber() {
+        return lineNumber;
+    }
+
+    public long getRows() {
+        return rows;
+    }
+
+    public long getInvalidLines() {
+        return invalidLines;
+    }
+
+    @Override
+    public void close() throws IOException {
+        reader.close();
+    }
+}
@@ -1,14 +1,40 @@
-package ch.bzz;
+package ch.bzz.model;
+
+import com.fasterxml.jackson.databind.annotation.JsonSerialize;
+import jakarta.persistence.*;
+import org.hibernate.annotations.Cache;
+import org.hibernate.annotations.CacheConcurrencyStrategy;
 
 /**
  * Represents a book in the library system.
  */
+@Entity
+@Table(name = "books")
+@Cacheable
+@Cache(usage = CacheConcurrencyStrategy.READ_WRITE)
+@JsonSerialize(using = BookSerializer.class)
 public class Book {
+    @Id
     private int id;
+    
+    @Column(nullable = false)
     private String isbn;
+    
+    @Column(nullable = false)
     private String title;
+    
+    @Column(nullable = false)
     private String author;
+    
+    @Column(name = "publication_year", nullable = false)
     private int year;
+    
+    // Assigned by the database on every write, used for delta sync
+    @Column(name = "change_version", insertable = false, updatable = false)
+    private Long changeVersion;
+
+    // Default constructor for JPA
+    public Book() {}
 
     /**
      * Constructor for creating a Book object.
@@ -48,6 +74,10 @@ public class Book {
         return year;
     }
 
+    public Long getChangeVersion() {
+        return changeVersion;
+    }
+
     // Setters
     public void setId(int id) {
         this.id = id;
@@ -69,6 +99,10 @@ public class Book {
         this.year = year;
     }
 
+    public void setChangeVersion(Long changeVersion) {
+        this.changeVersion = changeVersion;
+    }
+
     @Override
     public String toString() {
         return String.format("ID: %d | %s | %s by %s (%d)", id, isbn, title, author, year);
@@ -0,0 +1,90 @@
+package ch.bzz.model;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.SerializerProvider;
+import com.fasterxml.jackson.databind.ser.std.StdSerializer;
+import java.io.IOException;
+import java.util.List;
+
+/**
+ * Hand-written Jackson serializer for Book.
+ * Writes the same properties in the same order as Jackson's bean serializer, but
+ * without going through property accessors, so large book lists are cheaper to write.
+ * Works with every Jackson format (JSON, Smile, CBOR).
+ *
+ * The change version is only written where it is part of the API (GET /books/delta);
+ * all other responses keep the book shape without it.
+ */
+public class BookSerializer extends StdSerializer<Book> {
+
+    public BookSerializer() {
+        super(Book.class);
+    }
+
+    @Override
+    public void serialize(Book book, JsonGenerator generator, SerializerProvider provider) throws IOException {
+        write(book, false, generator);
+    }
+
+    /**
+     * Writes one book as an object.
+     *
+     * @param book              the book
+     * @param withChangeVersion true to include the changeVersion property
+     * @param generator         the generator to write to
+     * @throws IOException if writing fails
+     */
+    public static void write(Book book, boolean withChangeVersion, JsonGenerator generator) throws IOException {
+        generator.writeStartObject(book, withChangeVersion ? 6 : 5);
+        generator.writeNumberField("id", book.getId());
+        generator.writeStringField("isbn", book.getIsbn());
+        generator.writeStringField("title", book.getTitle());
+        generator.writeStringField("author", book.getAuthor());
+        generator.writeNumberField("year", book.getYear());
+        if (withChangeVersion) {
+            Long changeVersion = book.getChangeVersion();
+            if (changeVersion != null) {
+                generator.writeNumberField("changeVersion", changeVersion);
+            } else {
+                generator.writeNullField("changeVersion");
+            }
+        }
+        generator.writeEndObject();
+    }
+
+    /**
+     * Writes a list of books as an array (null as null).
+     *
+     * @param books     the books
+     * @param generator the generator to write to
+     * @throws IOException if writing fails
+     */
+    public static void writeList(List<Book> books, JsonGenerator generator) throws IOException {
+        writeList(books, false, generator);
+    }
+
+    /**
+     * Writes a list of books as an array (null as null).
+     *
+     * @param books             the books
+     * @param withChangeVersion true to include the changeVersion property of each book
+     * @param generator         the generator to write to
+     * @throws IOException if writing fails
+     */
+    public static void writeList(List<Book> books, boolean withChangeVersion, JsonGenerator generator)
+            throws IOException {
+        if (books == null) {
+            generator.writeNull();
+            return;
+        }
+        generator.writeStartArray(books, books.size());
+        for (Book book : books) {
+            if (book != null) {
+                write(book, withChangeVersion, generator);
+            } else {
+                generator.writeNull();
+            }
+        }
+        generator.writeEndArray();
+    }
+}
@@ -0,0 +1,55 @@
+package ch.bzz.persistence;
+
+import ch.bzz.model.Book;
+
+/**
+ * A committed change to a single book.
+ * Holds the row before and after the change; one of them is null for inserts and deletes.
+ */
+public class BookChange {
+
+    /**
+     * Kind of change.
+     */
+    public enum Type {
+        INSERT,
+        UPDATE,
+        DELETE
+    }
+
+    private final Book previous;
+    private final Book current;
+
+    /**
+     * Constructor for creating a BookChange object.
+     *
+     * @param previous the book before the change (null for inserts)
+     * @param current  the book after the change (null for deletes)
+     */
+    public BookChange(Book previous, Book current) {
+        if (previous == null && current == null) {
+            throw new IllegalArgumentException("A change needs a previous or a current book");
+        }
+        this.previous = previous;
+        this.current = current;
+    }
+
+    public Type getType() {
+        if (previous == null) {
+            return Type.INSERT;
+        }
+        return current == null ? Type.DELETE : Type.UPDATE;
+    }
+
+    public int getBookId() {
+        return current != null ? current.getId() : previous.getId();
+    }
+
+    public Book getPrevious() {
+        return previous;
+    }
+
+    public Book getCurrent() {
+        return current;
+    }
+}
@@ -0,0 +1,19 @@
+package ch.bzz.persistence;
+
+import java.util.List;
+
+/**
+ * Receives book changes after they have been committed by BookPersistor.
+ * Listeners are called on the writing thread and should return quickly.
+ */
+public interface BookChangeListener {
+
+    /**
+     * Called once per committed write with all rows that actually changed.
+     *
+     * @param changes the committed changes in write order
+     * @param version the commit version of the write; writes commit in version order,
+     *                and every change_version it stamped is at most this version
+     */
+    void onBooksChanged(List<BookChange> changes, long version);
+}
@@ -0,0 +1,39 @@
+package ch.bzz.persistence;
+
+import java.util.Map;
+
+/**
+ * Books per publication year and per author, counted in one snapshot of the catalog.
+ * The change version tells which committed writes the counts include.
+ */
+public class BookCounts {
+
+    private final long version;
+    private final Map<Integer, Long> years;
+    private final Map<String, Long> authors;
+
+    /**
+     * Constructor for creating a BookCounts object.
+     *
+     * @param version change version of the snapshot (see BookPersistor.currentVersion)
+     * @param years   map from publication year to number of books
+     * @param authors map from author to number of books
+     */
+    public BookCounts(long version, Map<Integer, Long> years, Map<String, Long> authors) {
+        this.version = version;
+        this.years = years;
+        this.authors = authors;
+    }
+
+    public long getVersion() {
+        return version;
+    }
+
+    public Map<Integer, Long> getYears() {
+        return years;
+    }
+
+    public Map<String, Long> getAuthors() {
+        return authors;
+    }
+}
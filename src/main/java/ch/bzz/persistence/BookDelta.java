@@ -0,0 +1,93 @@
+package ch.bzz.persistence;
+
+import ch.bzz.model.Book;
+import ch.bzz.model.BookSerializer;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.SerializerProvider;
+import com.fasterxml.jackson.databind.annotation.JsonSerialize;
+import com.fasterxml.jackson.databind.ser.std.StdSerializer;
+import java.io.IOException;
+import java.util.List;
+
+/**
+ * One page of catalog changes after a change version.
+ * Contains the books inserted or updated and the IDs of books deleted since then.
+ * A client stores nextSince and passes it to the next request; while hasMore is
+ * true there are further changes to fetch.
+ */
+@JsonSerialize(using = BookDelta.Serializer.class)
+public class BookDelta {
+
+    private final List<Book> changed;
+    private final List<Integer> deleted;
+    private final List<Long> deletedVersions;
+    private final long nextSince;
+    private final boolean hasMore;
+
+    /**
+     * Constructor for creating a BookDelta object.
+     *
+     * @param changed         books changed after the requested version, ordered by version
+     * @param deleted         IDs of books deleted after the requested version, ordered by version
+     * @param deletedVersions change versions of the deletions, in the order of deleted
+     * @param nextSince       highest version contained in this page (or the requested version if empty)
+     * @param hasMore         true if there are changes after nextSince
+     */
+    public BookDelta(List<Book> changed, List<Integer> deleted, List<Long> deletedVersions, long nextSince,
+                     boolean hasMore) {
+        this.changed = changed;
+        this.deleted = deleted;
+        this.deletedVersions = deletedVersions;
+        this.nextSince = nextSince;
+        this.hasMore = hasMore;
+    }
+
+    public List<Book> getChanged() {
+        return changed;
+    }
+
+    public List<Integer> getDeleted() {
+        return deleted;
+    }
+
+    /**
+     * Returns the change versions of the deletions, e.g. to merge them with the changed
+     * books in version order. Not part of the GET /books/delta response.
+     *
+     * @return one version per entry of getDeleted()
+     */
+    public List<Long> getDeletedVersions() {
+        return deletedVersions;
+    }
+
+    public long getNextSince() {
+        return nextSince;
+    }
+
+    public boolean isHasMore() {
+        return hasMore;
+    }
+
+    /**
+     * Writes the delta with the change version of every changed book, which is
+     * omitted from all other book responses.
+     */
+    public static class Serializer extends StdSerializer<BookDelta> {
+        public Serializer() {
+            super(BookDelta.class);
+        }
+
+        @Override
+        public void serialize(BookDelta delta, JsonGenerator generator, SerializerProvider provider)
+                throws IOException {
+            generator.writeStartObject(delta, 4);
+            generator.writeFieldName("changed");
+            BookSerializer.writeList(delta.changed, true, generator);
+            generator.writeFieldName("deleted");
+            provider.defaultSerializeValue(delta.deleted, generator);
+            generator.writeNumberField("nextSince", delta.nextSince);
+            generator.writeBooleanField("hasMore", delta.hasMore);
+            generator.writeEndObject();
+        }
+    }
+}
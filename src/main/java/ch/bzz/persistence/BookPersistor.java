@@ -0,0 +1,1099 @@
+package ch.bzz.persistence;
+
+import ch.bzz.catalog.CompactCatalog;
+import ch.bzz.model.Book;
+import ch.bzz.util.BookTsv;
+import jakarta.persistence.EntityManager;
+import jakarta.persistence.EntityManagerFactory;
+import jakarta.persistence.PersistenceException;
+import jakarta.persistence.TypedQuery;
+import org.hibernate.SessionFactory;
+import org.hibernate.engine.jdbc.spi.JdbcCoordinator;
+import org.hibernate.engine.spi.SharedSessionContractImplementor;
+import org.hibernate.jdbc.ReturningWork;
+import org.postgresql.PGConnection;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.sql.Array;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Data access object for Book entity operations.
+ * Reads go through JPA on the localPU unit (second-level and query cache),
+ * imports and API writes use batched native upserts on the same connection pool.
+ */
+public class BookPersistor {
+
+    private static final Logger log = LoggerFactory.getLogger(BookPersistor.class);
+
+    private static final String CACHEABLE_HINT = "org.hibernate.cacheable";
+    private static final String QUERY_TIMEOUT_HINT = "jakarta.persistence.query.timeout";
+    private static final int ID_CHUNK_SIZE = 1000;
+    private static final String VERSION_SEQUENCE = "books_change_version_seq";
+    private static final long WRITE_LOCK_KEY = 0x626f6f6b73L;
+
+    private static BookPersistor instance;
+    private final DatabaseConfig databaseConfig;
+    private final CircuitBreaker circuitBreaker;
+    private final DataSourceRouter router;
+    private final Transactions transactions;
+    private final EntityManagerFactory entityManagerFactory;
+    private final int batchSize;
+    private final int fetchSize;
+    private final List<BookChangeListener> changeListeners = new CopyOnWriteArrayList<>();
+    private final ReentrantLock writeLock = new ReentrantLock();
+    // Concurrent identical queries share one database call; callers get their own list
+    private final SingleFlight<BookQuery, List<Book>> findBooksFlight = new SingleFlight<>("findBooks", ArrayList::new);
+
+    private BookPersistor(Transactions transactions) {
+        databaseConfig = DatabaseConfig.getInstance();
+        circuitBreaker = databaseConfig.getCircuitBreaker();
+        router = DataSourceRouter.getInstance();
+        this.transactions = transactions;
+        entityManagerFactory = transactions.getEntityManagerFactory();
+        batchSize = intProperty("hibernate.jdbc.batch_size", 50);
+        fetchSize = intProperty("hibernate.jdbc.fetch_size", 500);
+    }
+
+    /**
+     * Gets the singleton instance of BookPersistor.
+     *
+     * @return BookPersistor instance
+     */
+    public static synchronized BookPersistor getInstance() {
+        if (instance == null) {
+            instance = new BookPersistor(Transactions.getInstance());
+        }
+        return instance;
+    }
+
+    private int intProperty(String key, int defaultValue) {
+        Object value = entityManagerFactory.getProperties().get(key);
+        return value != null ? Integer.parseInt(value.toString()) : defaultValue;
+    }
+
+    /**
+     * Loads books ordered by ID with an optional limit.
+     *
+     * @param limit maximum number of books to load (-1 for no limit)
+     * @return list of books
+     * @throws SQLException if database access fails
+     */
+    public List<Book> findAll(int limit) throws SQLException {
+        return findBooks(BookQuery.all(limit));
+    }
+
+    /**
+     * Loads the page of books following a book ID (keyset pagination).
+     * The query seeks into the primary key index, so every page costs the same
+     * regardless of how far the caller has paged.
+     *
+     * @param afterId  ID of the last book of the previous page (0 for the first page)
+     * @param pageSize number of books per page
+     * @return up to pageSize books ordered by ID
+     * @throws SQLException if database access fails
+     */
+    public List<Book> findPageAfter(int afterId, int pageSize) throws SQLException {
+        return findPage("SELECT id, isbn, title, author, publication_year FROM books "
+                + "WHERE id > ? ORDER BY id LIMIT ?", afterId, pageSize, false);
+    }
+
+    /**
+     * Loads the page of books preceding a book ID (keyset pagination).
+     *
+     * @param beforeId ID of the first book of the current page
+     * @param pageSize number of books per page
+     * @return up to pageSize books ordered by ID
+     * @throws SQLException if database access fails
+     */
+    public List<Book> findPageBefore(int beforeId, int pageSize) throws SQLException {
+        return findPage("SELECT id, isbn, title, author, publication_year FROM books "
+                + "WHERE id < ? ORDER BY id DESC LIMIT ?", beforeId, pageSize, true);
+    }
+
+    private List<Book> findPage(String sql, int key, int pageSize, boolean reverse) throws SQLException {
+        List<Book> books = inReadTransaction(connection -> {
+            List<Book> page = new ArrayList<>(pageSize);
+            try (PreparedStatement statement = connection.prepareStatement(sql)) {
+                Deadline.apply(statement);
+                statement.setInt(1, key);
+                statement.setInt(2, pageSize);
+                statement.setFetchSize(Math.min(pageSize, fetchSize));
+                try (ResultSet resultSet = statement.executeQuery()) {
+                    while (resultSet.next()) {
+                        page.add(readBook(resultSet));
+                    }
+                }
+            }
+            return page;
+        });
+        if (reverse) {
+            Collections.reverse(books);
+        }
+        return books;
+    }
+
+    /**
+     * Counts all books with COUNT(*).
+     *
+     * @return number of books
+     * @throws SQLException if database access fails
+     */
+    public long countBooks() throws SQLException {
+        return inReadTransaction(connection -> {
+            try (PreparedStatement statement = connection.prepareStatement("SELECT COUNT(*) FROM books")) {
+                Deadline.apply(statement);
+                try (ResultSet resultSet = statement.executeQuery()) {
+                    resultSet.next();
+                    return resultSet.getLong(1);
+                }
+            }
+        });
+    }
+
+    /**
+     * Returns the row estimate PostgreSQL keeps from VACUUM/ANALYZE, which is read
+     * without scanning the table. On H2, or before the table has been analyzed,
+     * there is no estimate.
+     *
+     * @return estimated number of books or -1 if no estimate is available
+     * @throws SQLException if database access fails
+     */
+    public long estimateCount() throws SQLException {
+        if (databaseConfig.isH2()) {
+            return -1;
+        }
+        return inReadTransaction(connection -> {
+            try (PreparedStatement statement = connection.prepareStatement(
+                    "SELECT reltuples::bigint FROM pg_class WHERE oid = 'books'::regclass");
+                 ResultSet resultSet = statement.executeQuery()) {
+                return resultSet.next() ? Math.max(-1, resultSet.getLong(1)) : -1;
+            }
+        });
+    }
+
+    /**
+     * Returns the highest change version of the catalog, including deletions.
+     * Both lookups use the change_version indexes.
+     *
+     * @return the current change version (0 for an empty catalog)
+     * @throws SQLException if database access fails
+     */
+    public long currentVersion() throws SQLException {
+        return inTransaction(this::selectCurrentVersion);
+    }
+
+    private long selectCurrentVersion(Connection connection) throws SQLException {
+        try (PreparedStatement statement = connection.prepareStatement(
+                "SELECT GREATEST((SELECT COALESCE(MAX(change_version), 0) FROM books), "
+                        + "(SELECT COALESCE(MAX(change_version), 0) FROM books_deleted))");
+             ResultSet resultSet = statement.executeQuery()) {
+            resultSet.next();
+            return resultSet.getLong(1);
+        }
+    }
+
+    /**
+     * Loads books matching the query. Filters, order and limit are pushed down
+     * to the database as parameterized JPQL; results are served from the query
+     * cache when possible, otherwise from a read replica if one is configured.
+     * Concurrent calls with the same query share one database call.
+     *
+     * @param bookQuery filter, sort and limit criteria
+     * @return list of matching books
+     * @throws SQLException if database access fails
+     */
+    public List<Book> findBooks(BookQuery bookQuery) throws SQLException {
+        StringBuilder jpql = new StringBuilder("SELECT b FROM Book b");
+        List<String> conditions = new ArrayList<>();
+        if (bookQuery.getAuthor() != null) {
+            conditions.add("b.author = :author");
+        }
+        if (bookQuery.getYearFrom() != null) {
+            conditions.add("b.year >= :yearFrom");
+        }
+        if (bookQuery.getYearTo() != null) {
+            conditions.add("b.year <= :yearTo");
+        }
+        if (!conditions.isEmpty()) {
+            jpql.append(" WHERE ").append(String.join(" AND ", conditions));
+        }
+
+        // Sort fields come from the BookQuery.Sort whitelist, never from user input
+        String direction = bookQuery.isDescending() ? " DESC" : " ASC";
+        jpql.append(" ORDER BY b.").append(bookQuery.getSort().getProperty()).append(direction);
+        if (bookQuery.getSort() != BookQuery.Sort.ID) {
+            jpql.append(", b.id").append(direction);
+        }
+
+        return findBooksFlight.call(bookQuery.copy(), () -> router.read(null, () -> {
+            Deadline.check();
+            EntityManager entityManager = entityManagerFactory.createEntityManager();
+            // Hibernate creates the statement, so the deadline cancels it through the session
+            JdbcCoordinator jdbcCoordinator = entityManager.unwrap(SharedSessionContractImplementor.class)
+                    .getJdbcCoordinator();
+            try (Deadline.Registration ignored = Deadline.onCancel(jdbcCoordinator::cancelLastQuery)) {
+                TypedQuery<Book> query = entityManager
+                        .createQuery(jpql.toString(), Book.class)
+                        .setHint(CACHEABLE_HINT, true);
+                Deadline deadline = Deadline.current();
+                if (deadline != null) {
+                    query.setHint(QUERY_TIMEOUT_HINT, (int) Math.max(1, deadline.remainingMillis()));
+                }
+                if (bookQuery.getAuthor() != null) {
+                    query.setParameter("author", bookQuery.getAuthor());
+                }
+                if (bookQuery.getYearFrom() != null) {
+                    query.setParameter("yearFrom", bookQuery.getYearFrom());
+                }
+                if (bookQuery.getYearTo() != null) {
+                    query.setParameter("yearTo", bookQuery.getYearTo());
+                }
+                if (bookQuery.getLimit() > 0) {
+                    query.setMaxResults(bookQuery.getLimit());
+                }
+                return query.getResultList();
+            } catch (PersistenceException e) {
+                throw Transactions.toSqlException(e);
+            } finally {
+                entityManager.close();
+            }
+        }));
+    }
+
+    /**
+     * Returns the coalescing counters of findBooks for monitoring.
+     *
+     * @return the statistics
+     */
+    public SingleFlight.Stats getFindBooksStats() {
+        return findBooksFlight.getStats();
+    }
+
+    /**
+     * Looks up books by IDs and/or ISBNs with a single set-based query
+     * (id = ANY(?) OR isbn = ANY(?), supported by PostgreSQL and H2).
+     *
+     * @param ids   the IDs to look up (may be empty)
+     * @param isbns the ISBNs to look up (may be empty)
+     * @return all matching books, in no particular order
+     * @throws SQLException if database access fails
+     */
+    public List<Book> findByIdsOrIsbns(List<Integer> ids, List<String> isbns) throws SQLException {
+        if (ids.isEmpty() && isbns.isEmpty()) {
+            return List.of();
+        }
+        List<String> conditions = new ArrayList<>();
+        if (!ids.isEmpty()) {
+            conditions.add("id = ANY(?)");
+        }
+        if (!isbns.isEmpty()) {
+            conditions.add("isbn = ANY(?)");
+        }
+        String sql = "SELECT id, isbn, title, author, publication_year FROM books WHERE "
+                + String.join(" OR ", conditions);
+
+        return inReadTransaction(connection -> {
+            List<Book> books = new ArrayList<>();
+            List<Array> arrays = new ArrayList<>();
+            try (PreparedStatement statement = connection.prepareStatement(sql)) {
+                Deadline.apply(statement);
+                int index = 1;
+                if (!ids.isEmpty()) {
+                    arrays.add(connection.createArrayOf("INTEGER", ids.toArray()));
+                    statement.setArray(index++, arrays.get(arrays.size() - 1));
+                }
+                if (!isbns.isEmpty()) {
+                    arrays.add(connection.createArrayOf("VARCHAR", isbns.toArray()));
+                    statement.setArray(index, arrays.get(arrays.size() - 1));
+                }
+                try (ResultSet resultSet = statement.executeQuery()) {
+                    while (resultSet.next()) {
+                        books.add(readBook(resultSet));
+                    }
+                }
+            } finally {
+                for (Array array : arrays) {
+                    array.free();
+                }
+            }
+            return books;
+        });
+    }
+
+    /**
+     * Loads the whole books table into a compact read-only catalog.
+     * Rows are streamed with the configured fetch size directly into the column
+     * arrays, without creating Book entities or filling the persistence context.
+     *
+     * @return the catalog ordered by ID
+     * @throws SQLException if database access fails
+     */
+    public CompactCatalog loadCatalog() throws SQLException {
+        String sql = "SELECT id, isbn, title, author, publication_year FROM books ORDER BY id";
+
+        // A transaction disables autocommit, which PostgreSQL needs for cursor-based fetching
+        return inTransaction(connection -> {
+            try (PreparedStatement statement = connection.prepareStatement(sql)) {
+                statement.setFetchSize(fetchSize);
+                try (ResultSet resultSet = statement.executeQuery()) {
+                    CompactCatalog.Builder builder = CompactCatalog.builder(1024);
+                    while (resultSet.next()) {
+                        builder.add(
+                                resultSet.getInt(1),
+                                resultSet.getString(2),
+                                resultSet.getString(3),
+                                resultSet.getString(4),
+                                resultSet.getInt(5));
+                    }
+                    return builder.build();
+                }
+            }
+        });
+    }
+
+    /**
+     * Streams all books ordered by ID as TSV (the format of data/books.tsv) to the output.
+     * On PostgreSQL the rows are produced by COPY TO STDOUT and copied to the output as
+     * they arrive, without creating objects per row; on H2 a forward-only result set is
+     * read with the configured fetch size. Memory use does not depend on the catalog size.
+     * The output is flushed but not closed.
+     *
+     * @param out destination of the UTF-8 encoded TSV
+     * @return number of exported books
+     * @throws SQLException if database access fails
+     * @throws IOException  if writing to the output fails
+     */
+    public long exportTsv(OutputStream out) throws SQLException, IOException {
+        out.write((BookTsv.HEADER + "\n").getBytes(StandardCharsets.UTF_8));
+        try {
+            // A transaction disables autocommit, which PostgreSQL needs for cursor-based fetching
+            return inReadTransaction(connection -> {
+                try {
+                    return databaseConfig.isH2() ? exportRows(connection, out) : copyOut(connection, out);
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            });
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        } finally {
+            out.flush();
+        }
+    }
+
+    private long copyOut(Connection connection, OutputStream out) throws SQLException, IOException {
+        // Text mode would double backslashes, so CSV mode is used with the values cleaned like
+        // BookTsv.writeLine does: NULL becomes empty and control characters become spaces. After
+        // that no value contains the delimiter, a line break, the quote (\x01) or equals the NULL
+        // string (\x02), so COPY quotes nothing and writes the same bytes as the H2 export.
+        String sql = "COPY (SELECT id, " + tsvValue("isbn") + ", " + tsvValue("title") + ", "
+                + tsvValue("author") + ", publication_year FROM books ORDER BY id) "
+                + "TO STDOUT WITH (FORMAT csv, DELIMITER E'\\t', QUOTE E'\\x01', NULL E'\\x02', ENCODING 'UTF8')";
+        return connection.unwrap(PGConnection.class).getCopyAPI().copyOut(sql, out);
+    }
+
+    private static String tsvValue(String column) {
+        return "regexp_replace(coalesce(" + column + ", ''), E'[\\x01-\\x1f]', ' ', 'g')";
+    }
+
+    private long exportRows(Connection connection, OutputStream out) throws SQLException, IOException {
+        String sql = "SELECT id, isbn, title, author, publication_year FROM books ORDER BY id";
+        Writer writer = new BufferedWriter(new OutputStreamWriter(out, StandardCharsets.UTF_8), 64 * 1024);
+        long count = 0;
+        try (PreparedStatement statement = connection.prepareStatement(sql)) {
+            statement.setFetchSize(fetchSize);
+            try (ResultSet resultSet = statement.executeQuery()) {
+                while (resultSet.next()) {
+                    BookTsv.writeLine(writer,
+                            resultSet.getInt(1),
+                            resultSet.getString(2),
+                            resultSet.getString(3),
+                            resultSet.getString(4),
+                            resultSet.getInt(5));
+                    count++;
+                }
+            }
+        }
+        writer.flush();
+        return count;
+    }
+
+    /**
+     * Saves a list of books to the database.
+     * Books with the same ID will be updated (upsert operation).
+     * Rows are sent in JDBC batches of hibernate.jdbc.batch_size within one transaction.
+     *
+     * @param books list of books to save
+     * @throws SQLException if database operation fails
+     */
+    public void saveAll(List<Book> books) throws SQLException {
+        writeAll(books, List.of());
+    }
+
+    /**
+     * Upserts and deletes books in one transaction.
+     * Upserts use the same batched statement as saveAll; deletes are sent as one
+     * set-based statement per chunk of IDs. An ID should not appear in both lists.
+     * Every written row and every deletion gets a new change version (see findDelta).
+     *
+     * @param books     books to insert or update
+     * @param deleteIds IDs of books to delete (unknown IDs are ignored)
+     * @throws SQLException if database operation fails
+     */
+    public void writeAll(List<Book> books, List<Integer> deleteIds) throws SQLException {
+        if (books.isEmpty() && deleteIds.isEmpty()) {
+            return;
+        }
+        boolean trackChanges = !changeListeners.isEmpty();
+
+        Map<Integer, Book> previousRows;
+        AtomicLong version = new AtomicLong();
+        try {
+            previousRows = inTransaction(connection -> {
+                long marker = -selectNextVersion(connection);
+
+                // Previous versions are only needed (and only read) when someone listens for changes
+                Map<Integer, Book> previous = Map.of();
+                if (trackChanges) {
+                    List<Integer> ids = new ArrayList<>(deleteIds);
+                    books.forEach(book -> ids.add(book.getId()));
+                    previous = loadRowsById(connection, ids.stream().distinct().toList(), true);
+                }
+                if (!books.isEmpty()) {
+                    upsertRows(connection, sortedById(books), marker);
+                }
+                if (!deleteIds.isEmpty()) {
+                    deleteRows(connection, deleteIds, marker);
+                }
+                version.set(stampVersions(connection, marker));
+                return previous;
+            });
+        } finally {
+            releaseWriteLock();
+        }
+
+        // Native statements bypass Hibernate, so cached books and query results are now stale
+        evictCaches();
+        log.debug("Upserted {} and deleted {} books in batches of {}", books.size(), deleteIds.size(), batchSize);
+
+        if (trackChanges) {
+            List<BookChange> changes = upsertChanges(books, previousRows);
+            for (Integer id : deleteIds) {
+                Book previous = previousRows.get(id);
+                if (previous != null) {
+                    changes.add(new BookChange(previous, null));
+                }
+            }
+            notifyListeners(changes, version.get());
+        }
+    }
+
+    /**
+     * Upserts books read from a stream in one transaction, without holding them in memory.
+     * Rows are sent in JDBC batches as they are read.
+     *
+     * Like writeAll, only the final version stamping and the commit are serialized with
+     * other writers, so several streams (e.g. the files of a parallel import) can run their
+     * upserts concurrently.
+     *
+     * @param books books to insert or update; an exception thrown by the iterator rolls back
+     * @return number of rows read from the stream
+     * @throws SQLException if database operation fails
+     */
+    public long saveStream(Iterator<Book> books) throws SQLException {
+        return saveStream(books, false);
+    }
+
+    /**
+     * Upserts books read from a stream in one transaction, like {@link #saveStream(Iterator)}.
+     * Every batch is written in ID order, so concurrent writers lock the rows of a batch in
+     * the same order. Across the batches of a stream the order cannot be kept; streams whose
+     * IDs may overlap with other concurrent streams therefore take the write lock before
+     * the first upsert, which runs them one after the other instead of into a deadlock.
+     *
+     * @param books     books to insert or update; an exception thrown by the iterator rolls back
+     * @param exclusive true to hold the write lock for the whole transaction
+     * @return number of rows read from the stream
+     * @throws SQLException if database operation fails
+     */
+    public long saveStream(Iterator<Book> books, boolean exclusive) throws SQLException {
+        List<BookChange> changes = changeListeners.isEmpty() ? null : new ArrayList<>();
+        AtomicLong version = new AtomicLong();
+        long count;
+        try {
+            count = inTransaction(connection -> {
+                if (exclusive) {
+                    lockWriters(connection);
+                }
+                long marker = -selectNextVersion(connection);
+                long written = upsertStream(connection, books, marker, changes);
+                version.set(stampVersions(connection, marker));
+                return written;
+            });
+        } finally {
+            releaseWriteLock();
+        }
+
+        evictCaches();
+        log.debug("Upserted {} books from a stream in batches of {}", count, batchSize);
+        if (changes != null) {
+            notifyListeners(changes, version.get());
+        }
+        return count;
+    }
+
+    private long upsertStream(Connection connection, Iterator<Book> books, long marker, List<BookChange> changes)
+            throws SQLException {
+        long count = 0;
+        List<Book> batch = new ArrayList<>(batchSize);
+        try (PreparedStatement statement = connection.prepareStatement(upsertSql("?"))) {
+            while (books.hasNext()) {
+                batch.add(books.next());
+                if (batch.size() < batchSize && books.hasNext()) {
+                    continue;
+                }
+                if (changes != null) {
+                    List<Integer> ids = batch.stream().map(Book::getId).distinct().toList();
+                    changes.addAll(upsertChanges(batch, loadRowsById(connection, ids, true)));
+                }
+                for (Book book : sortedById(batch)) {
+                    statement.setInt(1, book.getId());
+                    statement.setString(2, book.getIsbn());
+                    statement.setString(3, book.getTitle());
+                    statement.setString(4, book.getAuthor());
+                    statement.setInt(5, book.getYear());
+                    statement.setLong(6, marker);
+                    statement.addBatch();
+                }
+                statement.executeBatch();
+                count += batch.size();
+                batch.clear();
+            }
+        }
+        return count;
+    }
+
+    private long selectNextVersion(Connection connection) throws SQLException {
+        String sql = databaseConfig.isH2()
+                ? "SELECT NEXT VALUE FOR " + VERSION_SEQUENCE
+                : "SELECT nextval('" + VERSION_SEQUENCE + "')";
+        try (PreparedStatement statement = connection.prepareStatement(sql);
+             ResultSet resultSet = statement.executeQuery()) {
+            resultSet.next();
+            return resultSet.getLong(1);
+        }
+    }
+
+    private void upsertRows(Connection connection, List<Book> books, long marker) throws SQLException {
+        try (PreparedStatement statement = connection.prepareStatement(upsertSql("?"))) {
+            int pending = 0;
+            for (Book book : books) {
+                statement.setInt(1, book.getId());
+                statement.setString(2, book.getIsbn());
+                statement.setString(3, book.getTitle());
+                statement.setString(4, book.getAuthor());
+                statement.setInt(5, book.getYear());
+                statement.setLong(6, marker);
+                statement.addBatch();
+                if (++pending == batchSize) {
+                    statement.executeBatch();
+                    pending = 0;
+                }
+            }
+            if (pending > 0) {
+                statement.executeBatch();
+            }
+        }
+    }
+
+    private void deleteRows(Connection connection, List<Integer> ids, long marker) throws SQLException {
+        // Tombstones let delta clients remove the books too; they are stamped like the rows
+        String tombstoneSql = databaseConfig.isH2()
+                ? "MERGE INTO books_deleted (id, change_version) KEY (id) "
+                        + "SELECT id, CAST(? AS BIGINT) FROM books WHERE id = ANY(?)"
+                : "INSERT INTO books_deleted (id, change_version) "
+                        + "SELECT id, CAST(? AS BIGINT) FROM books WHERE id = ANY(?) "
+                        + "ON CONFLICT (id) DO UPDATE SET change_version = EXCLUDED.change_version";
+        try (PreparedStatement tombstones = connection.prepareStatement(tombstoneSql);
+             PreparedStatement delete = connection.prepareStatement("DELETE FROM books WHERE id = ANY(?)")) {
+            for (int from = 0; from < ids.size(); from += ID_CHUNK_SIZE) {
+                List<Integer> chunk = ids.subList(from, Math.min(ids.size(), from + ID_CHUNK_SIZE));
+                Array array = connection.createArrayOf("INTEGER", chunk.toArray());
+                try {
+                    tombstones.setLong(1, marker);
+                    tombstones.setArray(2, array);
+                    tombstones.executeUpdate();
+                    delete.setArray(1, array);
+                    delete.executeUpdate();
+                } finally {
+                    array.free();
+                }
+            }
+        }
+    }
+
+    /**
+     * Replaces the marker of the rows and tombstones written by this transaction with
+     * real change versions. Writers run their upserts and deletes concurrently, but
+     * stamping and commit are serialized: the write lock is taken here and released
+     * after the commit (see releaseWriteLock), and on PostgreSQL an advisory lock also
+     * serializes other processes such as a CLI import. Versions therefore become visible
+     * in commit order, and a delta reader cannot see version n+1 before n has committed.
+     *
+     * @param connection the connection of the running transaction
+     * @param marker     the negative marker used for the rows of this transaction
+     * @return the highest version drawn by this transaction, its commit version
+     * @throws SQLException if database access fails
+     */
+    private long stampVersions(Connection connection, long marker) throws SQLException {
+        lockWriters(connection);
+
+        String[] statements = {
+            // A book that is written again is no longer deleted
+            "DELETE FROM books_deleted WHERE id IN (SELECT id FROM books WHERE change_version = ?)",
+            "UPDATE books SET change_version = " + nextVersionSql() + " WHERE change_version = ?",
+            "UPDATE books_deleted SET change_version = " + nextVersionSql() + " WHERE change_version = ?"
+        };
+        for (String sql : statements) {
+            try (PreparedStatement statement = connection.prepareStatement(sql)) {
+                statement.setLong(1, marker);
+                statement.executeUpdate();
+            }
+        }
+
+        // The last value this session drew from the sequence
+        String sql = databaseConfig.isH2()
+                ? "SELECT CURRENT VALUE FOR " + VERSION_SEQUENCE
+                : "SELECT currval('" + VERSION_SEQUENCE + "')";
+        try (PreparedStatement statement = connection.prepareStatement(sql);
+             ResultSet resultSet = statement.executeQuery()) {
+            resultSet.next();
+            return resultSet.getLong(1);
+        }
+    }
+
+    /**
+     * Takes the write lock of this process and, on PostgreSQL, the advisory lock shared with
+     * other processes. Both are held until the transaction has ended (see releaseWriteLock);
+     * taking them again in the same transaction has no effect.
+     *
+     * @param connection the connection of the running transaction
+     * @throws SQLException if database access fails
+     */
+    private void lockWriters(Connection connection) throws SQLException {
+        if (writeLock.isHeldByCurrentThread()) {
+            return;
+        }
+        writeLock.lock();
+        if (!databaseConfig.isH2()) {
+            try (PreparedStatement statement = connection.prepareStatement("SELECT pg_advisory_xact_lock(?)")) {
+                statement.setLong(1, WRITE_LOCK_KEY);
+                statement.execute();
+            }
+        }
+    }
+
+    /**
+     * Returns the books in ID order, so writers lock the rows of a batch in the same order.
+     * The sort is stable: repeated IDs keep their write order.
+     *
+     * @param books the books to write
+     * @return a sorted copy
+     */
+    private static List<Book> sortedById(List<Book> books) {
+        List<Book> sorted = new ArrayList<>(books);
+        sorted.sort(Comparator.comparingInt(Book::getId));
+        return sorted;
+    }
+
+    /**
+     * Releases the write lock taken by stampVersions once the transaction has ended.
+     */
+    private void releaseWriteLock() {
+        if (writeLock.isHeldByCurrentThread()) {
+            writeLock.unlock();
+        }
+    }
+
+    /**
+     * Loads the changes after a change version, for clients that keep a local copy
+     * of the catalog. Changed rows and deletion tombstones are read with index range
+     * scans on change_version and merged in version order, so the cost depends on the
+     * number of changes rather than on the size of the catalog.
+     * Starting with since = 0 pages through the whole catalog.
+     *
+     * @param since the last version the client has seen
+     * @param limit maximum number of changes (changed plus deleted) to return
+     * @return the changes and the version to continue from
+     * @throws SQLException if database access fails
+     */
+    public BookDelta findDelta(long since, int limit) throws SQLException {
+        return inReadTransaction(connection -> {
+            List<Book> changed = new ArrayList<>();
+            try (PreparedStatement statement = connection.prepareStatement(
+                    "SELECT id, isbn, title, author, publication_year, change_version FROM books " +
+                    "WHERE change_version > ? ORDER BY change_version LIMIT ?")) {
+                Deadline.apply(statement);
+                statement.setLong(1, since);
+                statement.setInt(2, limit + 1);
+                statement.setFetchSize(Math.min(limit + 1, fetchSize));
+                try (ResultSet resultSet = statement.executeQuery()) {
+                    while (resultSet.next()) {
+                        Book book = readBook(resultSet);
+                        book.setChangeVersion(resultSet.getLong(6));
+                        changed.add(book);
+                    }
+                }
+            }
+
+            List<long[]> deleted = new ArrayList<>();
+            try (PreparedStatement statement = connection.prepareStatement(
+                    "SELECT id, change_version FROM books_deleted " +
+                    "WHERE change_version > ? ORDER BY change_version LIMIT ?")) {
+                Deadline.apply(statement);
+                statement.setLong(1, since);
+                statement.setInt(2, limit + 1);
+                try (ResultSet resultSet = statement.executeQuery()) {
+                    while (resultSet.next()) {
+                        deleted.add(new long[] {resultSet.getInt(1), resultSet.getLong(2)});
+                    }
+                }
+            }
+
+            // Merge both lists by version; versions are unique because they share one sequence
+            List<Book> pageChanged = new ArrayList<>();
+            List<Integer> pageDeleted = new ArrayList<>();
+            List<Long> pageDeletedVersions = new ArrayList<>();
+            long nextSince = since;
+            int c = 0;
+            int d = 0;
+            while (pageChanged.size() + pageDeleted.size() < limit && (c < changed.size() || d < deleted.size())) {
+                boolean takeChanged = d == deleted.size()
+                        || (c < changed.size() && changed.get(c).getChangeVersion() < deleted.get(d)[1]);
+                if (takeChanged) {
+                    Book book = changed.get(c++);
+                    pageChanged.add(book);
+                    nextSince = book.getChangeVersion();
+                } else {
+                    long[] tombstone = deleted.get(d++);
+                    pageDeleted.add((int) tombstone[0]);
+                    pageDeletedVersions.add(tombstone[1]);
+                    nextSince = tombstone[1];
+                }
+            }
+            boolean hasMore = c < changed.size() || d < deleted.size();
+            return new BookDelta(pageChanged, pageDeleted, pageDeletedVersions, nextSince, hasMore);
+        });
+    }
+
+    /**
+     * Registers a listener for committed book changes.
+     *
+     * @param listener the listener to add
+     */
+    public void addChangeListener(BookChangeListener listener) {
+        changeListeners.add(listener);
+    }
+
+    /**
+     * Counts books per publication year and per author on the primary, together with the
+     * change version the counts reflect. PostgreSQL reads all of it in one snapshot. H2
+     * reads committed data per statement, so there the counting is repeated if a write
+     * commits in between.
+     *
+     * @return the counts and their change version
+     * @throws SQLException if database access fails, or on H2 if the books keep changing
+     */
+    public BookCounts countAll() throws SQLException {
+        for (int attempt = 1; ; attempt++) {
+            BookCounts counts = inTransaction(connection -> {
+                if (!databaseConfig.isH2()) {
+                    try (Statement statement = connection.createStatement()) {
+                        statement.execute("SET TRANSACTION ISOLATION LEVEL REPEATABLE READ");
+                    }
+                }
+                long version = selectCurrentVersion(connection);
+                Map<Integer, Long> years = countByYear(connection);
+                Map<String, Long> authors = countByAuthor(connection);
+                return selectCurrentVersion(connection) == version ? new BookCounts(version, years, authors) : null;
+            });
+            if (counts != null) {
+                return counts;
+            }
+            if (attempt == 3) {
+                throw new SQLException("Books changed while counting them");
+            }
+        }
+    }
+
+    private Map<Integer, Long> countByYear(Connection connection) throws SQLException {
+        Map<Integer, Long> counts = new HashMap<>();
+        try (PreparedStatement statement = connection.prepareStatement(
+                "SELECT publication_year, COUNT(*) FROM books GROUP BY publication_year");
+             ResultSet resultSet = statement.executeQuery()) {
+            while (resultSet.next()) {
+                counts.put(resultSet.getInt(1), resultSet.getLong(2));
+            }
+        }
+        return counts;
+    }
+
+    private Map<String, Long> countByAuthor(Connection connection) throws SQLException {
+        Map<String, Long> counts = new HashMap<>();
+        try (PreparedStatement statement = connection.prepareStatement(
+                "SELECT author, COUNT(*) FROM books GROUP BY author")) {
+            statement.setFetchSize(fetchSize);
+            try (ResultSet resultSet = statement.executeQuery()) {
+                while (resultSet.next()) {
+                    counts.put(resultSet.getString(1), resultSet.getLong(2));
+                }
+            }
+        }
+        return counts;
+    }
+
+    /**
+     * Loads the current rows for a set of IDs with one set-based query per chunk.
+     *
+     * @param connection the connection of the running transaction
+     * @param ids        the IDs to load
+     * @param forUpdate  lock the rows until the transaction ends (PostgreSQL only)
+     * @return map from ID to book for all IDs that exist
+     * @throws SQLException if database access fails
+     */
+    private Map<Integer, Book> loadRowsById(Connection connection, List<Integer> ids, boolean forUpdate) throws SQLException {
+        String sql = "SELECT id, isbn, title, author, publication_year FROM books WHERE id = ANY(?)"
+                + (forUpdate && !databaseConfig.isH2() ? " FOR UPDATE" : "");
+        Map<Integer, Book> rows = new HashMap<>();
+
+        try (PreparedStatement statement = connection.prepareStatement(sql)) {
+            for (int from = 0; from < ids.size(); from += ID_CHUNK_SIZE) {
+                List<Integer> chunk = ids.subList(from, Math.min(ids.size(), from + ID_CHUNK_SIZE));
+                Array array = connection.createArrayOf("INTEGER", chunk.toArray());
+                try {
+                    statement.setArray(1, array);
+                    try (ResultSet resultSet = statement.executeQuery()) {
+                        while (resultSet.next()) {
+                            Book book = readBook(resultSet);
+                            rows.put(book.getId(), book);
+                        }
+                    }
+                } finally {
+                    array.free();
+                }
+            }
+        }
+        return rows;
+    }
+
+    /**
+     * Reads a book from the current row (columns id, isbn, title, author, publication_year).
+     *
+     * @param resultSet result set positioned on a row
+     * @return the book
+     * @throws SQLException if a column cannot be read
+     */
+    private static Book readBook(ResultSet resultSet) throws SQLException {
+        return new Book(
+                resultSet.getInt(1),
+                resultSet.getString(2),
+                resultSet.getString(3),
+                resultSet.getString(4),
+                resultSet.getInt(5));
+    }
+
+    /**
+     * Builds the list of effective changes of an upsert. Rows written with unchanged
+     * values are skipped; repeated IDs in one call are chained in write order.
+     *
+     * @param books        the books that were written
+     * @param previousRows the rows before the write
+     * @return the changes
+     */
+    private static List<BookChange> upsertChanges(List<Book> books, Map<Integer, Book> previousRows) {
+        Map<Integer, Book> state = new HashMap<>(previousRows);
+        List<BookChange> changes = new ArrayList<>();
+        for (Book book : books) {
+            Book current = new Book(book.getId(), book.getIsbn(), book.getTitle(), book.getAuthor(), book.getYear());
+            Book previous = state.put(current.getId(), current);
+            if (!sameValues(previous, current)) {
+                changes.add(new BookChange(previous, current));
+            }
+        }
+        return changes;
+    }
+
+    private static boolean sameValues(Book a, Book b) {
+        return a != null && b != null
+                && a.getId() == b.getId()
+                && a.getYear() == b.getYear()
+                && Objects.equals(a.getIsbn(), b.getIsbn())
+                && Objects.equals(a.getTitle(), b.getTitle())
+                && Objects.equals(a.getAuthor(), b.getAuthor());
+    }
+
+    /**
+     * Passes committed changes to all listeners. A failing listener does not affect the write.
+     *
+     * @param changes the committed changes
+     * @param version commit version of the transaction
+     */
+    private void notifyListeners(List<BookChange> changes, long version) {
+        if (changes.isEmpty()) {
+            return;
+        }
+        for (BookChangeListener listener : changeListeners) {
+            try {
+                listener.onBooksChanged(changes, version);
+            } catch (RuntimeException e) {
+                log.error("Book change listener {} failed", listener.getClass().getSimpleName(), e);
+            }
+        }
+    }
+
+    /**
+     * Creates the books table, the deletion tombstones and their indexes if they don't exist.
+     * The indexes support the filters and sort orders of findBooks, the ISBN lookups
+     * of findByIdsOrIsbns and the version range scans of findDelta.
+     * Existing tables get the change_version column and a version for every row.
+     */
+    public void createTableIfNotExists() {
+        // Same DDL for PostgreSQL and H2 apart from the sequence expression
+        String[] statements = {
+            "CREATE SEQUENCE IF NOT EXISTS " + VERSION_SEQUENCE,
+            """
+            CREATE TABLE IF NOT EXISTS books (
+                id INTEGER PRIMARY KEY,
+                isbn VARCHAR(32) NOT NULL,
+                title VARCHAR(512) NOT NULL,
+                author VARCHAR(255) NOT NULL,
+                publication_year INTEGER NOT NULL,
+                change_version BIGINT
+            )
+            """,
+            "ALTER TABLE books ADD COLUMN IF NOT EXISTS change_version BIGINT",
+            "UPDATE books SET change_version = " + nextVersionSql() + " WHERE change_version IS NULL",
+            "ALTER TABLE books ALTER COLUMN change_version SET DEFAULT " + nextVersionSql(),
+            """
+            CREATE TABLE IF NOT EXISTS books_deleted (
+                id INTEGER PRIMARY KEY,
+                change_version BIGINT NOT NULL
+            )
+            """,
+            "CREATE INDEX IF NOT EXISTS idx_books_author_year ON books (author, publication_year)",
+            "CREATE INDEX IF NOT EXISTS idx_books_year ON books (publication_year)",
+            "CREATE INDEX IF NOT EXISTS idx_books_title ON books (title)",
+            "CREATE INDEX IF NOT EXISTS idx_books_isbn ON books (isbn)",
+            "CREATE INDEX IF NOT EXISTS idx_books_change_version ON books (change_version)",
+            "CREATE INDEX IF NOT EXISTS idx_books_deleted_change_version ON books_deleted (change_version)"
+        };
+
+        try {
+            inTransaction(connection -> {
+                try (Statement statement = connection.createStatement()) {
+                    for (String sql : statements) {
+                        statement.executeUpdate(sql);
+                    }
+                }
+                return null;
+            });
+            log.info("Books table and indexes created or already exist.");
+        } catch (SQLException e) {
+            log.error("Error creating books table", e);
+        }
+    }
+
+    /**
+     * Runs JDBC work in a transaction on a pooled connection of the persistence unit.
+     * Fails fast with a CircuitOpenException while the database is known to be down.
+     *
+     * @param work the work to run
+     * @param <T>  result type
+     * @return the result of the work
+     * @throws SQLException if the work or the commit fails
+     */
+    private <T> T inTransaction(ReturningWork<T> work) throws SQLException {
+        return circuitBreaker.call(() -> transactions.run(work));
+    }
+
+    /**
+     * Runs read-only JDBC work in a transaction on a read replica if one is configured
+     * and available, otherwise like {@link #inTransaction}. Replicas may lag behind the
+     * primary, so only reads that tolerate slightly stale data belong here.
+     *
+     * @param work the work to run
+     * @param <T>  result type
+     * @return the result of the work
+     * @throws SQLException if the work fails
+     */
+    private <T> T inReadTransaction(ReturningWork<T> work) throws SQLException {
+        return router.read(null, () -> transactions.run(work));
+    }
+
+    /**
+     * Returns the dialect specific upsert statement for the books table.
+     *
+     * @param versionSql SQL expression for the change_version column
+     * @return SQL with the parameters id, isbn, title, author, publication_year
+     *         (plus the parameters of versionSql)
+     */
+    private String upsertSql(String versionSql) {
+        if (databaseConfig.isH2()) {
+            return "MERGE INTO books (id, isbn, title, author, publication_year, change_version) KEY (id) " +
+                   "VALUES (?, ?, ?, ?, ?, " + versionSql + ")";
+        }
+        // PostgreSQL; rows written with unchanged values keep their change version
+        return "INSERT INTO books (id, isbn, title, author, publication_year, change_version) " +
+               "VALUES (?, ?, ?, ?, ?, " + versionSql + ") " +
+               "ON CONFLICT (id) DO UPDATE SET " +
+               "isbn = EXCLUDED.isbn, " +
+               "title = EXCLUDED.title, " +
+               "author = EXCLUDED.author, " +
+               "publication_year = EXCLUDED.publication_year, " +
+               "change_version = EXCLUDED.change_version " +
+               "WHERE (books.isbn, books.title, books.author, books.publication_year) IS DISTINCT FROM " +
+               "(EXCLUDED.isbn, EXCLUDED.title, EXCLUDED.author, EXCLUDED.publication_year)";
+    }
+
+    /**
+     * Returns the dialect specific expression for the next change version.
+     *
+     * @return SQL expression drawing from the change version sequence
+     */
+    private String nextVersionSql() {
+        return databaseConfig.isH2()
+                ? "NEXT VALUE FOR " + VERSION_SEQUENCE
+                : "nextval('" + VERSION_SEQUENCE + "')";
+    }
+
+    /**
+     * Evicts cached books and cached query results.
+     */
+    private void evictCaches() {
+        entityManagerFactory.getCache().evict(Book.class);
+        entityManagerFactory.unwrap(SessionFactory.class).getCache().evictQueryRegions();
+    }
+}
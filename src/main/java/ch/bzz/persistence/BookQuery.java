@@ -0,0 +1,199 @@
+package ch.bzz.persistence;
+
+import ch.bzz.model.Book;
+import java.util.Comparator;
+import java.util.Objects;
+
+/**
+ * Filter and sort criteria for book queries.
+ * The same criteria are translated to SQL by BookPersistor and can be
+ * applied in memory (matches/comparator) when books come from another source.
+ */
+public class BookQuery {
+
+    /**
+     * Sort field; each maps to an indexed column.
+     */
+    public enum Sort {
+        ID("id", Comparator.comparingInt(Book::getId)),
+        TITLE("title", Comparator.comparing(Book::getTitle)),
+        YEAR("year", Comparator.comparingInt(Book::getYear)),
+        AUTHOR("author", Comparator.comparing(Book::getAuthor));
+
+        private final String property;
+        private final Comparator<Book> comparator;
+
+        Sort(String property, Comparator<Book> comparator) {
+            this.property = property;
+            this.comparator = comparator;
+        }
+
+        /**
+         * Parses a sort parameter value (case-insensitive).
+         *
+         * @param value the parameter value, e.g. "title"
+         * @return the sort field
+         * @throws IllegalArgumentException if the value is not supported
+         */
+        public static Sort fromParameter(String value) {
+            for (Sort sort : values()) {
+                if (sort.property.equalsIgnoreCase(value)) {
+                    return sort;
+                }
+            }
+            throw new IllegalArgumentException("Invalid sort parameter: " + value + " (allowed: title, year, author, id)");
+        }
+
+        /**
+         * Entity property name used in JPQL.
+         *
+         * @return the property name
+         */
+        public String getProperty() {
+            return property;
+        }
+    }
+
+    private String author;
+    private Integer yearFrom;
+    private Integer yearTo;
+    private Sort sort = Sort.ID;
+    private boolean descending;
+    private int limit = -1;
+
+    /**
+     * Creates a query for all books ordered by ID.
+     *
+     * @param limit maximum number of books (-1 for no limit)
+     * @return the query
+     */
+    public static BookQuery all(int limit) {
+        BookQuery query = new BookQuery();
+        query.setLimit(limit);
+        return query;
+    }
+
+    /**
+     * Creates a copy, e.g. for use as a map key that the caller can't change.
+     *
+     * @return a query with the same criteria
+     */
+    public BookQuery copy() {
+        BookQuery query = new BookQuery();
+        query.author = author;
+        query.yearFrom = yearFrom;
+        query.yearTo = yearTo;
+        query.sort = sort;
+        query.descending = descending;
+        query.limit = limit;
+        return query;
+    }
+
+    /**
+     * Checks whether any filter is set.
+     *
+     * @return true if author or year range is restricted
+     */
+    public boolean hasFilter() {
+        return author != null || yearFrom != null || yearTo != null;
+    }
+
+    /**
+     * Checks a book against the filter criteria.
+     *
+     * @param book the book to check
+     * @return true if the book matches
+     */
+    public boolean matches(Book book) {
+        return (author == null || author.equals(book.getAuthor()))
+                && (yearFrom == null || book.getYear() >= yearFrom)
+                && (yearTo == null || book.getYear() <= yearTo);
+    }
+
+    /**
+     * Comparator for the requested order, with the ID as tie-breaker.
+     *
+     * @return comparator matching the SQL ORDER BY
+     */
+    public Comparator<Book> comparator() {
+        Comparator<Book> comparator = sort.comparator;
+        if (descending) {
+            comparator = comparator.reversed();
+        }
+        return sort == Sort.ID ? comparator : comparator.thenComparingInt(Book::getId);
+    }
+
+    // Getters
+    public String getAuthor() {
+        return author;
+    }
+
+    public Integer getYearFrom() {
+        return yearFrom;
+    }
+
+    public Integer getYearTo() {
+        return yearTo;
+    }
+
+    public Sort getSort() {
+        return sort;
+    }
+
+    public boolean isDescending() {
+        return descending;
+    }
+
+    public int getLimit() {
+        return limit;
+    }
+
+    // Setters
+    public void setAuthor(String author) {
+        this.author = author;
+    }
+
+    public void setYearFrom(Integer yearFrom) {
+        this.yearFrom = yearFrom;
+    }
+
+    public void setYearTo(Integer yearTo) {
+        this.yearTo = yearTo;
+    }
+
+    public void setSort(Sort sort) {
+        this.sort = sort;
+    }
+
+    public void setDescending(boolean descending) {
+        this.descending = descending;
+    }
+
+    public void setLimit(int limit) {
+        this.limit = limit;
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+        if (this == obj) return true;
+        if (obj == null || getClass() != obj.getClass()) return false;
+        BookQuery query = (BookQuery) obj;
+        return descending == query.descending
+                && limit == query.limit
+                && Objects.equals(author, query.author)
+                && Objects.equals(yearFrom, query.yearFrom)
+                && Objects.equals(yearTo, query.yearTo)
+                && sort == query.sort;
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(author, yearFrom, yearTo, sort, descending, limit);
+    }
+
+    @Override
+    public String toString() {
+        return String.format("BookQuery{author=%s, yearFrom=%s, yearTo=%s, sort=%s%s, limit=%d}",
+                author, yearFrom, yearTo, sort.property, descending ? " desc" : "", limit);
+    }
+}
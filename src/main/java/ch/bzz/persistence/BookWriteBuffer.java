@@ -0,0 +1,356 @@
+package ch.bzz.persistence;
+
+import ch.bzz.model.Book;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Write-behind buffer for single-book writes from the REST API.
+ * Pending writes are kept per book ID, so repeated edits of the same book are
+ * coalesced and only the latest version is written. The buffer is flushed as one
+ * batched transaction through BookPersistor when it reaches the batch size or
+ * when the flush interval has passed, whichever comes first.
+ *
+ * All flushes run on one thread, so batches are committed in the order they were
+ * taken from the buffer. Every write returns a future that completes when the
+ * batch containing it has been committed (or failed).
+ *
+ * A flush that fails because the database is unreachable puts its writes back into
+ * the buffer, where newer writes of the same books replace them, and is retried with
+ * exponential backoff. Any other failure means that a row was refused; the books of
+ * the batch are then written one by one, so only the refused writes fail. New writes
+ * are not accepted (see {@link #getRetryAfterMillis()}) while the circuit breaker is
+ * open, while maxPending books are waiting and after shutdown.
+ */
+public class BookWriteBuffer {
+
+    private static final Logger log = LoggerFactory.getLogger(BookWriteBuffer.class);
+
+    private static final long MAX_RETRY_DELAY_MS = 30_000;
+    private static final long SHUTDOWN_RETRY_AFTER_MS = 5_000;
+
+    private final BookPersistor bookPersistor;
+    private final CircuitBreaker circuitBreaker;
+    private final int maxBatchSize;
+    private final int maxPending;
+    private final long flushIntervalMs;
+    private final ScheduledExecutorService flusher;
+    private final Object lock = new Object();
+    private Map<Integer, PendingWrite> pending = new LinkedHashMap<>();
+    private boolean flushScheduled;
+    private volatile boolean closed;
+    // Backoff after failed flushes, only changed on the flusher thread
+    private long retryDelayMs;
+    private volatile long retryAt;
+
+    private final AtomicLong writes = new AtomicLong();
+    private final AtomicLong coalesced = new AtomicLong();
+    private final AtomicLong flushes = new AtomicLong();
+    private final AtomicLong failedFlushes = new AtomicLong();
+    private final AtomicLong failedWrites = new AtomicLong();
+
+    /**
+     * Constructor for creating a BookWriteBuffer object.
+     *
+     * @param bookPersistor   persistor used for the batched writes
+     * @param circuitBreaker  breaker of the primary database; writes are refused while it is open
+     * @param maxBatchSize    number of distinct books that triggers a flush
+     * @param maxPending      number of distinct books in the buffer above which writes are refused
+     * @param flushIntervalMs maximum time in milliseconds a write stays in the buffer
+     *                        (and the first retry delay after a failed flush)
+     */
+    public BookWriteBuffer(BookPersistor bookPersistor, CircuitBreaker circuitBreaker, int maxBatchSize,
+                           int maxPending, long flushIntervalMs) {
+        this.bookPersistor = bookPersistor;
+        this.circuitBreaker = circuitBreaker;
+        this.maxBatchSize = maxBatchSize;
+        this.maxPending = Math.max(maxBatchSize, maxPending);
+        this.flushIntervalMs = flushIntervalMs;
+        this.flusher = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "book-write-behind");
+            thread.setDaemon(true);
+            return thread;
+        });
+        flusher.scheduleWithFixedDelay(() -> flush(false), flushIntervalMs, flushIntervalMs, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Buffers an insert or update of a book.
+     *
+     * @param book the new version of the book
+     * @return future completed when the write is committed
+     */
+    public CompletableFuture<Void> save(Book book) {
+        Book copy = new Book(book.getId(), book.getIsbn(), book.getTitle(), book.getAuthor(), book.getYear());
+        return enqueue(book.getId(), copy);
+    }
+
+    /**
+     * Buffers the deletion of a book.
+     *
+     * @param id ID of the book to delete
+     * @return future completed when the deletion is committed
+     */
+    public CompletableFuture<Void> delete(int id) {
+        return enqueue(id, null);
+    }
+
+    /**
+     * Checks whether new writes are accepted. Callers that acknowledge a write before
+     * it is committed must check this first, since a refused write would be lost.
+     *
+     * @return 0 if writes are accepted, otherwise the time in ms after which to try again
+     */
+    public long getRetryAfterMillis() {
+        if (closed) {
+            return SHUTDOWN_RETRY_AFTER_MS;
+        }
+        long breakerRetryAfter = circuitBreaker.getRetryAfterMillis();
+        if (breakerRetryAfter > 0) {
+            return breakerRetryAfter;
+        }
+        if (getPendingCount() >= maxPending) {
+            return Math.max(flushIntervalMs, retryAt - System.currentTimeMillis());
+        }
+        return 0;
+    }
+
+    private CompletableFuture<Void> enqueue(int id, Book book) {
+        CompletableFuture<Void> future = new CompletableFuture<>();
+        synchronized (lock) {
+            if (closed) {
+                future.completeExceptionally(new IllegalStateException("Write-behind buffer is shut down"));
+                return future;
+            }
+            writes.incrementAndGet();
+            PendingWrite write = pending.get(id);
+            if (write == null) {
+                pending.put(id, new PendingWrite(book, future));
+            } else {
+                // Later write wins; it is committed together with the earlier ones
+                write.book = book;
+                write.futures.add(future);
+                coalesced.incrementAndGet();
+            }
+            if (pending.size() >= maxBatchSize && !flushScheduled) {
+                flushScheduled = true;
+                flusher.execute(() -> flush(false));
+            }
+        }
+        return future;
+    }
+
+    /**
+     * Writes all pending books in one transaction. Runs on the flusher thread.
+     *
+     * @param force true to ignore the retry backoff (final flush on shutdown)
+     */
+    private void flush(boolean force) {
+        Map<Integer, PendingWrite> batch;
+        synchronized (lock) {
+            flushScheduled = false;
+            if (pending.isEmpty() || !force && System.currentTimeMillis() < retryAt) {
+                return;
+            }
+            batch = pending;
+            pending = new LinkedHashMap<>();
+        }
+
+        try {
+            write(batch);
+            flushes.incrementAndGet();
+            retryDelayMs = 0;
+            batch.values().forEach(PendingWrite::complete);
+        } catch (SQLException | RuntimeException e) {
+            failedFlushes.incrementAndGet();
+            if (isRetryable(e)) {
+                retryLater(batch, e);
+            } else if (batch.size() > 1) {
+                log.warn("Write-behind flush of {} books failed, writing them one by one: {}", batch.size(), e.getMessage());
+                writeSeparately(batch);
+            } else {
+                fail(batch, e);
+            }
+        }
+    }
+
+    /**
+     * Writes the books of a refused batch in separate transactions, so that only the
+     * writes the database refuses fail. Stops at the first connection failure and
+     * puts the remaining writes back.
+     *
+     * @param batch the writes of the failed batch
+     */
+    private void writeSeparately(Map<Integer, PendingWrite> batch) {
+        Iterator<Map.Entry<Integer, PendingWrite>> iterator = batch.entrySet().iterator();
+        while (iterator.hasNext()) {
+            Map.Entry<Integer, PendingWrite> entry = iterator.next();
+            Map<Integer, PendingWrite> single = Map.of(entry.getKey(), entry.getValue());
+            try {
+                write(single);
+                entry.getValue().complete();
+                iterator.remove();
+            } catch (SQLException | RuntimeException e) {
+                if (isRetryable(e)) {
+                    // batch now holds this write and the ones not tried yet
+                    retryLater(batch, e);
+                    return;
+                }
+                fail(single, e);
+                iterator.remove();
+            }
+        }
+        retryDelayMs = 0;
+    }
+
+    private void write(Map<Integer, PendingWrite> batch) throws SQLException {
+        List<Book> books = new ArrayList<>();
+        List<Integer> deleteIds = new ArrayList<>();
+        for (Map.Entry<Integer, PendingWrite> entry : batch.entrySet()) {
+            Book book = entry.getValue().book;
+            if (book != null) {
+                books.add(book);
+            } else {
+                deleteIds.add(entry.getKey());
+            }
+        }
+        bookPersistor.writeAll(books, deleteIds);
+    }
+
+    /**
+     * Checks whether a failed write can succeed later, i.e. the database was not reachable.
+     *
+     * @param e the exception of the write
+     * @return true for connection failures, timeouts and an open circuit breaker
+     */
+    private static boolean isRetryable(Exception e) {
+        return e instanceof CircuitOpenException
+                || e instanceof SQLException sqlException && CircuitBreaker.isConnectionFailure(sqlException);
+    }
+
+    /**
+     * Puts the writes of a failed flush back in front of the buffer and schedules the retry.
+     * A newer write of the same book replaces the failed one; the callers of both wait
+     * for the retry.
+     *
+     * @param failed the writes that were not committed
+     * @param e      the cause of the failure
+     */
+    private void retryLater(Map<Integer, PendingWrite> failed, Exception e) {
+        retryDelayMs = retryDelayMs == 0 ? flushIntervalMs : Math.min(MAX_RETRY_DELAY_MS, retryDelayMs * 2);
+        if (e instanceof CircuitOpenException open) {
+            retryDelayMs = Math.max(retryDelayMs, open.getRetryAfterMillis());
+        }
+        retryAt = System.currentTimeMillis() + retryDelayMs;
+        synchronized (lock) {
+            if (!closed) {
+                Map<Integer, PendingWrite> merged = new LinkedHashMap<>(failed);
+                for (Map.Entry<Integer, PendingWrite> entry : pending.entrySet()) {
+                    PendingWrite older = merged.get(entry.getKey());
+                    if (older == null) {
+                        merged.put(entry.getKey(), entry.getValue());
+                    } else {
+                        older.book = entry.getValue().book;
+                        older.futures.addAll(entry.getValue().futures);
+                        coalesced.incrementAndGet();
+                    }
+                }
+                pending = merged;
+                log.warn("Write-behind flush of {} books failed, retrying in {} ms: {}",
+                        failed.size(), retryDelayMs, e.getMessage());
+                return;
+            }
+        }
+        // No retry after shutdown
+        fail(failed, e);
+    }
+
+    private void fail(Map<Integer, PendingWrite> writes, Exception e) {
+        failedWrites.addAndGet(writes.size());
+        log.error("Write-behind buffer could not write books {}", writes.keySet(), e);
+        writes.values().forEach(write -> write.futures.forEach(future -> future.completeExceptionally(e)));
+    }
+
+    /**
+     * Refuses further writes, flushes the remaining ones and stops the flusher thread.
+     * Writes that cannot be committed in this last flush fail.
+     *
+     * @param timeoutSeconds how long to wait for the last flush
+     */
+    public void shutdown(int timeoutSeconds) {
+        synchronized (lock) {
+            if (closed) {
+                return;
+            }
+            closed = true;
+        }
+        flusher.execute(() -> flush(true));
+        flusher.shutdown();
+        try {
+            if (!flusher.awaitTermination(timeoutSeconds, TimeUnit.SECONDS)) {
+                log.warn("Write-behind buffer did not flush within {}s", timeoutSeconds);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Returns the number of books waiting to be written.
+     *
+     * @return distinct book IDs in the buffer
+     */
+    public int getPendingCount() {
+        synchronized (lock) {
+            return pending.size();
+        }
+    }
+
+    public long getWriteCount() {
+        return writes.get();
+    }
+
+    public long getCoalescedCount() {
+        return coalesced.get();
+    }
+
+    public long getFlushCount() {
+        return flushes.get();
+    }
+
+    public long getFailedFlushCount() {
+        return failedFlushes.get();
+    }
+
+    public long getFailedWriteCount() {
+        return failedWrites.get();
+    }
+
+    /**
+     * Latest buffered version of a book (null for a deletion) and the callers waiting for it.
+     */
+    private static class PendingWrite {
+        private Book book;
+        private final List<CompletableFuture<Void>> futures = new ArrayList<>();
+
+        PendingWrite(Book book, CompletableFuture<Void> future) {
+            this.book = book;
+            futures.add(future);
+        }
+
+        void complete() {
+            futures.forEach(future -> future.complete(null));
+        }
+    }
+}
@@ -0,0 +1,324 @@
+package ch.bzz.persistence;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import java.net.ConnectException;
+import java.sql.SQLException;
+import java.sql.SQLNonTransientConnectionException;
+import java.sql.SQLTimeoutException;
+import java.sql.SQLTransientConnectionException;
+import java.time.Instant;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Circuit breaker for database calls.
+ *
+ * CLOSED: calls go through; after failureThreshold consecutive connection failures
+ * the breaker opens. OPEN: calls fail immediately with {@link CircuitOpenException}
+ * instead of waiting for a connection timeout each. HALF_OPEN: after openMillis a
+ * single probe call is let through while all others keep failing fast; the probe
+ * closes the breaker on success and reopens it on failure.
+ *
+ * Only failures that indicate an unreachable database count (connection errors,
+ * timeouts, SQLState class 08); errors such as constraint violations mean the
+ * database answered and count as success. A query timeout counts as failure, so a
+ * database that accepts connections but no longer answers queries opens the breaker.
+ * Calls that end because the caller's own {@link Deadline} ran out or the request was
+ * cancelled say nothing about the database and are not recorded at all.
+ */
+public class CircuitBreaker {
+
+    private static final Logger log = LoggerFactory.getLogger(CircuitBreaker.class);
+
+    /**
+     * States of the breaker.
+     */
+    public enum State { CLOSED, OPEN, HALF_OPEN }
+
+    /**
+     * A database call.
+     *
+     * @param <T> result type
+     */
+    @FunctionalInterface
+    public interface SqlCall<T> {
+        T call() throws SQLException;
+    }
+
+    private final String name;
+    private final int failureThreshold;
+    private final long openMillis;
+    private final LongAdder failedCalls = new LongAdder();
+    private final LongAdder rejectedCalls = new LongAdder();
+    private volatile State state = State.CLOSED;
+    private volatile int consecutiveFailures;
+    private volatile long stateSince = System.currentTimeMillis();
+
+    /**
+     * Constructor for creating a CircuitBreaker object.
+     *
+     * @param name             name for logs and monitoring, e.g. "primary"
+     * @param failureThreshold consecutive failures that open the breaker
+     * @param openMillis       time the breaker stays open before a probe is allowed
+     */
+    public CircuitBreaker(String name, int failureThreshold, long openMillis) {
+        this.name = name;
+        this.failureThreshold = Math.max(1, failureThreshold);
+        this.openMillis = Math.max(0, openMillis);
+    }
+
+    /**
+     * Runs a call through the breaker.
+     *
+     * @param call the database call
+     * @param <T>  result type
+     * @return the result of the call
+     * @throws CircuitOpenException if the breaker is open
+     * @throws SQLException         if the call fails
+     */
+    public <T> T call(SqlCall<T> call) throws SQLException {
+        boolean probe = acquire();
+        boolean recorded = false;
+        try {
+            T result = call.call();
+            recorded = true;
+            onSuccess(probe);
+            return result;
+        } catch (SQLException e) {
+            recorded = true;
+            if (isCallerCancelled(e)) {
+                onNotRecorded(probe);
+            } else if (isConnectionFailure(e)) {
+                onFailure(probe, e);
+            } else {
+                onSuccess(probe);
+            }
+            throw e;
+        } finally {
+            if (probe && !recorded) {
+                // The probe failed with an unexpected exception; try again later
+                synchronized (this) {
+                    transition(State.OPEN);
+                }
+            }
+        }
+    }
+
+    /**
+     * Decides whether a call may run.
+     *
+     * @return true if the call is the half-open probe
+     * @throws CircuitOpenException if the call is rejected
+     */
+    private boolean acquire() throws CircuitOpenException {
+        if (state == State.CLOSED) {
+            return false;
+        }
+        synchronized (this) {
+            if (state == State.CLOSED) {
+                return false;
+            }
+            long openFor = System.currentTimeMillis() - stateSince;
+            if (state == State.OPEN && openFor >= openMillis) {
+                transition(State.HALF_OPEN);
+                return true;
+            }
+            rejectedCalls.increment();
+            long retryAfter = state == State.OPEN ? openMillis - openFor : openMillis;
+            throw new CircuitOpenException(name, Math.max(0, retryAfter));
+        }
+    }
+
+    private void onSuccess(boolean probe) {
+        if (!probe && consecutiveFailures == 0) {
+            return;
+        }
+        synchronized (this) {
+            consecutiveFailures = 0;
+            if (probe) {
+                transition(State.CLOSED);
+            }
+        }
+    }
+
+    private void onNotRecorded(boolean probe) {
+        if (!probe) {
+            return;
+        }
+        synchronized (this) {
+            // Give the probe slot back: the next call probes right away
+            state = State.OPEN;
+            stateSince = System.currentTimeMillis() - openMillis;
+        }
+    }
+
+    private synchronized void onFailure(boolean probe, SQLException e) {
+        failedCalls.increment();
+        if (probe) {
+            log.warn("Database '{}' still unavailable: {}", name, e.getMessage());
+            transition(State.OPEN);
+        } else if (state == State.CLOSED) {
+            consecutiveFailures++;
+            if (consecutiveFailures >= failureThreshold) {
+                log.warn("Database '{}' failed {} times in a row, failing fast for {} ms: {}",
+                        name, consecutiveFailures, openMillis, e.getMessage());
+                transition(State.OPEN);
+            }
+        }
+    }
+
+    private void transition(State newState) {
+        if (state != newState) {
+            log.info("Circuit breaker '{}': {} -> {}", name, state, newState);
+        }
+        state = newState;
+        stateSince = System.currentTimeMillis();
+        if (newState == State.CLOSED) {
+            consecutiveFailures = 0;
+        }
+    }
+
+    /**
+     * Checks whether an exception means the database could not be reached or did not answer in time.
+     *
+     * @param e the exception of a call
+     * @return true for connection failures and timeouts
+     */
+    static boolean isConnectionFailure(SQLException e) {
+        if (e instanceof CircuitOpenException) {
+            return false;
+        }
+        if (isQueryCancelled(e)) {
+            return true;
+        }
+        for (Throwable cause = e; cause != null; cause = cause.getCause()) {
+            if (cause instanceof SQLTransientConnectionException
+                    || cause instanceof SQLNonTransientConnectionException
+                    || cause instanceof SQLTimeoutException
+                    || cause instanceof ConnectException) {
+                return true;
+            }
+            if (cause instanceof SQLException sqlException && sqlException.getSQLState() != null) {
+                String sqlState = sqlException.getSQLState();
+                // 08: connection exception, 57P01-57P03: server shutting down or not accepting connections
+                if (sqlState.startsWith("08") || sqlState.startsWith("57P0")) {
+                    return true;
+                }
+            }
+            if (cause.getCause() == cause) {
+                break;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Checks whether a call ended because of the caller's own deadline: either it was
+     * not started ({@link DeadlineExceededException}) or its query was cancelled after
+     * the deadline of the current thread had passed or the request was cancelled.
+     *
+     * @param e the exception of a call
+     * @return true if the outcome says nothing about the database
+     */
+    static boolean isCallerCancelled(SQLException e) {
+        for (Throwable cause = e; cause != null && cause.getCause() != cause; cause = cause.getCause()) {
+            if (cause instanceof DeadlineExceededException) {
+                return true;
+            }
+        }
+        Deadline deadline = Deadline.current();
+        return deadline != null && deadline.isOver() && isQueryCancelled(e);
+    }
+
+    /**
+     * Checks whether a query was cancelled, by its query timeout or by {@link Deadline}.
+     *
+     * @param e the exception of a call
+     * @return true for SQLState 57014 (query_canceled) and SQLTimeoutException
+     */
+    private static boolean isQueryCancelled(SQLException e) {
+        for (Throwable cause = e; cause != null && cause.getCause() != cause; cause = cause.getCause()) {
+            if (cause instanceof SQLTimeoutException
+                    || cause instanceof SQLException sqlException && "57014".equals(sqlException.getSQLState())) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Returns the current state for monitoring.
+     *
+     * @return the status
+     */
+    public Status getStatus() {
+        return new Status(name, state, consecutiveFailures, failedCalls.sum(), rejectedCalls.sum(),
+                Instant.ofEpochMilli(stateSince).toString());
+    }
+
+    public State getState() {
+        return state;
+    }
+
+    /**
+     * Returns how long calls keep failing fast.
+     *
+     * @return time until the next probe is allowed in ms, 0 if calls are let through or a probe is due
+     */
+    public long getRetryAfterMillis() {
+        if (state != State.OPEN) {
+            return 0;
+        }
+        return Math.max(0, openMillis - (System.currentTimeMillis() - stateSince));
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * Breaker state as reported by GET /health.
+     */
+    public static class Status {
+        private final String name;
+        private final State state;
+        private final int consecutiveFailures;
+        private final long failedCalls;
+        private final long rejectedCalls;
+        private final String since;
+
+        public Status(String name, State state, int consecutiveFailures, long failedCalls, long rejectedCalls,
+                      String since) {
+            this.name = name;
+            this.state = state;
+            this.consecutiveFailures = consecutiveFailures;
+            this.failedCalls = failedCalls;
+            this.rejectedCalls = rejectedCalls;
+            this.since = since;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        public State getState() {
+            return state;
+        }
+
+        public int getConsecutiveFailures() {
+            return consecutiveFailures;
+        }
+
+        public long getFailedCalls() {
+            return failedCalls;
+        }
+
+        public long getRejectedCalls() {
+            return rejectedCalls;
+        }
+
+        public String getSince() {
+            return since;
+        }
+    }
+}
@@ -0,0 +1,28 @@
+package ch.bzz.persistence;
+
+import java.sql.SQLTransientConnectionException;
+
+/**
+ * Thrown instead of calling the database while its circuit breaker is open.
+ * It is an SQLException, so callers handle it like any other database error;
+ * those that can serve stale data or a 503 can check for it explicitly.
+ */
+public class CircuitOpenException extends SQLTransientConnectionException {
+
+    private final long retryAfterMillis;
+
+    /**
+     * Constructor for creating a CircuitOpenException object.
+     *
+     * @param name             name of the circuit breaker
+     * @param retryAfterMillis time until the next probe is allowed
+     */
+    public CircuitOpenException(String name, long retryAfterMillis) {
+        super("Database '" + name + "' unavailable (circuit breaker open)", "08000");
+        this.retryAfterMillis = retryAfterMillis;
+    }
+
+    public long getRetryAfterMillis() {
+        return retryAfterMillis;
+    }
+}
@@ -0,0 +1,246 @@
+package ch.bzz.persistence;
+
+import ch.bzz.util.AppConfig;
+import com.zaxxer.hikari.HikariConfig;
+import com.zaxxer.hikari.HikariDataSource;
+import com.zaxxer.hikari.HikariPoolMXBean;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Routes read-only work to read replicas and everything else to the primary.
+ *
+ * Replicas are configured with DB_REPLICA_URLS (comma-separated JDBC URLs, same
+ * credentials as the primary unless DB_REPLICA_USER/DB_REPLICA_PASSWORD are set).
+ * Each replica has its own connection pool and circuit breaker; a replica that cannot
+ * hand out connections is skipped, and when no replica is available reads use the
+ * primary. DB_REPLICA_ROUTING selects round-robin (default) or least-loaded, i.e. the
+ * replica with the fewest busy and waiting connections.
+ *
+ * Read-your-writes: after a write, callers mark a key (e.g. "user:42") and reads
+ * for that key go to the primary for DB_READ_YOUR_WRITES_SECONDS, so a user never
+ * sees data older than their own change because of replication lag.
+ */
+public class DataSourceRouter {
+
+    private static final Logger log = LoggerFactory.getLogger(DataSourceRouter.class);
+
+    // Expired stickiness entries are purged when the map grows beyond this size
+    private static final int STICKY_PURGE_SIZE = 10_000;
+
+    private static final ThreadLocal<Boolean> READ_ONLY = new ThreadLocal<>();
+    private static DataSourceRouter instance;
+
+    private final CircuitBreaker primaryBreaker;
+    private final List<Replica> replicas = new ArrayList<>();
+    private final boolean leastLoaded;
+    private final long stickyMillis;
+    private final Map<String, Long> stickyUntil = new ConcurrentHashMap<>();
+    private final AtomicInteger next = new AtomicInteger();
+
+    private DataSourceRouter() {
+        DatabaseConfig databaseConfig = DatabaseConfig.getInstance();
+        primaryBreaker = databaseConfig.getCircuitBreaker();
+        leastLoaded = "least-loaded".equalsIgnoreCase(AppConfig.get("DB_REPLICA_ROUTING", "round-robin"));
+        stickyMillis = AppConfig.getInt("DB_READ_YOUR_WRITES_SECONDS", 5) * 1000L;
+
+        String urls = AppConfig.get("DB_REPLICA_URLS", "");
+        if (urls.isBlank()) {
+            return;
+        }
+        if (databaseConfig.isFallback()) {
+            log.warn("Primary database unreachable, read replicas are not used with the H2 fallback");
+            return;
+        }
+        String user = AppConfig.get("DB_REPLICA_USER", databaseConfig.getDbUser());
+        String password = AppConfig.get("DB_REPLICA_PASSWORD", databaseConfig.getDbPassword());
+        List<String> replicaUrls = Arrays.stream(urls.split(",")).map(String::trim).filter(url -> !url.isEmpty()).toList();
+        for (int i = 0; i < replicaUrls.size(); i++) {
+            replicas.add(new Replica("replica-" + (i + 1), replicaUrls.get(i), user, password));
+        }
+        log.info("Routing reads to {} replica(s) ({})", replicas.size(), leastLoaded ? "least-loaded" : "round-robin");
+    }
+
+    /**
+     * Gets the singleton instance of DataSourceRouter.
+     *
+     * @return DataSourceRouter instance
+     */
+    public static synchronized DataSourceRouter getInstance() {
+        if (instance == null) {
+            instance = new DataSourceRouter();
+        }
+        return instance;
+    }
+
+    public boolean hasReplicas() {
+        return !replicas.isEmpty();
+    }
+
+    /**
+     * Runs read-only work. Connections opened during the work come from a replica
+     * (see {@link #connection}), unless there are no replicas or the key was written
+     * recently; then the work runs on the primary, guarded by its circuit breaker.
+     *
+     * @param stickyKey key for read-your-writes (null if the read is not user-specific)
+     * @param call      the work
+     * @param <T>       result type
+     * @return the result of the work
+     * @throws SQLException if the work fails
+     */
+    public <T> T read(String stickyKey, CircuitBreaker.SqlCall<T> call) throws SQLException {
+        if (replicas.isEmpty() || isSticky(stickyKey)) {
+            return primaryBreaker.call(call);
+        }
+        Boolean outer = READ_ONLY.get();
+        READ_ONLY.set(Boolean.TRUE);
+        try {
+            return call.call();
+        } finally {
+            if (outer == null) {
+                READ_ONLY.remove();
+            }
+        }
+    }
+
+    /**
+     * Checks whether the current thread runs read-only work routed to a replica.
+     *
+     * @return true inside {@link #read} with replica routing
+     */
+    public static boolean isReadOnly() {
+        return READ_ONLY.get() != null;
+    }
+
+    /**
+     * Opens a connection for the current work: a replica connection inside
+     * {@link #read}, otherwise a primary connection. If no replica is available the
+     * read falls back to the primary, guarded by the primary circuit breaker.
+     *
+     * @param primary opens a connection to the primary
+     * @return the connection
+     * @throws SQLException if no connection can be opened
+     */
+    public Connection connection(CircuitBreaker.SqlCall<Connection> primary) throws SQLException {
+        if (!isReadOnly()) {
+            return primary.call();
+        }
+        Connection replica = replicaConnection();
+        return replica != null ? replica : primaryBreaker.call(primary);
+    }
+
+    /**
+     * Picks a replica and opens a connection; replicas whose breaker is open or
+     * that fail to hand out a connection are skipped.
+     *
+     * @return a read-only replica connection or null if no replica is available
+     */
+    Connection replicaConnection() {
+        int count = replicas.size();
+        int start = Math.floorMod(next.getAndIncrement(), count);
+        List<Replica> order = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            order.add(replicas.get((start + i) % count));
+        }
+        if (leastLoaded) {
+            // Stable sort: equally loaded replicas keep the round-robin order
+            order.sort((a, b) -> Integer.compare(a.load(), b.load()));
+        }
+        for (Replica replica : order) {
+            try {
+                return replica.breaker.call(replica.dataSource::getConnection);
+            } catch (SQLException e) {
+                log.debug("Replica {} unavailable: {}", replica.breaker.getName(), e.getMessage());
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Sends reads for a key to the primary for the read-your-writes window.
+     *
+     * @param key the written key, e.g. "user:42"
+     */
+    public void markWritten(String key) {
+        if (replicas.isEmpty() || stickyMillis <= 0) {
+            return;
+        }
+        long now = System.currentTimeMillis();
+        if (stickyUntil.size() > STICKY_PURGE_SIZE) {
+            stickyUntil.values().removeIf(until -> until < now);
+        }
+        stickyUntil.put(key, now + stickyMillis);
+    }
+
+    private boolean isSticky(String key) {
+        if (key == null) {
+            return false;
+        }
+        Long until = stickyUntil.get(key);
+        if (until == null) {
+            return false;
+        }
+        if (until < System.currentTimeMillis()) {
+            stickyUntil.remove(key, until);
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * Returns the circuit breaker state of every replica, for GET /health.
+     *
+     * @return one status per replica
+     */
+    public List<CircuitBreaker.Status> getReplicaStatus() {
+        return replicas.stream().map(replica -> replica.breaker.getStatus()).toList();
+    }
+
+    /**
+     * Closes the replica pools.
+     */
+    public void close() {
+        for (Replica replica : replicas) {
+            replica.dataSource.close();
+        }
+    }
+
+    /**
+     * Connection pool and circuit breaker of one replica.
+     */
+    private static final class Replica {
+        private final HikariDataSource dataSource;
+        private final CircuitBreaker breaker;
+
+        Replica(String name, String url, String user, String password) {
+            HikariConfig config = new HikariConfig();
+            config.setPoolName(name);
+            config.setJdbcUrl(url);
+            config.setUsername(user);
+            config.setPassword(password);
+            config.setReadOnly(true);
+            config.setMaximumPoolSize(AppConfig.getInt("DB_REPLICA_POOL_SIZE", 10));
+            config.setMinimumIdle(1);
+            config.setConnectionTimeout(AppConfig.getInt("DB_REPLICA_CONNECT_TIMEOUT_MS", 2000));
+            // Start without a connection, so an unreachable replica does not prevent startup
+            config.setInitializationFailTimeout(-1);
+            dataSource = new HikariDataSource(config);
+            breaker = new CircuitBreaker(name,
+                    AppConfig.getInt("DB_BREAKER_FAILURE_THRESHOLD", 5),
+                    AppConfig.getInt("DB_BREAKER_OPEN_SECONDS", 10) * 1000L);
+        }
+
+        int load() {
+            HikariPoolMXBean pool = dataSource.getHikariPoolMXBean();
+            return pool != null ? pool.getActiveConnections() + pool.getThreadsAwaitingConnection() : 0;
+        }
+    }
+}
@@ -0,0 +1,116 @@
+package ch.bzz.persistence;
+
+import ch.bzz.util.AppConfig;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.SQLException;
+
+/**
+ * Resolves the database connection settings shared by all persistors.
+ * If the configured database is not reachable, an H2 in-memory database is used as fallback.
+ */
+public class DatabaseConfig {
+
+    private static final Logger log = LoggerFactory.getLogger(DatabaseConfig.class);
+
+    private static final String H2_FALLBACK_URL = "jdbc:h2:mem:testdb;DB_CLOSE_DELAY=-1;DB_CLOSE_ON_EXIT=FALSE";
+
+    private static DatabaseConfig instance;
+
+    private String dbUrl;
+    private String dbUser;
+    private String dbPassword;
+    private boolean fallback;
+    private final CircuitBreaker circuitBreaker = new CircuitBreaker("primary",
+            AppConfig.getInt("DB_BREAKER_FAILURE_THRESHOLD", 5),
+            AppConfig.getInt("DB_BREAKER_OPEN_SECONDS", 10) * 1000L);
+
+    private DatabaseConfig() {
+        dbUrl = AppConfig.get("DB_URL", "jdbc:postgresql://localhost:5432/localdb");
+        dbUser = AppConfig.get("DB_USER", "localuser");
+        dbPassword = AppConfig.get("DB_PASSWORD", "");
+
+        // Test the configured connection
+        try (Connection testConnection = DriverManager.getConnection(dbUrl, dbUser, dbPassword)) {
+            log.info("Database connection successful: {}", dbUrl);
+        } catch (SQLException e) {
+            log.warn("Database connection failed, falling back to H2: {}", e.getMessage());
+            useH2Fallback();
+        }
+    }
+
+    /**
+     * Gets the singleton instance of DatabaseConfig.
+     *
+     * @return DatabaseConfig instance
+     */
+    public static synchronized DatabaseConfig getInstance() {
+        if (instance == null) {
+            instance = new DatabaseConfig();
+        }
+        return instance;
+    }
+
+    /**
+     * Configures H2 in-memory database as fallback.
+     */
+    private void useH2Fallback() {
+        dbUrl = H2_FALLBACK_URL;
+        dbUser = "sa";
+        dbPassword = "";
+        fallback = true;
+        log.info("Using H2 in-memory database");
+    }
+
+    /**
+     * Opens a new connection to the configured database.
+     *
+     * @return a new JDBC connection
+     * @throws SQLException if the connection cannot be established
+     */
+    public Connection getConnection() throws SQLException {
+        return DriverManager.getConnection(dbUrl, dbUser, dbPassword);
+    }
+
+    /**
+     * Checks whether the active database is H2 (fallback or explicitly configured).
+     *
+     * @return true for H2, false for PostgreSQL
+     */
+    public boolean isH2() {
+        return dbUrl.contains("h2");
+    }
+
+    /**
+     * Checks whether the configured database was unreachable at startup and the
+     * empty H2 in-memory database is used instead.
+     *
+     * @return true when running on the fallback database
+     */
+    public boolean isFallback() {
+        return fallback;
+    }
+
+    /**
+     * Returns the circuit breaker shared by all persistors of this database.
+     *
+     * @return the circuit breaker
+     */
+    public CircuitBreaker getCircuitBreaker() {
+        return circuitBreaker;
+    }
+
+    public String getDbUrl() {
+        return dbUrl;
+    }
+
+    public String getDbUser() {
+        return dbUser;
+    }
+
+    public String getDbPassword() {
+        return dbPassword;
+    }
+}
@@ -0,0 +1,221 @@
+package ch.bzz.persistence;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Time budget of a request for its database work.
+ *
+ * The deadline of the current thread is started by the HTTP layer and picked up by the
+ * persistors: {@link #check()} fails before a connection is taken once the budget is
+ * spent, and {@link #apply(Statement)} sets the remaining budget as query timeout and
+ * registers the statement. When the budget runs out, or the request is cancelled
+ * (client disconnect), all registered statements are cancelled, so a slow query does
+ * not keep a connection after the caller has stopped waiting for it. Queries whose
+ * statement is created by Hibernate register a cancel action with {@link #onCancel}.
+ */
+public final class Deadline implements AutoCloseable {
+
+    private static final Logger log = LoggerFactory.getLogger(Deadline.class);
+
+    private static final ThreadLocal<Deadline> CURRENT = new ThreadLocal<>();
+    private static final ScheduledThreadPoolExecutor TIMER = createTimer();
+
+    private final long budgetMillis;
+    private final long expiresAtNanos;
+    private final Set<Statement> statements = ConcurrentHashMap.newKeySet();
+    private final Set<Runnable> cancelActions = ConcurrentHashMap.newKeySet();
+    private final ScheduledFuture<?> expiry;
+    private volatile String cancelReason;
+
+    private Deadline(long budgetMillis) {
+        this.budgetMillis = budgetMillis;
+        this.expiresAtNanos = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(budgetMillis);
+        this.expiry = TIMER.schedule(() -> cancel("deadline of " + budgetMillis + " ms exceeded"),
+                budgetMillis, TimeUnit.MILLISECONDS);
+    }
+
+    private static ScheduledThreadPoolExecutor createTimer() {
+        ScheduledThreadPoolExecutor timer = new ScheduledThreadPoolExecutor(1, runnable -> {
+            Thread thread = new Thread(runnable, "deadline-timer");
+            thread.setDaemon(true);
+            return thread;
+        });
+        // Most requests finish in time; don't keep their expiry tasks queued
+        timer.setRemoveOnCancelPolicy(true);
+        return timer;
+    }
+
+    /**
+     * Starts a deadline for the current thread. Close it when the request is done.
+     *
+     * @param budgetMillis time budget in milliseconds
+     * @return the deadline
+     */
+    public static Deadline start(long budgetMillis) {
+        Deadline deadline = new Deadline(budgetMillis);
+        CURRENT.set(deadline);
+        return deadline;
+    }
+
+    /**
+     * Returns the deadline of the current thread.
+     *
+     * @return the deadline or null if the current work has none
+     */
+    public static Deadline current() {
+        return CURRENT.get();
+    }
+
+    /**
+     * Fails if the deadline of the current thread has passed or was cancelled.
+     *
+     * @throws DeadlineExceededException if no budget is left
+     */
+    public static void check() throws DeadlineExceededException {
+        Deadline deadline = CURRENT.get();
+        if (deadline != null && deadline.isOver()) {
+            throw new DeadlineExceededException(deadline.budgetMillis);
+        }
+    }
+
+    /**
+     * Binds a statement to the deadline of the current thread: the remaining budget,
+     * rounded up to whole seconds, becomes its query timeout and the statement is
+     * cancelled when the deadline passes or the request is cancelled.
+     * Does nothing without a deadline.
+     *
+     * @param statement the statement about to be executed
+     * @throws SQLException if no budget is left or the timeout cannot be set
+     */
+    public static void apply(Statement statement) throws SQLException {
+        Deadline deadline = CURRENT.get();
+        if (deadline == null) {
+            return;
+        }
+        check();
+        long remaining = deadline.remainingMillis();
+        // JDBC timeouts have seconds granularity; the timer cancels at the exact deadline
+        statement.setQueryTimeout((int) Math.max(1, (remaining + 999) / 1000));
+        deadline.statements.add(statement);
+        if (deadline.isOver()) {
+            cancelQuietly(statement);
+        }
+    }
+
+    /**
+     * Registers an action that cancels work of the current thread whose statement is
+     * not accessible, e.g. a JPA query. It runs when the deadline passes or the request
+     * is cancelled, until the returned registration is closed.
+     *
+     * @param action cancels the work, e.g. the session's running query
+     * @return registration to close when the work is done (does nothing without deadline)
+     */
+    public static Registration onCancel(Runnable action) {
+        Deadline deadline = CURRENT.get();
+        if (deadline == null) {
+            return () -> { };
+        }
+        deadline.cancelActions.add(action);
+        if (deadline.isOver()) {
+            runQuietly(action);
+        }
+        return () -> deadline.cancelActions.remove(action);
+    }
+
+    /**
+     * Handle of a cancel action registered with {@link #onCancel}.
+     */
+    @FunctionalInterface
+    public interface Registration extends AutoCloseable {
+        @Override
+        void close();
+    }
+
+    /**
+     * Cancels the request: running statements are cancelled and further database
+     * calls fail with {@link DeadlineExceededException}.
+     *
+     * @param reason reason for the log, e.g. "client disconnected"
+     */
+    public void cancel(String reason) {
+        if (cancelReason != null) {
+            return;
+        }
+        cancelReason = reason;
+        if (!statements.isEmpty() || !cancelActions.isEmpty()) {
+            log.info("Cancelling {} statement(s): {}", statements.size() + cancelActions.size(), reason);
+        }
+        for (Statement statement : statements) {
+            cancelQuietly(statement);
+        }
+        for (Runnable action : cancelActions) {
+            runQuietly(action);
+        }
+    }
+
+    private static void runQuietly(Runnable action) {
+        try {
+            action.run();
+        } catch (RuntimeException e) {
+            log.debug("Could not cancel query: {}", e.getMessage());
+        }
+    }
+
+    private static void cancelQuietly(Statement statement) {
+        try {
+            if (!statement.isClosed()) {
+                statement.cancel();
+            }
+        } catch (SQLException e) {
+            log.debug("Could not cancel statement: {}", e.getMessage());
+        }
+    }
+
+    /**
+     * Checks whether the budget is spent or the request was cancelled.
+     *
+     * @return true if no further database work should be started
+     */
+    public boolean isOver() {
+        return cancelReason != null || remainingMillis() <= 0;
+    }
+
+    /**
+     * Checks whether the request was cancelled for another reason than the budget,
+     * e.g. because the client disconnected.
+     *
+     * @return true if cancelled before the deadline
+     */
+    public boolean isCancelled() {
+        return cancelReason != null && remainingMillis() > 0;
+    }
+
+    public long remainingMillis() {
+        return TimeUnit.NANOSECONDS.toMillis(expiresAtNanos - System.nanoTime());
+    }
+
+    public long getBudgetMillis() {
+        return budgetMillis;
+    }
+
+    /**
+     * Ends the deadline of the current thread.
+     */
+    @Override
+    public void close() {
+        expiry.cancel(false);
+        statements.clear();
+        cancelActions.clear();
+        if (CURRENT.get() == this) {
+            CURRENT.remove();
+        }
+    }
+}
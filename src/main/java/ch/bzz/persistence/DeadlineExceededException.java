@@ -0,0 +1,20 @@
+package ch.bzz.persistence;
+
+import java.sql.SQLTimeoutException;
+
+/**
+ * Thrown instead of starting database work when the request's {@link Deadline}
+ * has passed or the request was cancelled. Uses the SQLState of a cancelled query
+ * (57014), like the timeouts of the JDBC drivers.
+ */
+public class DeadlineExceededException extends SQLTimeoutException {
+
+    /**
+     * Constructor for creating a DeadlineExceededException object.
+     *
+     * @param budgetMillis the time budget of the request
+     */
+    public DeadlineExceededException(long budgetMillis) {
+        super("Request deadline of " + budgetMillis + " ms exceeded", "57014");
+    }
+}
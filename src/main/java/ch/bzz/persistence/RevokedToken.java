@@ -0,0 +1,75 @@
+package ch.bzz.persistence;
+
+/**
+ * A revocation of JWTs: either a single token (by its ID, the jti claim) or all
+ * tokens of a user issued before a point in time (e.g. a password change).
+ * Kept until expiresAt, when every token it covers has expired anyway.
+ */
+public class RevokedToken {
+
+    private static final String USER_PREFIX = "user:";
+
+    private final String tokenId;
+    private final Integer userId;
+    private final long revokedBefore;
+    private final long expiresAt;
+
+    /**
+     * Constructor for creating a RevokedToken object.
+     *
+     * @param tokenId       the token ID, or "user:" plus the user ID for a user-wide revocation
+     * @param userId        the user the token belongs to (may be null)
+     * @param revokedBefore for user-wide revocations: tokens issued before this time (epoch ms) are revoked
+     * @param expiresAt     time (epoch ms) after which the revocation can be dropped
+     */
+    public RevokedToken(String tokenId, Integer userId, long revokedBefore, long expiresAt) {
+        this.tokenId = tokenId;
+        this.userId = userId;
+        this.revokedBefore = revokedBefore;
+        this.expiresAt = expiresAt;
+    }
+
+    /**
+     * Creates the revocation of a single token.
+     *
+     * @param tokenId   the jti claim
+     * @param userId    the user the token belongs to
+     * @param expiresAt expiration of the token (epoch ms)
+     * @return the revocation
+     */
+    public static RevokedToken token(String tokenId, Integer userId, long expiresAt) {
+        return new RevokedToken(tokenId, userId, 0, expiresAt);
+    }
+
+    /**
+     * Creates the revocation of all tokens of a user issued before a point in time.
+     *
+     * @param userId        the user
+     * @param revokedBefore tokens issued before this time (epoch ms) are revoked
+     * @param expiresAt     expiration of the last token issued before revokedBefore (epoch ms)
+     * @return the revocation
+     */
+    public static RevokedToken userTokens(int userId, long revokedBefore, long expiresAt) {
+        return new RevokedToken(USER_PREFIX + userId, userId, revokedBefore, expiresAt);
+    }
+
+    public boolean isUserWide() {
+        return tokenId.startsWith(USER_PREFIX);
+    }
+
+    public String getTokenId() {
+        return tokenId;
+    }
+
+    public Integer getUserId() {
+        return userId;
+    }
+
+    public long getRevokedBefore() {
+        return revokedBefore;
+    }
+
+    public long getExpiresAt() {
+        return expiresAt;
+    }
+}
@@ -0,0 +1,162 @@
+package ch.bzz.persistence;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.sql.Types;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Data access object for JWT revocations (table revoked_tokens).
+ * Times are stored as epoch milliseconds, so the DDL is the same for PostgreSQL and H2.
+ */
+public class RevokedTokenPersistor {
+
+    private static final Logger log = LoggerFactory.getLogger(RevokedTokenPersistor.class);
+
+    private static RevokedTokenPersistor instance;
+    private final DatabaseConfig databaseConfig;
+    private final CircuitBreaker circuitBreaker;
+    private final Transactions transactions;
+
+    private RevokedTokenPersistor(Transactions transactions) {
+        databaseConfig = DatabaseConfig.getInstance();
+        circuitBreaker = databaseConfig.getCircuitBreaker();
+        this.transactions = transactions;
+    }
+
+    /**
+     * Gets the singleton instance of RevokedTokenPersistor.
+     *
+     * @return RevokedTokenPersistor instance
+     */
+    public static synchronized RevokedTokenPersistor getInstance() {
+        if (instance == null) {
+            instance = new RevokedTokenPersistor(Transactions.getInstance());
+        }
+        return instance;
+    }
+
+    /**
+     * Stores a revocation. A user-wide revocation replaces the previous one of the user.
+     *
+     * @param revokedToken the revocation
+     * @throws SQLException if database error occurs
+     */
+    public void save(RevokedToken revokedToken) throws SQLException {
+        circuitBreaker.call(() -> transactions.run(connection -> {
+            save(connection, revokedToken);
+            return null;
+        }));
+    }
+
+    /**
+     * Stores a revocation in a running transaction, e.g. together with the password change
+     * that causes it (see UserPersistor.changePassword).
+     *
+     * @param connection   the connection of the transaction
+     * @param revokedToken the revocation
+     * @throws SQLException if database error occurs
+     */
+    void save(Connection connection, RevokedToken revokedToken) throws SQLException {
+        String sql = databaseConfig.isH2()
+                ? "MERGE INTO revoked_tokens (token_id, user_id, revoked_before, expires_at) KEY (token_id) "
+                        + "VALUES (?, ?, ?, ?)"
+                : "INSERT INTO revoked_tokens (token_id, user_id, revoked_before, expires_at) VALUES (?, ?, ?, ?) "
+                        + "ON CONFLICT (token_id) DO UPDATE SET revoked_before = EXCLUDED.revoked_before, "
+                        + "expires_at = EXCLUDED.expires_at";
+        try (PreparedStatement statement = connection.prepareStatement(sql)) {
+            Deadline.apply(statement);
+            statement.setString(1, revokedToken.getTokenId());
+            if (revokedToken.getUserId() != null) {
+                statement.setInt(2, revokedToken.getUserId());
+            } else {
+                statement.setNull(2, Types.INTEGER);
+            }
+            statement.setLong(3, revokedToken.getRevokedBefore());
+            statement.setLong(4, revokedToken.getExpiresAt());
+            statement.executeUpdate();
+        }
+    }
+
+    /**
+     * Loads all revocations that have not expired yet.
+     *
+     * @param now current time (epoch ms)
+     * @return the active revocations
+     * @throws SQLException if database error occurs
+     */
+    public List<RevokedToken> findActive(long now) throws SQLException {
+        return circuitBreaker.call(() -> transactions.run(connection -> {
+            List<RevokedToken> revoked = new ArrayList<>();
+            try (PreparedStatement statement = connection.prepareStatement(
+                    "SELECT token_id, user_id, revoked_before, expires_at FROM revoked_tokens WHERE expires_at > ?")) {
+                statement.setLong(1, now);
+                try (ResultSet resultSet = statement.executeQuery()) {
+                    while (resultSet.next()) {
+                        int userId = resultSet.getInt(2);
+                        revoked.add(new RevokedToken(
+                                resultSet.getString(1),
+                                resultSet.wasNull() ? null : userId,
+                                resultSet.getLong(3),
+                                resultSet.getLong(4)));
+                    }
+                }
+            }
+            return revoked;
+        }));
+    }
+
+    /**
+     * Deletes revocations whose tokens have all expired.
+     *
+     * @param now current time (epoch ms)
+     * @return number of deleted rows
+     * @throws SQLException if database error occurs
+     */
+    public int deleteExpired(long now) throws SQLException {
+        return circuitBreaker.call(() -> transactions.run(connection -> {
+            try (PreparedStatement statement = connection.prepareStatement(
+                    "DELETE FROM revoked_tokens WHERE expires_at <= ?")) {
+                statement.setLong(1, now);
+                return statement.executeUpdate();
+            }
+        }));
+    }
+
+    /**
+     * Creates the revoked_tokens table and its expiry index if they don't exist.
+     */
+    public void createTableIfNotExists() {
+        String[] statements = {
+            """
+            CREATE TABLE IF NOT EXISTS revoked_tokens (
+                token_id VARCHAR(64) PRIMARY KEY,
+                user_id INTEGER,
+                revoked_before BIGINT NOT NULL,
+                expires_at BIGINT NOT NULL
+            )
+            """,
+            "CREATE INDEX IF NOT EXISTS idx_revoked_tokens_expires_at ON revoked_tokens (expires_at)"
+        };
+
+        try {
+            transactions.run(connection -> {
+                try (Statement statement = connection.createStatement()) {
+                    for (String sql : statements) {
+                        statement.executeUpdate(sql);
+                    }
+                }
+                return null;
+            });
+            log.info("Revoked tokens table created or already exists.");
+        } catch (SQLException e) {
+            log.error("Error creating revoked tokens table", e);
+        }
+    }
+}
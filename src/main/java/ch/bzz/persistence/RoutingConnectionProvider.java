@@ -0,0 +1,19 @@
+package ch.bzz.persistence;
+
+import org.hibernate.hikaricp.internal.HikariCPConnectionProvider;
+import java.sql.Connection;
+import java.sql.SQLException;
+
+/**
+ * Hibernate connection provider that hands out replica connections for read-only
+ * work (see {@link DataSourceRouter#read}) and primary connections from the usual
+ * HikariCP pool for everything else. Connections go back to the pool they came from
+ * when Hibernate closes them. Used only when read replicas are configured.
+ */
+public class RoutingConnectionProvider extends HikariCPConnectionProvider {
+
+    @Override
+    public Connection getConnection() throws SQLException {
+        return DataSourceRouter.getInstance().connection(super::getConnection);
+    }
+}
@@ -0,0 +1,173 @@
+package ch.bzz.persistence;
+
+import java.sql.SQLException;
+import java.util.Map;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.UnaryOperator;
+
+/**
+ * Coalesces concurrent identical reads: while a call for a key is in flight, further
+ * callers with the same key wait for it and share its result instead of running the
+ * same query again. Protects the database from thundering herds after a cache expiry
+ * or a restart. Only calls that overlap in time are shared; nothing is cached.
+ *
+ * Waiting callers respect their own {@link Deadline}. If the shared call was cancelled
+ * by the deadline of the caller that started it, waiting callers with budget left run
+ * the call again.
+ *
+ * @param <K> key type, must implement equals and hashCode
+ * @param <V> result type
+ */
+public class SingleFlight<K, V> {
+
+    private final String name;
+    private final UnaryOperator<V> shareCopy;
+    private final Map<K, CompletableFuture<V>> inFlight = new ConcurrentHashMap<>();
+    private final LongAdder calls = new LongAdder();
+    private final LongAdder sharedCalls = new LongAdder();
+
+    /**
+     * Constructor for creating a SingleFlight object.
+     *
+     * @param name      name for monitoring, e.g. "findBooks"
+     * @param shareCopy copies the result for each waiting caller (identity for immutable
+     *                  or read-only results)
+     */
+    public SingleFlight(String name, UnaryOperator<V> shareCopy) {
+        this.name = name;
+        this.shareCopy = shareCopy;
+    }
+
+    /**
+     * Runs the call, or joins the call for the same key that is already in flight.
+     *
+     * @param key  identifies the read, e.g. the query with its parameters
+     * @param call the database call
+     * @return the result
+     * @throws SQLException if the call fails or the caller's deadline passes while waiting
+     */
+    public V call(K key, CircuitBreaker.SqlCall<V> call) throws SQLException {
+        calls.increment();
+        while (true) {
+            CompletableFuture<V> own = new CompletableFuture<>();
+            CompletableFuture<V> running = inFlight.putIfAbsent(key, own);
+            if (running == null) {
+                return run(key, own, call);
+            }
+            try {
+                V result = await(running);
+                sharedCalls.increment();
+                return shareCopy.apply(result);
+            } catch (SQLException e) {
+                Deadline deadline = Deadline.current();
+                boolean cancelledByOther = "57014".equals(e.getSQLState()) && (deadline == null || !deadline.isOver());
+                if (!cancelledByOther) {
+                    sharedCalls.increment();
+                    throw e;
+                }
+                // The caller that ran the query gave up; try again with our own budget
+                inFlight.remove(key, running);
+            }
+        }
+    }
+
+    private V run(K key, CompletableFuture<V> own, CircuitBreaker.SqlCall<V> call) throws SQLException {
+        try {
+            V result = call.call();
+            own.complete(result);
+            return result;
+        } catch (SQLException | RuntimeException | Error e) {
+            own.completeExceptionally(e);
+            throw e;
+        } finally {
+            inFlight.remove(key, own);
+        }
+    }
+
+    private V await(CompletableFuture<V> running) throws SQLException {
+        Deadline deadline = Deadline.current();
+        try {
+            if (deadline == null) {
+                return running.get();
+            }
+            return running.get(Math.max(0, deadline.remainingMillis()), TimeUnit.MILLISECONDS);
+        } catch (TimeoutException e) {
+            throw new DeadlineExceededException(deadline.getBudgetMillis());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new SQLException("Interrupted while waiting for a shared database call", e);
+        } catch (CancellationException e) {
+            throw new SQLException("Shared database call was cancelled", e);
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof SQLException sqlException) {
+                throw sqlException;
+            }
+            if (cause instanceof RuntimeException runtimeException) {
+                throw runtimeException;
+            }
+            if (cause instanceof Error error) {
+                throw error;
+            }
+            throw new SQLException(cause);
+        }
+    }
+
+    /**
+     * Detaches the call in flight for a key, so callers arriving after a write
+     * start a new call instead of sharing a result read before the write.
+     *
+     * @param key the key of the written data
+     */
+    public void forget(K key) {
+        inFlight.remove(key);
+    }
+
+    /**
+     * Returns the counters for monitoring.
+     *
+     * @return the statistics
+     */
+    public Stats getStats() {
+        return new Stats(name, calls.sum(), sharedCalls.sum(), inFlight.size());
+    }
+
+    /**
+     * Coalescing counters as reported by GET /health.
+     */
+    public static class Stats {
+        private final String name;
+        private final long calls;
+        private final long sharedCalls;
+        private final int inFlight;
+
+        public Stats(String name, long calls, long sharedCalls, int inFlight) {
+            this.name = name;
+            this.calls = calls;
+            this.sharedCalls = sharedCalls;
+            this.inFlight = inFlight;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        public long getCalls() {
+            return calls;
+        }
+
+        public long getSharedCalls() {
+            return sharedCalls;
+        }
+
+        public int getInFlight() {
+            return inFlight;
+        }
+    }
+}
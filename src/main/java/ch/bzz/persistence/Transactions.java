@@ -0,0 +1,125 @@
+package ch.bzz.persistence;
+
+import ch.bzz.util.AppConfig;
+import jakarta.persistence.EntityManager;
+import jakarta.persistence.EntityManagerFactory;
+import jakarta.persistence.Persistence;
+import jakarta.persistence.PersistenceException;
+import org.hibernate.JDBCException;
+import org.hibernate.Session;
+import org.hibernate.jdbc.ReturningWork;
+import java.sql.SQLException;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * JDBC transactions on the connection pool of the localPU persistence unit.
+ * All persistors run their work through the same instance, so every table shares one
+ * pool and, inside {@link DataSourceRouter#read}, the replica routing.
+ */
+public class Transactions {
+
+    private static Transactions instance;
+    private final DatabaseConfig databaseConfig;
+    private final DataSourceRouter router;
+    private final EntityManagerFactory entityManagerFactory;
+
+    private Transactions() {
+        databaseConfig = DatabaseConfig.getInstance();
+        router = DataSourceRouter.getInstance();
+        entityManagerFactory = Persistence.createEntityManagerFactory("localPU", connectionOverrides());
+    }
+
+    /**
+     * Gets the singleton instance of Transactions.
+     *
+     * @return Transactions instance
+     */
+    public static synchronized Transactions getInstance() {
+        if (instance == null) {
+            instance = new Transactions();
+        }
+        return instance;
+    }
+
+    /**
+     * Builds the persistence unit overrides from the shared database configuration.
+     *
+     * @return properties overriding persistence.xml
+     */
+    private Map<String, Object> connectionOverrides() {
+        Map<String, Object> overrides = new HashMap<>();
+        String driver = databaseConfig.isH2() ? "org.h2.Driver" : "org.postgresql.Driver";
+        overrides.put("jakarta.persistence.jdbc.driver", driver);
+        overrides.put("jakarta.persistence.jdbc.url", databaseConfig.getDbUrl());
+        overrides.put("jakarta.persistence.jdbc.user", databaseConfig.getDbUser());
+        overrides.put("jakarta.persistence.jdbc.password", databaseConfig.getDbPassword());
+        overrides.put("hibernate.connection.driver_class", driver);
+        overrides.put("hibernate.connection.url", databaseConfig.getDbUrl());
+        overrides.put("hibernate.connection.username", databaseConfig.getDbUser());
+        overrides.put("hibernate.connection.password", databaseConfig.getDbPassword());
+        if (router.hasReplicas()) {
+            overrides.put("hibernate.connection.provider_class", RoutingConnectionProvider.class.getName());
+        }
+
+        // SQL logging stays off unless explicitly enabled for development
+        String showSql = AppConfig.get("HIBERNATE_SHOW_SQL", "false");
+        overrides.put("hibernate.show_sql", showSql);
+        overrides.put("hibernate.format_sql", showSql);
+        return overrides;
+    }
+
+    /**
+     * Returns the factory of the persistence unit, for JPA queries and cache eviction.
+     *
+     * @return the entity manager factory
+     */
+    public EntityManagerFactory getEntityManagerFactory() {
+        return entityManagerFactory;
+    }
+
+    /**
+     * Runs JDBC work in a transaction on a pooled connection, without circuit breaker.
+     *
+     * @param work the work to run
+     * @param <T>  result type
+     * @return the result of the work
+     * @throws SQLException if the work or the commit fails
+     */
+    public <T> T run(ReturningWork<T> work) throws SQLException {
+        // Don't take a connection for a request that has already given up
+        Deadline.check();
+        EntityManager entityManager = entityManagerFactory.createEntityManager();
+        try {
+            entityManager.getTransaction().begin();
+            T result = entityManager.unwrap(Session.class).doReturningWork(work);
+            entityManager.getTransaction().commit();
+            return result;
+        } catch (PersistenceException e) {
+            if (entityManager.getTransaction().isActive()) {
+                entityManager.getTransaction().rollback();
+            }
+            throw toSqlException(e);
+        } catch (RuntimeException e) {
+            if (entityManager.getTransaction().isActive()) {
+                entityManager.getTransaction().rollback();
+            }
+            throw e;
+        } finally {
+            entityManager.close();
+        }
+    }
+
+    /**
+     * Converts a JPA exception into the SQLException used by the persistence API.
+     *
+     * @param e the exception thrown by JPA/Hibernate
+     * @return the underlying or a wrapping SQLException
+     */
+    static SQLException toSqlException(PersistenceException e) {
+        if (e instanceof JDBCException jdbcException && jdbcException.getSQLException() != null) {
+            return jdbcException.getSQLException();
+        }
+        return new SQLException(e.getMessage(), e);
+    }
+}
@@ -1,27 +1,36 @@
 package ch.bzz.persistence;
 
 import ch.bzz.model.User;
-import java.io.FileInputStream;
-import java.io.IOException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 import java.sql.Connection;
-import java.sql.DriverManager;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
-import java.util.Properties;
+import java.util.List;
 
 /**
  * Data access object for User entity operations.
  */
 public class UserPersistor {
+
+    private static final Logger log = LoggerFactory.getLogger(UserPersistor.class);
     
     private static UserPersistor instance;
-    private String dbUrl;
-    private String dbUser;
-    private String dbPassword;
+    private final DatabaseConfig databaseConfig;
+    private final CircuitBreaker circuitBreaker;
+    private final DataSourceRouter router;
+    private final Transactions transactions;
+    // Concurrent lookups of the same user share one query; each caller gets its own copy
+    private final SingleFlight<String, User> findByEmailFlight = new SingleFlight<>("findByEmail", UserPersistor::copy);
+    private final SingleFlight<Integer, User> findByIdFlight = new SingleFlight<>("findById", UserPersistor::copy);
     
-    private UserPersistor() {
-        loadConfig();
+    private UserPersistor(Transactions transactions) {
+        databaseConfig = DatabaseConfig.getInstance();
+        circuitBreaker = databaseConfig.getCircuitBreaker();
+        router = DataSourceRouter.getInstance();
+        // Replica connections inside router.read
+        this.transactions = transactions;
     }
     
     /**
@@ -29,106 +38,79 @@ public class UserPersistor {
      *
      * @return UserPersistor instance
      */
-    public static UserPersistor getInstance() {
+    public static synchronized UserPersistor getInstance() {
         if (instance == null) {
-            instance = new UserPersistor();
+            instance = new UserPersistor(Transactions.getInstance());
         }
         return instance;
     }
     
     /**
-     * Loads database configuration from config.properties file.
-     */
-    private void loadConfig() {
-        Properties config = new Properties();
-        try (FileInputStream input = new FileInputStream("config.properties")) {
-            config.load(input);
-            dbUrl = config.getProperty("DB_URL");
-            dbUser = config.getProperty("DB_USER");
-            dbPassword = config.getProperty("DB_PASSWORD");
-            
-            // Test PostgreSQL connection
-            try (Connection testConnection = DriverManager.getConnection(dbUrl, dbUser, dbPassword)) {
-                System.out.println("PostgreSQL connection successful");
-            } catch (SQLException e) {
-                System.err.println("PostgreSQL connection failed, falling back to H2: " + e.getMessage());
-                useH2Fallback();
-            }
-        } catch (IOException e) {
-            System.err.println("Error loading config.properties: " + e.getMessage());
-            System.err.println("Using H2 in-memory database as fallback");
-            useH2Fallback();
-        }
-    }
-    
-    /**
-     * Configures H2 in-memory database as fallback.
-     */
-    private void useH2Fallback() {
-        dbUrl = "jdbc:h2:mem:testdb;DB_CLOSE_DELAY=-1;DB_CLOSE_ON_EXIT=FALSE";
-        dbUser = "sa";
-        dbPassword = "";
-        System.out.println("Using H2 in-memory database");
-    }
-    
-    /**
-     * Finds a user by email address.
+     * Finds a user by email address. Served by a read replica if one is configured,
+     * except shortly after the user was saved (read-your-writes). Concurrent lookups
+     * of the same email share one query.
      *
      * @param email the email address to search for
      * @return User object if found, null otherwise
      * @throws SQLException if database error occurs
      */
     public User findByEmail(String email) throws SQLException {
-        String sql = "SELECT id, email, password_hash, password_salt FROM users WHERE email = ?";
-        
-        try (Connection connection = DriverManager.getConnection(dbUrl, dbUser, dbPassword);
-             PreparedStatement statement = connection.prepareStatement(sql)) {
-            
-            statement.setString(1, email);
-            
-            try (ResultSet resultSet = statement.executeQuery()) {
-                if (resultSet.next()) {
-                    User user = new User();
-                    user.setId(resultSet.getInt("id"));
-                    user.setEmail(resultSet.getString("email"));
-                    user.setPasswordHash(resultSet.getString("password_hash"));
-                    user.setPasswordSalt(resultSet.getString("password_salt"));
-                    return user;
-                }
-            }
-        }
-        
-        return null;
+        return findByEmailFlight.call(email, () -> router.read(emailKey(email),
+                () -> transactions.run(connection -> {
+                    String sql = "SELECT id, email, password_hash, password_salt FROM users WHERE email = ?";
+                
+                    try (PreparedStatement statement = connection.prepareStatement(sql)) {
+                    
+                        Deadline.apply(statement);
+                        statement.setString(1, email);
+                    
+                        try (ResultSet resultSet = statement.executeQuery()) {
+                            if (resultSet.next()) {
+                                User user = new User();
+                                user.setId(resultSet.getInt("id"));
+                                user.setEmail(resultSet.getString("email"));
+                                user.setPasswordHash(resultSet.getString("password_hash"));
+                                user.setPasswordSalt(resultSet.getString("password_salt"));
+                                return user;
+                            }
+                        }
+                    }
+                
+                    return null;
+                })));
     }
     
     /**
-     * Finds a user by ID.
+     * Finds a user by ID. Served by a read replica like {@link #findByEmail}.
      *
      * @param id the user ID to search for
      * @return User object if found, null otherwise
      * @throws SQLException if database error occurs
      */
     public User findById(Integer id) throws SQLException {
-        String sql = "SELECT id, email, password_hash, password_salt FROM users WHERE id = ?";
-        
-        try (Connection connection = DriverManager.getConnection(dbUrl, dbUser, dbPassword);
-             PreparedStatement statement = connection.prepareStatement(sql)) {
-            
-            statement.setInt(1, id);
-            
-            try (ResultSet resultSet = statement.executeQuery()) {
-                if (resultSet.next()) {
-                    User user = new User();
-                    user.setId(resultSet.getInt("id"));
-                    user.setEmail(resultSet.getString("email"));
-                    user.setPasswordHash(resultSet.getString("password_hash"));
-                    user.setPasswordSalt(resultSet.getString("password_salt"));
-                    return user;
-                }
-            }
-        }
-        
-        return null;
+        return findByIdFlight.call(id, () -> router.read(idKey(id),
+                () -> transactions.run(connection -> {
+                    String sql = "SELECT id, email, password_hash, password_salt FROM users WHERE id = ?";
+                
+                    try (PreparedStatement statement = connection.prepareStatement(sql)) {
+                    
+                        Deadline.apply(statement);
+                        statement.setInt(1, id);
+                    
+                        try (ResultSet resultSet = statement.executeQuery()) {
+                            if (resultSet.next()) {
+                                User user = new User();
+                                user.setId(resultSet.getInt("id"));
+                                user.setEmail(resultSet.getString("email"));
+                                user.setPasswordHash(resultSet.getString("password_hash"));
+                                user.setPasswordSalt(resultSet.getString("password_salt"));
+                                return user;
+                            }
+                        }
+                    }
+                
+                    return null;
+                })));
     }
     
     /**
@@ -138,39 +120,102 @@ public class UserPersistor {
      * @throws SQLException if database error occurs
      */
     public void save(User user) throws SQLException {
+        circuitBreaker.call(() -> transactions.run(connection -> {
+            write(connection, user);
+            return null;
+        }));
+        written(user);
+    }
+
+    /**
+     * Saves a changed password and revokes the user's earlier tokens in one transaction,
+     * so the password never changes while the old sessions stay valid or vice versa.
+     *
+     * @param user       the user with the new password hash
+     * @param revocation the user-wide revocation of the tokens issued before the change
+     * @throws SQLException if database error occurs; then neither is stored
+     */
+    public void changePassword(User user, RevokedToken revocation) throws SQLException {
+        RevokedTokenPersistor revokedTokenPersistor = RevokedTokenPersistor.getInstance();
+        circuitBreaker.call(() -> transactions.run(connection -> {
+            write(connection, user);
+            revokedTokenPersistor.save(connection, revocation);
+            return null;
+        }));
+        written(user);
+    }
+
+    private void write(Connection connection, User user) throws SQLException {
         if (user.getId() == null) {
             // Insert new user
-            String sql = "INSERT INTO users (email, password_hash, password_salt) VALUES (?, ?, ?) RETURNING id";
+            // Generated keys instead of RETURNING, which H2 does not support
+            String sql = "INSERT INTO users (email, password_hash, password_salt) VALUES (?, ?, ?)";
+        
+            try (PreparedStatement statement = connection.prepareStatement(sql, new String[] {"id"})) {
             
-            try (Connection connection = DriverManager.getConnection(dbUrl, dbUser, dbPassword);
-                 PreparedStatement statement = connection.prepareStatement(sql)) {
-                
+                Deadline.apply(statement);
                 statement.setString(1, user.getEmail());
                 statement.setString(2, user.getPasswordHash());
                 statement.setString(3, user.getPasswordSalt());
-                
-                try (ResultSet resultSet = statement.executeQuery()) {
+                statement.executeUpdate();
+            
+                try (ResultSet resultSet = statement.getGeneratedKeys()) {
                     if (resultSet.next()) {
-                        user.setId(resultSet.getInt("id"));
+                        user.setId(resultSet.getInt(1));
                     }
                 }
             }
         } else {
             // Update existing user
             String sql = "UPDATE users SET email = ?, password_hash = ?, password_salt = ? WHERE id = ?";
+        
+            try (PreparedStatement statement = connection.prepareStatement(sql)) {
             
-            try (Connection connection = DriverManager.getConnection(dbUrl, dbUser, dbPassword);
-                 PreparedStatement statement = connection.prepareStatement(sql)) {
-                
+                Deadline.apply(statement);
                 statement.setString(1, user.getEmail());
                 statement.setString(2, user.getPasswordHash());
                 statement.setString(3, user.getPasswordSalt());
                 statement.setInt(4, user.getId());
-                
+            
                 statement.executeUpdate();
             }
         }
     }
+
+    private void written(User user) {
+        // Reads of this user go to the primary until the replicas have caught up,
+        // and lookups started before the write are not shared with later callers
+        router.markWritten(idKey(user.getId()));
+        router.markWritten(emailKey(user.getEmail()));
+        findByIdFlight.forget(user.getId());
+        findByEmailFlight.forget(user.getEmail());
+    }
+
+    /**
+     * Returns the coalescing counters of the user lookups for monitoring.
+     *
+     * @return the statistics of findByEmail and findById
+     */
+    public List<SingleFlight.Stats> getLookupStats() {
+        return List.of(findByEmailFlight.getStats(), findByIdFlight.getStats());
+    }
+
+    private static User copy(User user) {
+        if (user == null) {
+            return null;
+        }
+        User copy = new User(user.getEmail(), user.getPasswordHash(), user.getPasswordSalt());
+        copy.setId(user.getId());
+        return copy;
+    }
+
+    private static String idKey(Integer id) {
+        return "user:" + id;
+    }
+
+    private static String emailKey(String email) {
+        return "user:" + email;
+    }
     
     /**
      * Creates the users table if it doesn't exist.
@@ -180,7 +225,7 @@ public class UserPersistor {
         String sql;
         
         // Different SQL for different databases
-        if (dbUrl.contains("h2")) {
+        if (databaseConfig.isH2()) {
             sql = """
                 CREATE TABLE IF NOT EXISTS users (
                     id INT AUTO_INCREMENT PRIMARY KEY,
@@ -203,15 +248,16 @@ public class UserPersistor {
                 """;
         }
         
-        try (Connection connection = DriverManager.getConnection(dbUrl, dbUser, dbPassword);
-             PreparedStatement statement = connection.prepareStatement(sql)) {
-            
-            statement.executeUpdate();
-            System.out.println("Users table created or already exists.");
+        try {
+            transactions.run(connection -> {
+                try (PreparedStatement statement = connection.prepareStatement(sql)) {
+                    return statement.executeUpdate();
+                }
+            });
+            log.info("Users table created or already exists.");
             
         } catch (SQLException e) {
-            System.err.println("Error creating users table: " + e.getMessage());
-            e.printStackTrace();
+            log.error("Error creating users table", e);
         }
     }
 }
@@ -0,0 +1,171 @@
+package ch.bzz.util;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Concurrency limit for a group of routes (bulkhead) that adapts to the observed latency.
+ *
+ * A request is admitted while fewer than limit requests of the group are in flight and
+ * rejected immediately otherwise. The limit follows AIMD (additive increase,
+ * multiplicative decrease): every request that completes within the latency target while
+ * the group is at least half utilized raises the limit by 1/limit, i.e. by about one per
+ * limit completions; a request slower than the target lowers it by the backoff ratio, at
+ * most once per latency target, since the requests in flight at that moment were slowed
+ * down by the same cause. With minLimit == maxLimit the limit is fixed.
+ */
+public class AdaptiveLimiter {
+
+    private static final Logger log = LoggerFactory.getLogger(AdaptiveLimiter.class);
+
+    private static final double BACKOFF_RATIO = 0.9;
+
+    private final String name;
+    private final int minLimit;
+    private final int maxLimit;
+    private final long latencyTargetNanos;
+    private final AtomicInteger inFlight = new AtomicInteger();
+    private final LongAdder rejectedRequests = new LongAdder();
+    private volatile double limit;
+    private long lastDecrease;
+
+    /**
+     * Constructor for creating an AdaptiveLimiter object.
+     *
+     * @param name            name for logs and monitoring, e.g. "books"
+     * @param initialLimit    limit at startup
+     * @param minLimit        lowest limit the latency can push it to
+     * @param maxLimit        highest limit
+     * @param latencyTargetMs latency above which the limit is lowered
+     */
+    public AdaptiveLimiter(String name, int initialLimit, int minLimit, int maxLimit, long latencyTargetMs) {
+        if (minLimit < 1 || maxLimit < minLimit) {
+            throw new IllegalArgumentException("Invalid limits for " + name + ": min " + minLimit + ", max " + maxLimit);
+        }
+        this.name = name;
+        this.minLimit = minLimit;
+        this.maxLimit = maxLimit;
+        this.latencyTargetNanos = TimeUnit.MILLISECONDS.toNanos(latencyTargetMs);
+        this.limit = Math.max(minLimit, Math.min(maxLimit, initialLimit));
+        this.lastDecrease = System.nanoTime() - latencyTargetNanos;
+    }
+
+    /**
+     * Admits a request if the group is below its limit.
+     * Every admitted request must be followed by exactly one {@link #release(long)}.
+     *
+     * @return true if the request may run, false if it must be rejected
+     */
+    public boolean tryAcquire() {
+        while (true) {
+            int current = inFlight.get();
+            if (current >= (int) limit) {
+                rejectedRequests.increment();
+                return false;
+            }
+            if (inFlight.compareAndSet(current, current + 1)) {
+                return true;
+            }
+        }
+    }
+
+    /**
+     * Ends an admitted request and adapts the limit to its latency.
+     *
+     * @param latencyNanos time the request took
+     */
+    public void release(long latencyNanos) {
+        int before = inFlight.getAndDecrement();
+        if (minLimit == maxLimit) {
+            return;
+        }
+        adapt(latencyNanos > latencyTargetNanos, before);
+    }
+
+    private synchronized void adapt(boolean slow, int inFlightBefore) {
+        double current = limit;
+        if (slow) {
+            long now = System.nanoTime();
+            if (now - lastDecrease < latencyTargetNanos) {
+                return;
+            }
+            lastDecrease = now;
+            limit = Math.max(minLimit, current * BACKOFF_RATIO);
+            if ((int) limit < (int) current) {
+                log.debug("Bulkhead {}: limit lowered to {} ({} in flight)", name, (int) limit, inFlightBefore);
+            }
+        } else if (inFlightBefore * 2 >= current) {
+            // Only grow while the limit is actually used, otherwise it says nothing about capacity
+            limit = Math.min(maxLimit, current + 1 / current);
+        }
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * Gets the current limit and counters, e.g. for GET /health.
+     *
+     * @return the limiter status
+     */
+    public Status getStatus() {
+        return new Status(name, (int) limit, minLimit, maxLimit,
+                TimeUnit.NANOSECONDS.toMillis(latencyTargetNanos), inFlight.get(), rejectedRequests.sum());
+    }
+
+    /**
+     * Limiter state as reported by GET /health.
+     */
+    public static class Status {
+        private final String name;
+        private final int limit;
+        private final int minLimit;
+        private final int maxLimit;
+        private final long latencyTargetMs;
+        private final int inFlight;
+        private final long rejectedRequests;
+
+        public Status(String name, int limit, int minLimit, int maxLimit, long latencyTargetMs, int inFlight,
+                      long rejectedRequests) {
+            this.name = name;
+            this.limit = limit;
+            this.minLimit = minLimit;
+            this.maxLimit = maxLimit;
+            this.latencyTargetMs = latencyTargetMs;
+            this.inFlight = inFlight;
+            this.rejectedRequests = rejectedRequests;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        public int getLimit() {
+            return limit;
+        }
+
+        public int getMinLimit() {
+            return minLimit;
+        }
+
+        public int getMaxLimit() {
+            return maxLimit;
+        }
+
+        public long getLatencyTargetMs() {
+            return latencyTargetMs;
+        }
+
+        public int getInFlight() {
+            return inFlight;
+        }
+
+        public long getRejectedRequests() {
+            return rejectedRequests;
+        }
+    }
+}
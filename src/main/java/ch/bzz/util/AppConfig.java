@@ -0,0 +1,107 @@
+package ch.bzz.util;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.util.Properties;
+
+/**
+ * Central access to the application configuration.
+ * Values are read from config.properties; a JVM system property with the same
+ * key takes precedence, which lets tools and tests run the app without editing the file.
+ */
+public class AppConfig {
+
+    private static final Logger log = LoggerFactory.getLogger(AppConfig.class);
+
+    private static final String CONFIG_FILE = "config.properties";
+
+    private static volatile Properties properties;
+
+    private AppConfig() {}
+
+    /**
+     * Returns a configuration value.
+     *
+     * @param key          the configuration key (e.g. DB_URL)
+     * @param defaultValue value returned if the key is not configured
+     * @return the configured value or the default value
+     */
+    public static String get(String key, String defaultValue) {
+        String value = System.getProperty(key);
+        if (value == null) {
+            value = load().getProperty(key);
+        }
+        return value != null && !value.isBlank() ? value.trim() : defaultValue;
+    }
+
+    /**
+     * Returns a configuration value as int.
+     *
+     * @param key          the configuration key
+     * @param defaultValue value returned if the key is missing or not a number
+     * @return the configured value or the default value
+     */
+    public static int getInt(String key, int defaultValue) {
+        String value = get(key, null);
+        if (value == null) {
+            return defaultValue;
+        }
+        try {
+            return Integer.parseInt(value);
+        } catch (NumberFormatException e) {
+            log.warn("Invalid number for {}: {}, using {}", key, value, defaultValue);
+            return defaultValue;
+        }
+    }
+
+    /**
+     * Returns a configuration value as double.
+     *
+     * @param key          the configuration key
+     * @param defaultValue value returned if the key is missing or not a number
+     * @return the configured value or the default value
+     */
+    public static double getDouble(String key, double defaultValue) {
+        String value = get(key, null);
+        if (value == null) {
+            return defaultValue;
+        }
+        try {
+            return Double.parseDouble(value);
+        } catch (NumberFormatException e) {
+            log.warn("Invalid number for {}: {}, using {}", key, value, defaultValue);
+            return defaultValue;
+        }
+    }
+
+    /**
+     * Returns true if the key is set either in config.properties or as system property.
+     *
+     * @param key the configuration key
+     * @return true if a value is present
+     */
+    public static boolean isSet(String key) {
+        return get(key, null) != null;
+    }
+
+    private static Properties load() {
+        Properties loaded = properties;
+        if (loaded == null) {
+            synchronized (AppConfig.class) {
+                loaded = properties;
+                if (loaded == null) {
+                    loaded = new Properties();
+                    try (FileInputStream input = new FileInputStream(CONFIG_FILE)) {
+                        loaded.load(input);
+                    } catch (IOException e) {
+                        log.warn("Error loading {}: {}", CONFIG_FILE, e.getMessage());
+                    }
+                    properties = loaded;
+                }
+            }
+        }
+        return loaded;
+    }
+}
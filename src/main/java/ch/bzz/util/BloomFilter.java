@@ -0,0 +1,123 @@
+package ch.bzz.util;
+
+/**
+ * Fixed-size Bloom filter over 64-bit key hashes.
+ * Answers "definitely not seen" or "possibly seen" with a false positive rate that
+ * depends on the number of keys added. The memory use is fixed when the filter is
+ * created and never grows, so it can track far more keys than fit on the heap as
+ * objects; callers confirm "possibly seen" answers with an exact check.
+ *
+ * Not thread-safe.
+ */
+public class BloomFilter {
+
+    private final long[] words;
+    private final long bitCount;
+    private final int hashCount;
+
+    /**
+     * Creates a filter sized for the expected number of keys and false positive rate.
+     * If that would exceed maxBytes the filter is capped, which raises the false
+     * positive rate but keeps the memory bounded.
+     *
+     * @param expectedKeys      number of keys that will be added
+     * @param falsePositiveRate target false positive rate, e.g. 0.01
+     * @param maxBytes          upper limit for the bit array in bytes
+     */
+    public BloomFilter(long expectedKeys, double falsePositiveRate, long maxBytes) {
+        long keys = Math.max(1, expectedKeys);
+        long optimalBits = (long) Math.ceil(-keys * Math.log(falsePositiveRate) / (Math.log(2) * Math.log(2)));
+        long maxBits = Math.min(maxBytes * 8, (long) (Integer.MAX_VALUE - 8) * 64);
+        long bits = Math.max(64, Math.min(optimalBits, maxBits));
+
+        this.words = new long[(int) ((bits + 63) / 64)];
+        this.bitCount = words.length * 64L;
+        this.hashCount = (int) Math.max(1, Math.min(16, Math.round((double) bitCount / keys * Math.log(2))));
+    }
+
+    /**
+     * Adds a key.
+     *
+     * @param hash 64-bit hash of the key (see hash methods)
+     * @return true if the key was possibly added before, false if it was definitely new
+     */
+    public boolean put(long hash) {
+        long h1 = hash;
+        long h2 = mix(hash ^ 0x9E3779B97F4A7C15L) | 1;
+        boolean allSet = true;
+        for (int i = 0; i < hashCount; i++) {
+            long bit = ((h1 + i * h2) & Long.MAX_VALUE) % bitCount;
+            int word = (int) (bit >>> 6);
+            long mask = 1L << bit;
+            if ((words[word] & mask) == 0) {
+                allSet = false;
+                words[word] |= mask;
+            }
+        }
+        return allSet;
+    }
+
+    /**
+     * Checks whether a key was possibly added.
+     *
+     * @param hash 64-bit hash of the key
+     * @return false if the key was definitely never added
+     */
+    public boolean mightContain(long hash) {
+        long h1 = hash;
+        long h2 = mix(hash ^ 0x9E3779B97F4A7C15L) | 1;
+        for (int i = 0; i < hashCount; i++) {
+            long bit = ((h1 + i * h2) & Long.MAX_VALUE) % bitCount;
+            if ((words[(int) (bit >>> 6)] & (1L << bit)) == 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Returns the memory used by the bit array.
+     *
+     * @return size in bytes
+     */
+    public long getByteSize() {
+        return words.length * 8L;
+    }
+
+    /**
+     * Hashes a string key (FNV-1a over the UTF-16 chars, then mixed).
+     *
+     * @param key the key
+     * @return 64-bit hash
+     */
+    public static long hash(CharSequence key) {
+        long hash = 0xcbf29ce484222325L;
+        for (int i = 0; i < key.length(); i++) {
+            hash ^= key.charAt(i);
+            hash *= 0x100000001b3L;
+        }
+        return mix(hash);
+    }
+
+    /**
+     * Hashes a numeric key.
+     *
+     * @param key the key
+     * @return 64-bit hash
+     */
+    public static long hash(long key) {
+        return mix(key);
+    }
+
+    /**
+     * Finalization step of MurmurHash3; spreads every input bit over the whole word.
+     */
+    private static long mix(long value) {
+        value ^= value >>> 33;
+        value *= 0xff51afd7ed558ccdL;
+        value ^= value >>> 33;
+        value *= 0xc4ceb93fe1a85ec3L;
+        value ^= value >>> 33;
+        return value;
+    }
+}
@@ -0,0 +1,88 @@
+package ch.bzz.util;
+
+import ch.bzz.model.Book;
+import java.io.IOException;
+import java.io.Writer;
+
+/**
+ * The tab-separated book format of data/books.tsv, shared by import and export.
+ * One header line followed by one line per book with the columns
+ * id, isbn, title, author and publication_year.
+ */
+public class BookTsv {
+
+    public static final String HEADER = "id\tisbn\ttitle\tauthor\tpublication_year";
+
+    private BookTsv() {}
+
+    /**
+     * Parses a data line (not the header) into a book. Values are trimmed.
+     *
+     * @param line the TSV line
+     * @return the book
+     * @throws IllegalArgumentException if the line has fewer than 5 columns or an invalid number
+     */
+    public static Book parseLine(String line) {
+        String[] parts = line.split("\t");
+        if (parts.length < 5) {
+            throw new IllegalArgumentException("Invalid line format (expected 5 columns): " + line);
+        }
+        try {
+            int id = Integer.parseInt(parts[0].trim());
+            int year = Integer.parseInt(parts[4].trim());
+            return new Book(id, parts[1].trim(), parts[2].trim(), parts[3].trim(), year);
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Invalid number format in line: " + line);
+        }
+    }
+
+    /**
+     * Writes one book as a TSV line, optionally followed by extra columns.
+     * Control characters inside values (tabs, line breaks) are replaced by spaces, so every
+     * book stays one line. The PostgreSQL export applies the same rule in SQL.
+     *
+     * @param writer destination
+     * @param id     book ID
+     * @param isbn   ISBN
+     * @param title  title
+     * @param author author
+     * @param year   publication year
+     * @param extra  additional columns after the book columns
+     * @throws IOException if writing fails
+     */
+    public static void writeLine(Writer writer, int id, String isbn, String title, String author, int year,
+                                 String... extra) throws IOException {
+        writer.write(Integer.toString(id));
+        writer.write('\t');
+        writer.write(clean(isbn));
+        writer.write('\t');
+        writer.write(clean(title));
+        writer.write('\t');
+        writer.write(clean(author));
+        writer.write('\t');
+        writer.write(Integer.toString(year));
+        for (String value : extra) {
+            writer.write('\t');
+            writer.write(clean(value));
+        }
+        writer.write('\n');
+    }
+
+    private static String clean(String value) {
+        if (value == null) {
+            return "";
+        }
+        for (int i = 0; i < value.length(); i++) {
+            if (value.charAt(i) < ' ') {
+                char[] chars = value.toCharArray();
+                for (int j = i; j < chars.length; j++) {
+                    if (chars[j] < ' ') {
+                        chars[j] = ' ';
+                    }
+                }
+                return new String(chars);
+            }
+        }
+        return value;
+    }
+}
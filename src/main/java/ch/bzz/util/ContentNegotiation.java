@@ -0,0 +1,128 @@
+package ch.bzz.util;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.core.StreamReadFeature;
+import com.fasterxml.jackson.core.StreamWriteFeature;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.json.JsonMapper;
+import com.fasterxml.jackson.dataformat.cbor.databind.CBORMapper;
+import com.fasterxml.jackson.dataformat.smile.databind.SmileMapper;
+import io.javalin.http.Context;
+
+/**
+ * Writes response payloads in the format requested by the Accept header.
+ * JSON stays the default; service clients can ask for the binary Jackson
+ * formats Smile or CBOR, which are smaller and cheaper to parse.
+ */
+public class ContentNegotiation {
+
+    public static final String JSON = "application/json";
+    public static final String SMILE = "application/x-jackson-smile";
+    public static final String CBOR = "application/cbor";
+
+    private ContentNegotiation() {}
+
+    // The one JSON mapper of the application (responses, request bodies, change feed).
+    // ObjectMapper is thread-safe and caches serializers per type, so it must be shared.
+    private static final ObjectMapper JSON_MAPPER = JsonMapper.builder()
+            .enable(StreamWriteFeature.USE_FAST_DOUBLE_WRITER)
+            .enable(StreamReadFeature.USE_FAST_DOUBLE_PARSER)
+            .build();
+
+    // Holder classes: the binary format modules are only loaded when a client asks for them
+    private static final class Smile {
+        static final ObjectMapper MAPPER = new SmileMapper();
+    }
+
+    private static final class Cbor {
+        static final ObjectMapper MAPPER = new CBORMapper();
+    }
+
+    /**
+     * Writes the body as JSON, Smile or CBOR depending on the Accept header.
+     *
+     * @param ctx  Javalin context (status must already be set)
+     * @param body the object to serialize
+     */
+    public static void respond(Context ctx, Object body) {
+        ctx.header("Vary", "Accept");
+        String format = selectFormat(ctx.header("Accept"));
+        try {
+            switch (format) {
+                case SMILE -> ctx.contentType(SMILE).result(Smile.MAPPER.writeValueAsBytes(body));
+                case CBOR -> ctx.contentType(CBOR).result(Cbor.MAPPER.writeValueAsBytes(body));
+                // Written to a byte array on the request thread (ctx.json would pipe through a helper thread)
+                default -> ctx.contentType(JSON).result(JSON_MAPPER.writeValueAsBytes(body));
+            }
+        } catch (JsonProcessingException e) {
+            throw new IllegalStateException("Could not serialize response as " + format, e);
+        }
+    }
+
+    /**
+     * Returns the shared JSON mapper.
+     *
+     * @return the mapper used for all JSON of the application
+     */
+    public static ObjectMapper jsonMapper() {
+        return JSON_MAPPER;
+    }
+
+    /**
+     * Returns the mapper for a binary format.
+     *
+     * @param format SMILE or CBOR
+     * @return the shared mapper for the format
+     */
+    public static ObjectMapper binaryMapper(String format) {
+        return SMILE.equals(format) ? Smile.MAPPER : Cbor.MAPPER;
+    }
+
+    /**
+     * Picks the supported media type with the highest quality value.
+     * Ties are resolved in header order; anything unknown falls back to JSON.
+     *
+     * @param accept the Accept header (may be null)
+     * @return JSON, SMILE or CBOR
+     */
+    static String selectFormat(String accept) {
+        if (accept == null || accept.isEmpty()) {
+            return JSON;
+        }
+        String best = JSON;
+        double bestQuality = -1;
+        for (String part : accept.split(",")) {
+            String[] params = part.split(";");
+            String mediaType = params[0].trim().toLowerCase();
+            String format = switch (mediaType) {
+                case SMILE, "application/smile" -> SMILE;
+                case CBOR -> CBOR;
+                case JSON, "*/*", "application/*" -> JSON;
+                default -> null;
+            };
+            if (format == null) {
+                continue;
+            }
+            double quality = quality(params);
+            if (quality > 0 && quality > bestQuality) {
+                best = format;
+                bestQuality = quality;
+            }
+        }
+        return best;
+    }
+
+    private static double quality(String[] params) {
+        for (int i = 1; i < params.length; i++) {
+            String param = params[i].trim();
+            if (param.startsWith("q=")) {
+                try {
+                    return Double.parseDouble(param.substring(2));
+                } catch (NumberFormatException e) {
+                    return 0;
+                }
+            }
+        }
+        return 1;
+    }
+}
@@ -0,0 +1,56 @@
+package ch.bzz.util;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Adds the number of bytes read to a shared counter, e.g. to report the progress
+ * of several files being read on different threads.
+ */
+public class CountingInputStream extends FilterInputStream {
+
+    private final AtomicLong counter;
+
+    /**
+     * Constructor for creating a CountingInputStream object.
+     *
+     * @param in      the stream to count
+     * @param counter counter the bytes read are added to
+     */
+    public CountingInputStream(InputStream in, AtomicLong counter) {
+        super(in);
+        this.counter = counter;
+    }
+
+    @Override
+    public int read() throws IOException {
+        int value = super.read();
+        if (value >= 0) {
+            counter.incrementAndGet();
+        }
+        return value;
+    }
+
+    @Override
+    public int read(byte[] buffer, int offset, int length) throws IOException {
+        int count = super.read(buffer, offset, length);
+        if (count > 0) {
+            counter.addAndGet(count);
+        }
+        return count;
+    }
+
+    @Override
+    public long skip(long n) throws IOException {
+        long skipped = super.skip(n);
+        counter.addAndGet(skipped);
+        return skipped;
+    }
+
+    @Override
+    public boolean markSupported() {
+        return false;
+    }
+}
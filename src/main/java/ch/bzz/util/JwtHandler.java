@@ -5,6 +5,7 @@ import io.jsonwebtoken.Jwts;
 import io.jsonwebtoken.security.Keys;
 import javax.crypto.SecretKey;
 import java.util.Date;
+import java.util.UUID;
 
 /**
  * Utility class for JWT token creation and validation.
@@ -26,10 +27,13 @@ public class JwtHandler {
      * @return JWT token string
      */
     public static String createJwt(String email, Integer userId) {
-        Date now = new Date();
+        // Not before a revocation of the user's tokens, which is up to a second ahead after a password change
+        Date now = new Date(Math.max(System.currentTimeMillis(),
+                TokenRevocationList.getInstance().getRevokedBefore(userId)));
         Date expiration = new Date(now.getTime() + EXPIRATION_TIME);
         
         return Jwts.builder()
+                .id(UUID.randomUUID().toString())
                 .subject(email)
                 .claim("userId", userId)
                 .issuedAt(now)
@@ -43,11 +47,12 @@ public class JwtHandler {
      *
      * @param token the JWT token string
      * @return Claims object containing the token data
-     * @throws RuntimeException if token is invalid or expired
+     * @throws RuntimeException if token is invalid, expired or revoked
      */
     public static Claims validateAndParseJwt(String token) {
+        Claims claims;
         try {
-            return Jwts.parser()
+            claims = Jwts.parser()
                     .verifyWith(JWT_KEY)
                     .build()
                     .parseSignedClaims(token)
@@ -55,6 +60,21 @@ public class JwtHandler {
         } catch (Exception e) {
             throw new RuntimeException("Invalid or expired JWT token", e);
         }
+        Date issuedAt = claims.getIssuedAt();
+        if (TokenRevocationList.getInstance().isRevoked(claims.getId(), claims.get("userId", Integer.class),
+                issuedAt != null ? issuedAt.getTime() : 0)) {
+            throw new RuntimeException("JWT token has been revoked");
+        }
+        return claims;
+    }
+
+    /**
+     * Gets the lifetime of issued tokens, i.e. how long a revocation must be kept.
+     *
+     * @return token lifetime in milliseconds
+     */
+    public static long getExpirationTime() {
+        return EXPIRATION_TIME;
     }
     
     /**
@@ -1,5 +1,7 @@
 package ch.bzz.util;
 
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 import javax.crypto.SecretKeyFactory;
 import javax.crypto.spec.PBEKeySpec;
 import java.security.NoSuchAlgorithmException;
@@ -12,6 +14,8 @@ import java.util.Arrays;
  * Utility class for password hashing and verification using PBKDF2.
  */
 public class PasswordHandler {
+
+    private static final Logger log = LoggerFactory.getLogger(PasswordHandler.class);
     
     private static final String ALGORITHM = "PBKDF2WithHmacSHA256";
     private static final int ITERATIONS = 10000;
@@ -62,7 +66,7 @@ public class PasswordHandler {
             return Arrays.equals(computedHash, storedHash);
         } catch (Exception e) {
             // Log error and return false for security
-            System.err.println("Error verifying password: " + e.getMessage());
+            log.error("Error verifying password", e);
             return false;
         }
     }
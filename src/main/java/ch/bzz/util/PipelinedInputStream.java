@@ -0,0 +1,140 @@
+package ch.bzz.util;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.util.Arrays;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+/**
+ * Reads a source stream on a separate thread and hands the data over in chunks
+ * through a bounded queue. Expensive reads such as decompression then run in
+ * parallel with whatever consumes this stream (e.g. parsing), and the queue
+ * bounds how far the reading thread can run ahead.
+ *
+ * Errors of the source are rethrown to the consumer once the data read before
+ * the error has been consumed. Closing this stream stops the reading thread and
+ * closes the source.
+ */
+public class PipelinedInputStream extends InputStream {
+
+    private static final byte[] END = new byte[0];
+
+    private final InputStream source;
+    private final int chunkSize;
+    private final BlockingQueue<byte[]> chunks;
+    private final Thread reader;
+    private volatile IOException failure;
+    private volatile boolean closed;
+    private byte[] current;
+    private int position;
+
+    /**
+     * Creates the stream and starts the reading thread.
+     *
+     * @param source       the stream to read ahead
+     * @param chunkSize    bytes per chunk
+     * @param queuedChunks maximum number of chunks read ahead
+     * @param threadName   name of the reading thread
+     */
+    public PipelinedInputStream(InputStream source, int chunkSize, int queuedChunks, String threadName) {
+        this.source = source;
+        this.chunkSize = chunkSize;
+        this.chunks = new ArrayBlockingQueue<>(Math.max(1, queuedChunks));
+        this.reader = new Thread(this::readSource, threadName);
+        reader.setDaemon(true);
+        reader.start();
+    }
+
+    private void readSource() {
+        try {
+            while (!closed) {
+                byte[] chunk = new byte[chunkSize];
+                int length = source.readNBytes(chunk, 0, chunkSize);
+                if (length > 0) {
+                    chunks.put(length < chunkSize ? Arrays.copyOf(chunk, length) : chunk);
+                }
+                // readNBytes only returns less than requested at the end of the stream
+                if (length < chunkSize) {
+                    break;
+                }
+            }
+        } catch (IOException e) {
+            failure = e;
+        } catch (InterruptedException e) {
+            // closed by the consumer
+            return;
+        } finally {
+            try {
+                source.close();
+            } catch (IOException ignored) {
+                // nothing left to read from it
+            }
+        }
+        try {
+            chunks.put(END);
+        } catch (InterruptedException ignored) {
+            // closed by the consumer
+        }
+    }
+
+    private boolean fill() throws IOException {
+        if (current == END) {
+            return false;
+        }
+        if (current != null && position < current.length) {
+            return true;
+        }
+        if (closed) {
+            throw new IOException("Stream closed");
+        }
+        try {
+            current = chunks.take();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting for data");
+        }
+        position = 0;
+        if (current == END) {
+            if (failure != null) {
+                throw new IOException(failure.getMessage(), failure);
+            }
+            return false;
+        }
+        return true;
+    }
+
+    @Override
+    public int read() throws IOException {
+        return fill() ? current[position++] & 0xff : -1;
+    }
+
+    @Override
+    public int read(byte[] buffer, int offset, int length) throws IOException {
+        if (length == 0) {
+            return 0;
+        }
+        if (!fill()) {
+            return -1;
+        }
+        int count = Math.min(length, current.length - position);
+        System.arraycopy(current, position, buffer, offset, count);
+        position += count;
+        return count;
+    }
+
+    @Override
+    public int available() {
+        return current == null || current == END ? 0 : current.length - position;
+    }
+
+    @Override
+    public void close() {
+        if (!closed) {
+            closed = true;
+            reader.interrupt();
+            chunks.clear();
+        }
+    }
+}
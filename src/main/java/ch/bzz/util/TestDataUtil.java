@@ -2,6 +2,8 @@ package ch.bzz.util;
 
 import ch.bzz.model.User;
 import ch.bzz.persistence.UserPersistor;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 import java.sql.SQLException;
 import java.util.Base64;
 
@@ -9,6 +11,8 @@ import java.util.Base64;
  * Utility class for creating test data.
  */
 public class TestDataUtil {
+
+    private static final Logger log = LoggerFactory.getLogger(TestDataUtil.class);
     
     /**
      * Creates a test user in the database if it doesn't exist.
@@ -22,7 +26,7 @@ public class TestDataUtil {
             // Check if test user already exists
             User existingUser = userPersistor.findByEmail("test@example.com");
             if (existingUser != null) {
-                System.out.println("Test user already exists: test@example.com");
+                log.debug("Test user already exists: test@example.com");
                 return;
             }
             
@@ -36,12 +40,10 @@ public class TestDataUtil {
             );
             
             userPersistor.save(testUser);
-            System.out.println("Test user created successfully:");
-            System.out.println("  Email: test@example.com");
-            System.out.println("  Password: password123");
+            log.info("Test user created successfully: test@example.com / password123");
             
         } catch (SQLException e) {
-            System.err.println("Error creating test user: " + e.getMessage());
+            log.error("Error creating test user: {}", e.getMessage());
         }
     }
     
@@ -68,7 +70,7 @@ public class TestDataUtil {
                 // Check if user already exists
                 User existingUser = userPersistor.findByEmail(email);
                 if (existingUser != null) {
-                    System.out.println("Test user already exists: " + email);
+                    log.debug("Test user already exists: {}", email);
                     continue;
                 }
                 
@@ -82,10 +84,10 @@ public class TestDataUtil {
                 );
                 
                 userPersistor.save(user);
-                System.out.println("Test user created: " + email + " (password: " + password + ")");
+                log.info("Test user created: {} (password: {})", email, password);
                 
             } catch (SQLException e) {
-                System.err.println("Error creating test user " + userData[0] + ": " + e.getMessage());
+                log.error("Error creating test user {}: {}", userData[0], e.getMessage());
             }
         }
     }
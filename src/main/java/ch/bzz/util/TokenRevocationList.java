@@ -0,0 +1,216 @@
+package ch.bzz.util;
+
+import ch.bzz.persistence.RevokedToken;
+import ch.bzz.persistence.RevokedTokenPersistor;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import java.sql.SQLException;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * In-memory view of the JWT revocations, consulted on every token validation.
+ *
+ * Revoked token IDs are kept in an exact set with a Bloom filter in front of it, so
+ * the check for a token that was not revoked - nearly all of them - is a few hash
+ * probes into a bit array without touching the set. The filter is rebuilt from the
+ * set and never modified after it is published, so readers need no locking; IDs
+ * revoked since the last rebuild are checked against the set directly until the next
+ * rebuild. User-wide revocations (password change) are a map from user ID to the
+ * time before which that user's tokens are revoked.
+ *
+ * Revocations are written to the database first and dropped once every token they
+ * cover has expired. A background task removes expired entries and reloads the
+ * database, which picks up revocations made by other server instances.
+ */
+public class TokenRevocationList {
+
+    private static final Logger log = LoggerFactory.getLogger(TokenRevocationList.class);
+
+    private static final TokenRevocationList INSTANCE = new TokenRevocationList();
+
+    private static final double FALSE_POSITIVE_RATE = 0.001;
+    private static final long MAX_FILTER_BYTES = 16L * 1024 * 1024;
+    private static final int MIN_FILTER_KEYS = 1024;
+    // Revocations since the last rebuild after which the filter is rebuilt right away
+    private static final int REBUILD_THRESHOLD = 64;
+
+    private final Map<String, Long> revokedIds = new ConcurrentHashMap<>();
+    private final Map<Integer, RevokedToken> userRevocations = new ConcurrentHashMap<>();
+    private volatile BloomFilter filter = new BloomFilter(MIN_FILTER_KEYS, FALSE_POSITIVE_RATE, MAX_FILTER_BYTES);
+    private volatile int addedSinceRebuild;
+    private ScheduledExecutorService scheduler;
+
+    private TokenRevocationList() {}
+
+    /**
+     * Gets the singleton instance of TokenRevocationList.
+     *
+     * @return TokenRevocationList instance
+     */
+    public static TokenRevocationList getInstance() {
+        return INSTANCE;
+    }
+
+    /**
+     * Checks whether a token has been revoked.
+     *
+     * @param tokenId  the jti claim (null for tokens issued without ID)
+     * @param userId   the userId claim (may be null)
+     * @param issuedAt the iat claim in epoch ms
+     * @return true if the token must be rejected
+     */
+    public boolean isRevoked(String tokenId, Integer userId, long issuedAt) {
+        if (tokenId != null) {
+            boolean candidate = addedSinceRebuild > 0 || filter.mightContain(BloomFilter.hash(tokenId));
+            if (candidate && revokedIds.containsKey(tokenId)) {
+                return true;
+            }
+        }
+        if (userId != null && !userRevocations.isEmpty()) {
+            RevokedToken revocation = userRevocations.get(userId);
+            return revocation != null && issuedAt < revocation.getRevokedBefore();
+        }
+        return false;
+    }
+
+    /**
+     * Revokes a single token.
+     *
+     * @param persistor where the revocation is stored
+     * @param tokenId   the jti claim
+     * @param userId    the user the token belongs to
+     * @param expiresAt expiration of the token (epoch ms)
+     * @throws SQLException if the revocation cannot be stored; the token stays valid then
+     */
+    public void revokeToken(RevokedTokenPersistor persistor, String tokenId, Integer userId, long expiresAt)
+            throws SQLException {
+        RevokedToken revokedToken = RevokedToken.token(tokenId, userId, expiresAt);
+        persistor.save(revokedToken);
+        add(revokedToken);
+    }
+
+    /**
+     * Adds a revocation that has already been stored, e.g. together with the password
+     * change that caused it (see UserPersistor.changePassword).
+     *
+     * @param revokedToken the stored revocation
+     */
+    public void addStored(RevokedToken revokedToken) {
+        add(revokedToken);
+    }
+
+    /**
+     * Returns the time before which the tokens of a user are revoked. Tokens issued
+     * for the user must not be older, or they would be rejected right away.
+     *
+     * @param userId the user (may be null)
+     * @return epoch ms, or 0 if no user-wide revocation is known
+     */
+    public long getRevokedBefore(Integer userId) {
+        RevokedToken revocation = userId != null ? userRevocations.get(userId) : null;
+        return revocation != null ? revocation.getRevokedBefore() : 0;
+    }
+
+    private void add(RevokedToken revokedToken) {
+        if (revokedToken.isUserWide()) {
+            addUserRevocation(revokedToken);
+            return;
+        }
+        revokedIds.put(revokedToken.getTokenId(), revokedToken.getExpiresAt());
+        int added;
+        synchronized (this) {
+            added = ++addedSinceRebuild;
+        }
+        if (added >= REBUILD_THRESHOLD) {
+            rebuildFilter();
+        }
+    }
+
+    private void addUserRevocation(RevokedToken revokedToken) {
+        userRevocations.merge(revokedToken.getUserId(), revokedToken,
+                (current, added) -> added.getRevokedBefore() >= current.getRevokedBefore() ? added : current);
+    }
+
+    /**
+     * Rebuilds the filter from the exact set, sized with room for further revocations.
+     */
+    private synchronized void rebuildFilter() {
+        // Revocations added while the filter is built are checked against the set until the next rebuild
+        int pending = addedSinceRebuild;
+        BloomFilter rebuilt = new BloomFilter(Math.max(MIN_FILTER_KEYS, revokedIds.size() * 2L),
+                FALSE_POSITIVE_RATE, MAX_FILTER_BYTES);
+        for (String tokenId : revokedIds.keySet()) {
+            rebuilt.put(BloomFilter.hash(tokenId));
+        }
+        filter = rebuilt;
+        addedSinceRebuild -= pending;
+    }
+
+    /**
+     * Adds the active revocations of the database and drops expired ones.
+     *
+     * @param persistor where the revocations are stored
+     * @throws SQLException if the revocations cannot be loaded
+     */
+    public void load(RevokedTokenPersistor persistor) throws SQLException {
+        long now = System.currentTimeMillis();
+        List<RevokedToken> active = persistor.findActive(now);
+        for (RevokedToken revokedToken : active) {
+            if (revokedToken.isUserWide()) {
+                addUserRevocation(revokedToken);
+            } else {
+                revokedIds.put(revokedToken.getTokenId(), revokedToken.getExpiresAt());
+            }
+        }
+        revokedIds.values().removeIf(expiresAt -> expiresAt <= now);
+        userRevocations.values().removeIf(revocation -> revocation.getExpiresAt() <= now);
+        rebuildFilter();
+    }
+
+    /**
+     * Loads the revocations and keeps them up to date in a background thread:
+     * expired entries are deleted and revocations of other instances are picked up.
+     *
+     * @param persistor     where the revocations are stored
+     * @param periodSeconds interval of the maintenance in seconds
+     */
+    public synchronized void start(RevokedTokenPersistor persistor, int periodSeconds) {
+        try {
+            load(persistor);
+            log.info("Token revocations loaded: {} tokens, {} users", revokedIds.size(), userRevocations.size());
+        } catch (SQLException e) {
+            log.warn("Could not load token revocations: {}", e.getMessage());
+        }
+        if (scheduler != null) {
+            return;
+        }
+        scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "token-revocation");
+            thread.setDaemon(true);
+            return thread;
+        });
+        scheduler.scheduleWithFixedDelay(() -> {
+            try {
+                persistor.deleteExpired(System.currentTimeMillis());
+                load(persistor);
+            } catch (SQLException e) {
+                log.warn("Token revocation sync failed: {}", e.getMessage());
+            }
+        }, periodSeconds, periodSeconds, TimeUnit.SECONDS);
+    }
+
+    /**
+     * Stops the background maintenance. The in-memory revocations stay in effect.
+     */
+    public synchronized void stop() {
+        if (scheduler != null) {
+            scheduler.shutdownNow();
+            scheduler = null;
+        }
+    }
+}
@@ -0,0 +1,40 @@
+package ch.bzz.perf;
+
+import ch.bzz.catalog.CompactCatalog;
+import ch.bzz.model.Book;
+import org.openjdk.jol.info.GraphLayout;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Compares the retained heap of a List&lt;Book&gt; with the CompactCatalog for the same data.
+ * Authors are created as separate String instances per row, as they are when read from JDBC.
+ *
+ * Run with: ./gradlew catalogFootprint -Pfootprint.books=1000000
+ */
+public class CatalogFootprint {
+
+    public static void main(String[] args) {
+        int bookCount = Integer.getInteger("footprint.books", 1_000_000);
+        int authorCount = Integer.getInteger("footprint.authors", 50_000);
+
+        List<Book> books = new ArrayList<>(bookCount);
+        for (int i = 1; i <= bookCount; i++) {
+            books.add(new Book(
+                    i,
+                    new String(String.format("978-3-%03d-%05d-%d", i % 1000, i % 100_000, i % 10)),
+                    new String("Book title number " + i),
+                    new String("Author " + (i % authorCount)),
+                    1900 + i % 125));
+        }
+        CompactCatalog catalog = CompactCatalog.of(books);
+
+        long listBytes = GraphLayout.parseInstance(books).totalSize();
+        long catalogBytes = GraphLayout.parseInstance(catalog).totalSize();
+
+        System.out.printf("Books: %,d (%,d distinct authors)%n", bookCount, catalog.authorCount());
+        System.out.printf("%-16s %,15d bytes  %6.1f bytes/book%n", "List<Book>", listBytes, (double) listBytes / bookCount);
+        System.out.printf("%-16s %,15d bytes  %6.1f bytes/book%n", "CompactCatalog", catalogBytes, (double) catalogBytes / bookCount);
+        System.out.printf("Compact catalog uses %.1f%% of the list footprint%n", 100.0 * catalogBytes / listBytes);
+    }
+}
@@ -0,0 +1,81 @@
+package ch.bzz.perf;
+
+import ch.bzz.JavalinMain;
+import ch.bzz.model.Book;
+import ch.bzz.util.ContentNegotiation;
+import com.fasterxml.jackson.annotation.JsonInclude;
+import com.fasterxml.jackson.databind.MapperFeature;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.json.JsonMapper;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Compares JSON serialization throughput of the hand-written serializers on the shared
+ * mapper with Jackson's bean introspection (annotations off, i.e. the setup before the
+ * serializers were added). Fails (exit code 1) if the two produce different bytes.
+ *
+ * Run with: ./gradlew jsonBenchmark -Pjson.books=10000
+ */
+public class JsonSerializationBenchmark {
+
+    public static void main(String[] args) throws Exception {
+        int bookCount = Integer.getInteger("json.books", 10_000);
+        int iterations = Integer.getInteger("json.iterations", 200);
+        int warmup = Integer.getInteger("json.warmup", 100);
+
+        List<Book> books = new ArrayList<>(bookCount);
+        for (int i = 1; i <= bookCount; i++) {
+            books.add(new Book(i, String.format("978-3-%03d-%05d-%d", i % 1000, i % 100_000, i % 10),
+                    "Book title number " + i, "Author " + (i % 500), 1900 + i % 125));
+        }
+
+        // Books outside GET /books/delta are written without their (null) change version
+        ObjectMapper beanMapper = JsonMapper.builder().disable(MapperFeature.USE_ANNOTATIONS)
+                .serializationInclusion(JsonInclude.Include.NON_NULL).build();
+        ObjectMapper sharedMapper = ContentNegotiation.jsonMapper();
+
+        System.out.printf("%d iterations after %d warmup iterations%n", iterations, warmup);
+        System.out.printf("%-28s %-12s %12s %12s %10s%n", "payload", "serializer", "bytes", "us/op", "MB/s");
+        boolean identical = true;
+        // The small response is written 1000 times per iteration to show the per-call overhead
+        identical &= compare(bookCount + " books", new JavalinMain.BooksResponse(books, books.size(), false),
+                1, beanMapper, sharedMapper, iterations, warmup);
+        identical &= compare("error response", new JavalinMain.ErrorResponse("Invalid book id: x"),
+                1000, beanMapper, sharedMapper, iterations, warmup);
+        if (!identical) {
+            System.out.println("Hand-written serializers do not match bean serialization");
+            System.exit(1);
+        }
+    }
+
+    private static boolean compare(String name, Object payload, int repeat, ObjectMapper beanMapper,
+                                   ObjectMapper sharedMapper, int iterations, int warmup) throws Exception {
+        byte[] bean = beanMapper.writeValueAsBytes(payload);
+        byte[] shared = sharedMapper.writeValueAsBytes(payload);
+        measure(name, "bean", beanMapper, payload, repeat, iterations, warmup);
+        measure(name, "hand-written", sharedMapper, payload, repeat, iterations, warmup);
+        return Arrays.equals(bean, shared);
+    }
+
+    private static void measure(String name, String serializer, ObjectMapper mapper, Object payload,
+                                int repeat, int iterations, int warmup) throws Exception {
+        long sink = 0;
+        for (int i = 0; i < warmup * repeat; i++) {
+            sink += mapper.writeValueAsBytes(payload).length;
+        }
+
+        long bytes = 0;
+        long start = System.nanoTime();
+        for (int i = 0; i < iterations * repeat; i++) {
+            bytes += mapper.writeValueAsBytes(payload).length;
+        }
+        long nanos = System.nanoTime() - start;
+        long operations = (long) iterations * repeat;
+
+        // Printing the sink keeps the JIT from dropping the measured calls
+        System.out.printf("%-28s %-12s %,12d %12.2f %10.1f   (checksum %d)%n", name, serializer,
+                bytes / operations, nanos / 1e3 / operations, bytes / 1e6 / (nanos / 1e9), sink + bytes);
+    }
+}
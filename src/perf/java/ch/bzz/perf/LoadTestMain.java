@@ -0,0 +1,303 @@
+package ch.bzz.perf;
+
+import ch.bzz.JavalinMain;
+import ch.bzz.model.Book;
+import ch.bzz.model.User;
+import ch.bzz.persistence.BookPersistor;
+import ch.bzz.persistence.UserPersistor;
+import ch.bzz.util.PasswordHandler;
+import io.javalin.Javalin;
+import org.HdrHistogram.ConcurrentHistogram;
+import org.HdrHistogram.Histogram;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.sql.SQLException;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * End-to-end load test for the REST API.
+ * Starts the server in-process against an H2 in-memory database, seeds books and users
+ * and drives GET /books, POST /auth/login and PUT /auth/change-password with an open-loop
+ * arrival rate. Latencies are measured from the intended send time, so a stalled server is
+ * not hidden by the load generator backing off (coordinated omission).
+ *
+ * Run with: ./gradlew loadTest -Ploadtest.rate=500 -Ploadtest.duration=60
+ */
+public class LoadTestMain {
+
+    private static final String H2_URL = "jdbc:h2:mem:loadtest;DB_CLOSE_DELAY=-1;DB_CLOSE_ON_EXIT=FALSE";
+
+    private final int bookCount = Integer.getInteger("loadtest.books", 10_000);
+    private final int userCount = Integer.getInteger("loadtest.users", 20);
+    private final int rate = Integer.getInteger("loadtest.rate", 200);
+    private final int durationSeconds = Integer.getInteger("loadtest.duration", 30);
+    private final int warmupSeconds = Integer.getInteger("loadtest.warmup", 5);
+    private final int clientThreads = Integer.getInteger("loadtest.clientThreads", 16);
+    private final String booksQuery = System.getProperty("loadtest.booksQuery", "limit=100");
+    private final Map<Operation, Integer> mix = parseMix(System.getProperty("loadtest.mix", "books=80,login=15,changePassword=5"));
+
+    private final List<String[]> users = new ArrayList<>();
+    private final List<String> tokens = new ArrayList<>();
+    private HttpClient client;
+    private String baseUrl;
+
+    /**
+     * Operations driven by the load test.
+     */
+    enum Operation {
+        BOOKS("books"),
+        LOGIN("login"),
+        CHANGE_PASSWORD("changePassword");
+
+        private final String key;
+
+        Operation(String key) {
+            this.key = key;
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+        new LoadTestMain().run();
+        System.exit(0);
+    }
+
+    private void run() throws Exception {
+        // Point the application at H2 before anything touches the database
+        System.setProperty("DB_URL", H2_URL);
+        System.setProperty("DB_USER", "sa");
+        System.setProperty("DB_PASSWORD", "");
+
+        seedBooks();
+        Javalin app = JavalinMain.start(0);
+        baseUrl = "http://localhost:" + app.port();
+        seedUsers();
+
+        ExecutorService clientExecutor = Executors.newFixedThreadPool(clientThreads);
+        client = HttpClient.newBuilder()
+                .executor(clientExecutor)
+                .connectTimeout(Duration.ofSeconds(10))
+                .build();
+        loginUsers();
+
+        System.out.printf("Load test: %d books, %d users, %d req/s, mix %s%n", bookCount, userCount, rate, mix);
+        if (warmupSeconds > 0) {
+            System.out.println("Warming up for " + warmupSeconds + "s...");
+            drive(warmupSeconds);
+        }
+        System.out.println("Measuring for " + durationSeconds + "s...");
+        Result result = drive(durationSeconds);
+        result.print();
+
+        app.stop();
+        clientExecutor.shutdownNow();
+    }
+
+    /**
+     * Creates the books table in H2 and inserts generated books in batches.
+     */
+    private void seedBooks() throws SQLException {
+        BookPersistor bookPersistor = BookPersistor.getInstance();
+        bookPersistor.createTableIfNotExists();
+
+        List<Book> batch = new ArrayList<>();
+        for (int i = 1; i <= bookCount; i++) {
+            batch.add(new Book(i, String.format("978-0-%09d", i), "Load Test Book " + i, "Author " + (i % 500), 1950 + i % 75));
+            if (batch.size() == 10_000) {
+                bookPersistor.saveAll(batch);
+                batch.clear();
+            }
+        }
+        bookPersistor.saveAll(batch);
+        System.out.println("Seeded " + bookCount + " books");
+    }
+
+    private void seedUsers() throws SQLException {
+        UserPersistor userPersistor = UserPersistor.getInstance();
+        for (int i = 0; i < userCount; i++) {
+            String email = "loadtest" + i + "@example.com";
+            String password = "loadtest-" + i;
+            PasswordHandler.PasswordResult passwordResult = PasswordHandler.hashPasswordWithSalt(password);
+            userPersistor.save(new User(
+                    email,
+                    Base64.getEncoder().encodeToString(passwordResult.getHash()),
+                    Base64.getEncoder().encodeToString(passwordResult.getSalt())));
+            users.add(new String[] {email, password});
+        }
+        System.out.println("Seeded " + userCount + " users");
+    }
+
+    private void loginUsers() throws Exception {
+        for (String[] user : users) {
+            HttpResponse<String> response = client.send(request(Operation.LOGIN, user), HttpResponse.BodyHandlers.ofString());
+            String body = response.body();
+            int start = body.indexOf("\"token\":\"");
+            if (response.statusCode() != 200 || start < 0) {
+                throw new IllegalStateException("Login failed for " + user[0] + ": " + body);
+            }
+            start += "\"token\":\"".length();
+            tokens.add(body.substring(start, body.indexOf('"', start)));
+        }
+    }
+
+    /**
+     * Sends requests at a fixed rate for the given duration without waiting for responses.
+     *
+     * @param seconds how long to send requests
+     * @return collected latencies
+     */
+    private Result drive(int seconds) throws InterruptedException {
+        Result result = new Result();
+        long intervalNanos = TimeUnit.SECONDS.toNanos(1) / rate;
+        long total = (long) rate * seconds;
+        long start = System.nanoTime();
+
+        for (long i = 0; i < total; i++) {
+            long intendedStart = start + i * intervalNanos;
+            long wait = intendedStart - System.nanoTime();
+            if (wait > 0) {
+                LockSupport.parkNanos(wait);
+            }
+
+            Operation operation = pickOperation();
+            int userIndex = ThreadLocalRandom.current().nextInt(users.size());
+            HttpRequest request = operation == Operation.CHANGE_PASSWORD
+                    ? changePasswordRequest(userIndex)
+                    : request(operation, users.get(userIndex));
+            long actualStart = System.nanoTime();
+            result.sent.incrementAndGet();
+
+            client.sendAsync(request, HttpResponse.BodyHandlers.discarding())
+                    .whenComplete((response, error) -> {
+                        long end = System.nanoTime();
+                        boolean ok = error == null && response.statusCode() == 200;
+                        result.record(operation, end - intendedStart, end - actualStart, ok);
+                    });
+        }
+
+        // Wait for outstanding requests before reporting
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(30);
+        while (result.completed.get() < result.sent.get() && System.nanoTime() < deadline) {
+            Thread.sleep(50);
+        }
+        result.elapsedNanos = System.nanoTime() - start;
+        return result;
+    }
+
+    private Operation pickOperation() {
+        int totalWeight = mix.values().stream().mapToInt(Integer::intValue).sum();
+        int roll = ThreadLocalRandom.current().nextInt(totalWeight);
+        for (Map.Entry<Operation, Integer> entry : mix.entrySet()) {
+            roll -= entry.getValue();
+            if (roll < 0) {
+                return entry.getKey();
+            }
+        }
+        return Operation.BOOKS;
+    }
+
+    private HttpRequest request(Operation operation, String[] user) {
+        if (operation == Operation.BOOKS) {
+            String query = booksQuery.isEmpty() ? "" : "?" + booksQuery;
+            return HttpRequest.newBuilder(URI.create(baseUrl + "/books" + query)).GET().build();
+        }
+        String body = String.format("{\"email\":\"%s\",\"password\":\"%s\"}", user[0], user[1]);
+        return HttpRequest.newBuilder(URI.create(baseUrl + "/auth/login"))
+                .header("Content-Type", "application/json")
+                .POST(HttpRequest.BodyPublishers.ofString(body))
+                .build();
+    }
+
+    private HttpRequest changePasswordRequest(int userIndex) {
+        // The password is "changed" to itself so later logins keep working
+        String password = users.get(userIndex)[1];
+        String body = String.format("{\"oldPassword\":\"%s\",\"newPassword\":\"%s\"}", password, password);
+        return HttpRequest.newBuilder(URI.create(baseUrl + "/auth/change-password"))
+                .header("Content-Type", "application/json")
+                .header("Authorization", "Bearer " + tokens.get(userIndex))
+                .PUT(HttpRequest.BodyPublishers.ofString(body))
+                .build();
+    }
+
+    private static Map<Operation, Integer> parseMix(String value) {
+        Map<Operation, Integer> parsed = new LinkedHashMap<>();
+        for (String part : value.split(",")) {
+            String[] keyValue = part.trim().split("=");
+            for (Operation operation : Operation.values()) {
+                if (operation.key.equalsIgnoreCase(keyValue[0].trim())) {
+                    parsed.put(operation, Integer.parseInt(keyValue[1].trim()));
+                }
+            }
+        }
+        if (parsed.values().stream().mapToInt(Integer::intValue).sum() <= 0) {
+            throw new IllegalArgumentException("Invalid loadtest.mix: " + value);
+        }
+        return parsed;
+    }
+
+    /**
+     * Latency histograms per operation. Values are recorded in nanoseconds.
+     */
+    private static class Result {
+        private final Map<Operation, Histogram> corrected = new LinkedHashMap<>();
+        private final Map<Operation, Histogram> serviceTime = new LinkedHashMap<>();
+        private final Map<Operation, AtomicLong> errors = new LinkedHashMap<>();
+        private final AtomicLong sent = new AtomicLong();
+        private final AtomicLong completed = new AtomicLong();
+        private long elapsedNanos;
+
+        Result() {
+            for (Operation operation : Operation.values()) {
+                corrected.put(operation, new ConcurrentHistogram(3));
+                serviceTime.put(operation, new ConcurrentHistogram(3));
+                errors.put(operation, new AtomicLong());
+            }
+        }
+
+        void record(Operation operation, long correctedNanos, long serviceNanos, boolean ok) {
+            corrected.get(operation).recordValue(correctedNanos);
+            serviceTime.get(operation).recordValue(serviceNanos);
+            if (!ok) {
+                errors.get(operation).incrementAndGet();
+            }
+            completed.incrementAndGet();
+        }
+
+        void print() {
+            double seconds = elapsedNanos / 1e9;
+            System.out.printf("%nCompleted %d of %d requests in %.1fs (%.1f req/s)%n",
+                    completed.get(), sent.get(), seconds, completed.get() / seconds);
+            System.out.printf("%-15s %8s %8s %10s %10s %10s %10s %10s%n",
+                    "operation", "count", "errors", "req/s", "p50 ms", "p99 ms", "max ms", "p99 svc ms");
+            for (Operation operation : Operation.values()) {
+                Histogram histogram = corrected.get(operation);
+                if (histogram.getTotalCount() == 0) {
+                    continue;
+                }
+                System.out.printf("%-15s %8d %8d %10.1f %10.2f %10.2f %10.2f %10.2f%n",
+                        operation.key,
+                        histogram.getTotalCount(),
+                        errors.get(operation).get(),
+                        histogram.getTotalCount() / seconds,
+                        histogram.getValueAtPercentile(50) / 1e6,
+                        histogram.getValueAtPercentile(99) / 1e6,
+                        histogram.getMaxValue() / 1e6,
+                        serviceTime.get(operation).getValueAtPercentile(99) / 1e6);
+            }
+            System.out.println("Latencies are measured from the intended send time (coordinated-omission corrected);");
+            System.out.println("'p99 svc' is measured from the actual send time for comparison.");
+        }
+    }
+}
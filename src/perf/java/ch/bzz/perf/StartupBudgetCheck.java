@@ -0,0 +1,131 @@
+package ch.bzz.perf;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.ServerSocket;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Startup time check: launches the installed application in a fresh JVM several times
+ * and measures the time from process start to the first successful GET /books.
+ * Fails (exit code 1) if the median exceeds the budget. Each run uses an empty H2
+ * in-memory database and no catalog snapshot, i.e. the slowest cold start.
+ * If the AppCDS archive exists it is used, so the check shows its effect.
+ *
+ * Run with: ./gradlew startupCheck -Pstartup.budgetMs=3000 -Pstartup.runs=5
+ */
+public class StartupBudgetCheck {
+
+    private final long budgetMillis = Long.getLong("startup.budgetMs", 3000);
+    private final int runs = Integer.getInteger("startup.runs", 3);
+    private final long timeoutMillis = Long.getLong("startup.timeoutMs", 60_000);
+    private final String classpath = System.getProperty("startup.classpath");
+    private final String cdsArchive = System.getProperty("startup.cdsArchive", "");
+    private final HttpClient client = HttpClient.newBuilder().connectTimeout(Duration.ofMillis(200)).build();
+
+    public static void main(String[] args) throws Exception {
+        System.exit(new StartupBudgetCheck().run() ? 0 : 1);
+    }
+
+    private boolean run() throws IOException, InterruptedException {
+        if (classpath == null) {
+            throw new IllegalStateException("startup.classpath is not set; run via ./gradlew startupCheck");
+        }
+        boolean useArchive = !cdsArchive.isEmpty() && new File(cdsArchive).isFile();
+        System.out.printf("Startup check: budget %d ms, %d runs, AppCDS archive %s%n",
+                budgetMillis, runs, useArchive ? cdsArchive : "not used");
+
+        List<Long> times = new ArrayList<>();
+        for (int i = 1; i <= runs; i++) {
+            long millis = measure(useArchive);
+            System.out.printf("  run %d: %d ms%n", i, millis);
+            times.add(millis);
+        }
+        Collections.sort(times);
+        long median = times.get(times.size() / 2);
+        boolean withinBudget = median <= budgetMillis;
+        System.out.printf("Time to first successful GET /books: median %d ms, min %d ms, max %d ms -> %s%n",
+                median, times.get(0), times.get(times.size() - 1), withinBudget ? "OK" : "OVER BUDGET");
+        return withinBudget;
+    }
+
+    /**
+     * Starts the application and polls GET /books until it answers 200.
+     *
+     * @param useArchive whether to start with the AppCDS archive
+     * @return milliseconds from process start to the first 200
+     */
+    private long measure(boolean useArchive) throws IOException, InterruptedException {
+        int port = freePort();
+        Path workDir = Files.createTempDirectory("startup-check");
+        String java = Path.of(System.getProperty("java.home"), "bin", "java").toString();
+
+        List<String> command = new ArrayList<>();
+        command.add(java);
+        if (useArchive) {
+            command.add("-XX:SharedArchiveFile=" + cdsArchive);
+        }
+        command.add("-DSERVER_PORT=" + port);
+        command.add("-DDB_URL=jdbc:h2:mem:startup;DB_CLOSE_DELAY=-1");
+        command.add("-DDB_USER=sa");
+        command.add("-DDB_PASSWORD=");
+        command.add("-DCATALOG_SNAPSHOT_FILE=" + workDir.resolve("catalog.snapshot"));
+        command.add("-cp");
+        command.add(classpath);
+        command.add("ch.bzz.JavalinMain");
+
+        HttpRequest request = HttpRequest.newBuilder(URI.create("http://localhost:" + port + "/books?limit=10"))
+                .timeout(Duration.ofSeconds(5))
+                .GET()
+                .build();
+
+        long start = System.nanoTime();
+        Process process = new ProcessBuilder(command)
+                .directory(workDir.toFile())
+                .redirectErrorStream(true)
+                .redirectOutput(workDir.resolve("server.log").toFile())
+                .start();
+        try {
+            while (true) {
+                long elapsed = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+                if (!process.isAlive()) {
+                    throw new IllegalStateException("Server exited with " + process.exitValue()
+                            + ", see " + workDir.resolve("server.log"));
+                }
+                if (elapsed > timeoutMillis) {
+                    throw new IllegalStateException("No successful GET /books within " + timeoutMillis + " ms");
+                }
+                try {
+                    HttpResponse<Void> response = client.send(request, HttpResponse.BodyHandlers.discarding());
+                    if (response.statusCode() == 200) {
+                        return TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+                    }
+                } catch (IOException e) {
+                    // Not listening yet
+                }
+                Thread.sleep(10);
+            }
+        } finally {
+            process.destroy();
+            if (!process.waitFor(10, TimeUnit.SECONDS)) {
+                process.destroyForcibly();
+            }
+        }
+    }
+
+    private static int freePort() throws IOException {
+        try (ServerSocket socket = new ServerSocket(0)) {
+            return socket.getLocalPort();
+        }
+    }
+}
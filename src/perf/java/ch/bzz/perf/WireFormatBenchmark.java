@@ -0,0 +1,67 @@
+package ch.bzz.perf;
+
+import ch.bzz.JavalinMain;
+import ch.bzz.model.Book;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.dataformat.cbor.databind.CBORMapper;
+import com.fasterxml.jackson.dataformat.smile.databind.SmileMapper;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Compares payload size and encode/decode time of JSON, Smile and CBOR
+ * for a GET /books response.
+ *
+ * Run with: ./gradlew wireFormatBenchmark -Pwire.books=10000
+ */
+public class WireFormatBenchmark {
+
+    public static void main(String[] args) throws Exception {
+        int bookCount = Integer.getInteger("wire.books", 10_000);
+        int iterations = Integer.getInteger("wire.iterations", 200);
+        int warmup = Integer.getInteger("wire.warmup", 100);
+
+        List<Book> books = new ArrayList<>(bookCount);
+        for (int i = 1; i <= bookCount; i++) {
+            books.add(new Book(i, String.format("978-3-%03d-%05d-%d", i % 1000, i % 100_000, i % 10),
+                    "Book title number " + i, "Author " + (i % 500), 1900 + i % 125));
+        }
+        JavalinMain.BooksResponse response = new JavalinMain.BooksResponse(books, books.size(), false);
+
+        Map<String, ObjectMapper> mappers = new LinkedHashMap<>();
+        mappers.put("JSON", new ObjectMapper());
+        mappers.put("Smile", new SmileMapper());
+        mappers.put("CBOR", new CBORMapper());
+
+        System.out.printf("%d books, %d iterations after %d warmup iterations%n", bookCount, iterations, warmup);
+        System.out.printf("%-6s %12s %14s %14s%n", "format", "bytes", "encode ms/op", "decode ms/op");
+        for (Map.Entry<String, ObjectMapper> entry : mappers.entrySet()) {
+            ObjectMapper mapper = entry.getValue();
+            byte[] payload = mapper.writeValueAsBytes(response);
+
+            long sink = 0;
+            for (int i = 0; i < warmup; i++) {
+                sink += mapper.writeValueAsBytes(response).length;
+                sink += mapper.readTree(payload).size();
+            }
+
+            long start = System.nanoTime();
+            for (int i = 0; i < iterations; i++) {
+                sink += mapper.writeValueAsBytes(response).length;
+            }
+            double encodeMs = (System.nanoTime() - start) / 1e6 / iterations;
+
+            start = System.nanoTime();
+            for (int i = 0; i < iterations; i++) {
+                sink += mapper.readTree(payload).size();
+            }
+            double decodeMs = (System.nanoTime() - start) / 1e6 / iterations;
+
+            // Printing the sink keeps the JIT from dropping the measured calls
+            System.out.printf("%-6s %,12d %14.3f %14.3f   (checksum %d)%n",
+                    entry.getKey(), payload.length, encodeMs, decodeMs, sink);
+        }
+    }
+}
@@ -0,0 +1,88 @@
+package ch.bzz.persistence;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import java.sql.SQLException;
+import java.sql.SQLTimeoutException;
+import java.sql.SQLTransientConnectionException;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class CircuitBreakerTest {
+
+    private Deadline deadline;
+
+    @AfterEach
+    void closeDeadline() {
+        if (deadline != null) {
+            deadline.close();
+        }
+    }
+
+    private static CircuitBreaker openBreaker() {
+        CircuitBreaker breaker = new CircuitBreaker("test", 1, 0);
+        assertThrows(SQLException.class, () -> breaker.call(() -> {
+            throw new SQLTransientConnectionException("Connection refused");
+        }));
+        assertEquals(CircuitBreaker.State.OPEN, breaker.getState());
+        return breaker;
+    }
+
+    private void expiredDeadline() throws InterruptedException {
+        deadline = Deadline.start(1);
+        Thread.sleep(5);
+    }
+
+    @Test
+    void probeWithSpentDeadlineDoesNotCloseBreaker() throws Exception {
+        CircuitBreaker breaker = openBreaker();
+        expiredDeadline();
+
+        assertThrows(DeadlineExceededException.class, () -> breaker.call(() -> {
+            Deadline.check();
+            return "never reached";
+        }));
+
+        assertEquals(CircuitBreaker.State.OPEN, breaker.getState());
+    }
+
+    @Test
+    void nextCallProbesAfterUnrecordedProbe() throws Exception {
+        CircuitBreaker breaker = openBreaker();
+        expiredDeadline();
+        assertThrows(DeadlineExceededException.class, () -> breaker.call(() -> {
+            Deadline.check();
+            return "never reached";
+        }));
+        deadline.close();
+        deadline = null;
+
+        assertEquals("ok", breaker.call(() -> "ok"));
+        assertEquals(CircuitBreaker.State.CLOSED, breaker.getState());
+    }
+
+    @Test
+    void queryTimeoutWithoutDeadlineCountsAsFailure() {
+        CircuitBreaker breaker = new CircuitBreaker("test", 2, 60_000);
+        for (int i = 0; i < 2; i++) {
+            assertThrows(SQLException.class, () -> breaker.call(() -> {
+                throw new SQLException("canceling statement due to statement timeout", "57014");
+            }));
+        }
+        assertEquals(CircuitBreaker.State.OPEN, breaker.getState());
+    }
+
+    @Test
+    void queryCancelledByOwnDeadlineIsNotRecorded() throws Exception {
+        CircuitBreaker breaker = new CircuitBreaker("test", 1, 60_000);
+        expiredDeadline();
+
+        assertThrows(SQLException.class, () -> breaker.call(() -> {
+            throw new SQLTimeoutException("Query timed out", "57014");
+        }));
+
+        assertEquals(CircuitBreaker.State.CLOSED, breaker.getState());
+        assertEquals(0, breaker.getStatus().getFailedCalls());
+    }
+}
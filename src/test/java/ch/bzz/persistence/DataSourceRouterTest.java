@@ -0,0 +1,77 @@
+package ch.bzz.persistence;
+
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import java.sql.Connection;
+import java.sql.SQLException;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Routing between two separate H2 databases, a primary and a replica. The database a
+ * connection belongs to is told by its URL, the same way RoutingConnectionProvider
+ * hands out connections to Hibernate.
+ */
+class DataSourceRouterTest {
+
+    private static final String PRIMARY_URL = "jdbc:h2:mem:router_primary;DB_CLOSE_DELAY=-1";
+    private static final String REPLICA_URL = "jdbc:h2:mem:router_replica;DB_CLOSE_DELAY=-1";
+
+    private static DataSourceRouter router;
+
+    @BeforeAll
+    static void configure() {
+        // Read when DatabaseConfig and DataSourceRouter are created
+        System.setProperty("DB_URL", PRIMARY_URL);
+        System.setProperty("DB_USER", "sa");
+        System.setProperty("DB_REPLICA_URLS", REPLICA_URL);
+        System.setProperty("DB_READ_YOUR_WRITES_SECONDS", "5");
+        router = DataSourceRouter.getInstance();
+        assertTrue(router.hasReplicas(), "DataSourceRouter was created before the replica was configured");
+    }
+
+    @AfterAll
+    static void close() {
+        router.close();
+        System.clearProperty("DB_URL");
+        System.clearProperty("DB_USER");
+        System.clearProperty("DB_REPLICA_URLS");
+        System.clearProperty("DB_READ_YOUR_WRITES_SECONDS");
+    }
+
+    private static String read(String stickyKey) throws SQLException {
+        return router.read(stickyKey, DataSourceRouterTest::connectedDatabase);
+    }
+
+    private static String connectedDatabase() throws SQLException {
+        try (Connection connection = router.connection(DatabaseConfig.getInstance()::getConnection)) {
+            String url = connection.getMetaData().getURL();
+            if (url.contains("router_replica")) {
+                return "replica";
+            }
+            return url.contains("router_primary") ? "primary" : url;
+        }
+    }
+
+    @Test
+    void readsGoToReplica() throws Exception {
+        assertEquals("replica", read("user:1"));
+        assertEquals("replica", read(null));
+    }
+
+    @Test
+    void readAfterWriteGoesToPrimary() throws Exception {
+        router.markWritten("user:2");
+
+        assertEquals("primary", read("user:2"));
+        // Only the written key is pinned to the primary
+        assertEquals("replica", read("user:3"));
+    }
+
+    @Test
+    void workOutsideReadGoesToPrimary() throws Exception {
+        assertEquals("primary", connectedDatabase());
+    }
+}
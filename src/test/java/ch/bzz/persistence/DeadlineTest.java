@@ -0,0 +1,41 @@
+package ch.bzz.persistence;
+
+import org.junit.jupiter.api.Test;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class DeadlineTest {
+
+    @Test
+    void cancelActionRunsWhenDeadlinePasses() throws Exception {
+        CountDownLatch cancelled = new CountDownLatch(1);
+        try (Deadline ignored = Deadline.start(20);
+             Deadline.Registration registration = Deadline.onCancel(cancelled::countDown)) {
+            assertTrue(cancelled.await(2, TimeUnit.SECONDS), "cancel action did not run at the deadline");
+        }
+    }
+
+    @Test
+    void cancelActionRunsWhenRequestIsCancelled() {
+        AtomicInteger cancelled = new AtomicInteger();
+        try (Deadline deadline = Deadline.start(60_000);
+             Deadline.Registration registration = Deadline.onCancel(cancelled::incrementAndGet)) {
+            deadline.cancel("client disconnected");
+        }
+        assertEquals(1, cancelled.get());
+    }
+
+    @Test
+    void closedRegistrationIsNotRun() {
+        AtomicInteger cancelled = new AtomicInteger();
+        try (Deadline deadline = Deadline.start(60_000)) {
+            Deadline.onCancel(cancelled::incrementAndGet).close();
+            deadline.cancel("client disconnected");
+        }
+        assertEquals(0, cancelled.get());
+    }
+}
@@ -0,0 +1,47 @@
+package ch.bzz.util;
+
+import ch.bzz.model.Book;
+import org.junit.jupiter.api.Test;
+import java.io.StringWriter;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+/**
+ * Export lines must import again. The PostgreSQL export cleans values in SQL with the
+ * same rule as {@link BookTsv#writeLine}, so the expected lines apply to both exports.
+ */
+class BookTsvTest {
+
+    private static String line(int id, String isbn, String title, String author, int year) throws Exception {
+        StringWriter writer = new StringWriter();
+        BookTsv.writeLine(writer, id, isbn, title, author, year);
+        return writer.toString();
+    }
+
+    @Test
+    void emptyIsbnRoundTrips() throws Exception {
+        String line = line(1, "", "Title", "Author", 2000);
+        assertEquals("1\t\tTitle\tAuthor\t2000\n", line);
+
+        Book book = BookTsv.parseLine(line.stripTrailing());
+        assertEquals("", book.getIsbn());
+        assertEquals("Title", book.getTitle());
+        assertEquals(2000, book.getYear());
+    }
+
+    @Test
+    void controlCharactersInValuesBecomeSpaces() throws Exception {
+        String line = line(2, "978-1", "A\tB\nC\r\u0001D", "Au\tthor", 1999);
+        assertEquals("2\t978-1\tA B C  D\tAu thor\t1999\n", line);
+
+        Book book = BookTsv.parseLine(line.stripTrailing());
+        assertEquals("A B C  D", book.getTitle());
+        assertEquals("Au thor", book.getAuthor());
+        assertEquals(1999, book.getYear());
+    }
+
+    @Test
+    void nullValuesAreWrittenEmpty() throws Exception {
+        assertEquals("3\t\t\t\t2001\n", line(3, null, null, null, 2001));
+    }
+}